@@ -0,0 +1,44 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * shared fixtures for the benchmarks
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * returns count distinct ipv4 endpoints, spread over enough addresses to miss the codec's intern cache on a cold decode
+     */
+    static List<Endpoint> endpoints(int count, int seed) {
+        List<Endpoint> endpoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int n = (seed * 65536) + i;
+            endpoints.add(new Endpoint("10." + ((n >>> 16) & 0xFF) + "." + ((n >>> 8) & 0xFF) + "." + (n & 0xFF), 20000 + (i % 1000)));
+        }
+        return endpoints;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+/**
+ * encoding and decoding a full membership in both wire formats
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int endpoints;
+
+    private RumorsImpl rumors;
+    private List<Endpoint> members;
+    private byte[] v1Message;
+    private ByteBuffer v2Buffer;
+    private ByteBuffer v2Message;
+    private EndpointCodec codec;
+    private EndpointMessage decoded;
+
+    @Setup
+    public void setup() throws RumorsException {
+        rumors = new RumorsImpl();
+        members = Benchmarks.endpoints(endpoints, 0);
+        v1Message = rumors.endpointsToBuffer(MessageType.JOIN, members);
+
+        v2Buffer = ByteBuffer.allocate(AbstractRumors.MAX_RECEIVE_SIZE);
+        EndpointCodec.encode(v2Buffer, MessageType.JOIN, 0L, 0, members, 0);
+        v2Buffer.flip();
+        v2Message = v2Buffer.asReadOnlyBuffer();
+        v2Buffer = ByteBuffer.allocate(AbstractRumors.MAX_RECEIVE_SIZE);
+
+        codec = new EndpointCodec();
+        decoded = new EndpointMessage();
+    }
+
+    @Benchmark
+    public byte[] endpointsToBuffer() throws RumorsException {
+        return rumors.endpointsToBuffer(MessageType.JOIN, members);
+    }
+
+    @Benchmark
+    public EndpointMessage bufferToEndPoints() throws RumorsException {
+        return rumors.bufferToEndPoints(new ByteArrayInputStream(v1Message));
+    }
+
+    @Benchmark
+    public int encodeV2() throws RumorsException {
+        v2Buffer.clear();
+        return EndpointCodec.encode(v2Buffer, MessageType.JOIN, 0L, 0, members, 0);
+    }
+
+    @Benchmark
+    public EndpointMessage decodeV2() throws RumorsException {
+        codec.decode(v2Message.duplicate(), decoded);
+        return decoded;
+    }
+}
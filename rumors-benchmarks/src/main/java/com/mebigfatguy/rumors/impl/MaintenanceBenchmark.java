@@ -0,0 +1,92 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * the maintenance sweep, both on a quiet tick where nothing is due, which is what almost every tick looks like, and when the whole membership
+ * expires at once
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class MaintenanceBenchmark {
+
+    @State(Scope.Thread)
+    public static class Quiet {
+        @Param({ "100", "1000", "10000" })
+        int endpoints;
+
+        RumorsImpl rumors;
+
+        @Setup
+        public void setup() {
+            rumors = new RumorsImpl();
+            rumors.addEndPoints(Benchmarks.endpoints(endpoints, 0));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Expiring {
+        private static final long STALE_TIME = 20;
+
+        @Param({ "100", "1000", "10000" })
+        int endpoints;
+
+        RumorsImpl rumors;
+
+        @Setup(Level.Invocation)
+        public void setup() throws InterruptedException {
+            rumors = new RumorsImpl();
+            rumors.setEndpointStaleTime(STALE_TIME);
+            rumors.addEndPoints(Benchmarks.endpoints(endpoints, 0));
+            Thread.sleep(STALE_TIME * 2);
+        }
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public int quietSweep(Quiet state) {
+        state.rumors.expireStaleEndPoints();
+        return state.rumors.knownMessageSockets.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public int expiringSweep(Expiring state) {
+        state.rumors.expireStaleEndPoints();
+        return state.rumors.knownMessageSockets.size();
+    }
+}
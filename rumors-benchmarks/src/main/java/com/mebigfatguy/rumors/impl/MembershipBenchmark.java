@@ -0,0 +1,93 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * one thread churning a batch of endpoints in and out of the membership, while three others read it, as callers picking a peer per request
+ * would
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipBenchmark {
+
+    private static final int CHURN_BATCH = 10;
+
+    @Param({ "10", "100", "1000" })
+    int endpoints;
+
+    @Param({ "false", "true" })
+    boolean compact;
+
+    private RumorsImpl rumors;
+    private List<Endpoint> churn;
+
+    @Setup
+    public void setup() {
+        rumors = new RumorsImpl();
+        rumors.setCompactMembership(compact);
+        rumors.addEndPoints(Benchmarks.endpoints(endpoints, 0));
+        churn = Benchmarks.endpoints(CHURN_BATCH, 1);
+    }
+
+    /**
+     * the expiry wheel is never advanced here, so start each iteration with a fresh one rather than let deadlines pile up
+     */
+    @Setup(Level.Iteration)
+    public void resetWheel() {
+        rumors.setEndpointStaleTime(AbstractRumors.DEFAULT_MAINTENANCE_STALE_TIME);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void addAndRemove() {
+        rumors.addEndPoints(churn);
+        rumors.removeEndPoints(churn);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public List<Endpoint> getEndpoints() {
+        return rumors.getEndpoints();
+    }
+}
@@ -34,9 +34,13 @@ public class Endpoint {
 		return port;
 	}
 	
+	/**
+	 * spreads the ip's hash over the high bits, so that ips whose hashes only differ in their low bits don't collide with each
+	 * other's neighbouring ports
+	 */
 	@Override
 	public int hashCode() {
-		return ip.hashCode() ^ port;
+		return (ip.hashCode() * 0x9E3779B1) ^ port;
 	}
 	
 	@Override
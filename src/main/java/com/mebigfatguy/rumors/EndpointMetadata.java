@@ -0,0 +1,100 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * a small map of values that an endpoint attaches to itself, such as the service it runs, its zone, capacity or current load. Each change is
+ * given a higher version, so that older copies still in flight never replace newer ones.
+ */
+public final class EndpointMetadata {
+
+    /**
+     * the key whose value is read as the endpoint's current load by the load aware selection. Its value is a number, where lower is less loaded.
+     */
+    public static final String LOAD = "load";
+
+    private final Endpoint endpoint;
+    private final long version;
+    private final Map<String, String> values;
+
+    public EndpointMetadata(Endpoint endpoint, long version, Map<String, String> values) {
+        this.endpoint = endpoint;
+        this.version = version;
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * returns the values as an unmodifiable map
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * returns the load value, or 0 if there isn't one, or it isn't a number
+     */
+    public double getLoad() {
+        String load = values.get(LOAD);
+        if (load == null) {
+            return 0.0;
+        }
+
+        try {
+            double value = Double.parseDouble(load);
+            return Double.isNaN(value) ? 0.0 : value;
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return endpoint.hashCode() ^ (int) version ^ values.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof EndpointMetadata)) {
+            return false;
+        }
+
+        EndpointMetadata that = (EndpointMetadata) o;
+        return (version == that.version) && endpoint.equals(that.endpoint) && values.equals(that.values);
+    }
+
+    @Override
+    public String toString() {
+        return "[endpoint: " + endpoint + ", version: " + version + ", values: " + values + "]";
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+/**
+ * how healthy an endpoint looks, judged by how overdue its announces are compared to how regularly they have been arriving
+ * <ul>
+ * <li>ALIVE - announcing on schedule, or not enough history to judge yet</li>
+ * <li>SUSPECT - overdue enough that callers may want to prefer other endpoints</li>
+ * <li>DEAD - overdue enough to be removed, or not known at all</li>
+ * </ul>
+ */
+public enum EndpointState {
+    ALIVE, SUSPECT, DEAD
+}
@@ -0,0 +1,28 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+/**
+ * is told about membership changes as they happen. Joins are reported as ALIVE, as are suspects that announce again, removals and expiries
+ * are reported as DEAD. Events are delivered in order on a rumors dispatch thread, never on the threads that receive messages, but a listener
+ * that falls far enough behind will miss events, and should resync from getEndpoints.
+ */
+public interface MembershipListener {
+
+    void endpointChanged(Endpoint endpoint, EndpointState state);
+}
@@ -0,0 +1,62 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+import java.util.List;
+
+/**
+ * an immutable view of the membership at one membership version. Versions only ever increase, so comparing the version against one seen
+ * earlier is enough to tell whether anything has changed since.
+ */
+public final class MembershipSnapshot {
+
+    private final long version;
+    private final List<Endpoint> endpoints;
+
+    /**
+     * the endpoints list must not be modified after being handed to the snapshot
+     */
+    public MembershipSnapshot(long version, List<Endpoint> endpoints) {
+        this.version = version;
+        this.endpoints = endpoints;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * returns the members as an unmodifiable list
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    public boolean isChangedSince(long seenVersion) {
+        return version != seenVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "[version: " + version + ", endpoints: " + endpoints + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+/**
+ * is told about discovery traffic and membership churn as it happens, so that it can be forwarded to whatever metrics library the application
+ * uses. Calls are made directly on the threads that send and receive, so implementations must be quick and must not block. Every method
+ * does nothing by default.
+ */
+public interface MetricsListener {
+
+    /**
+     * where traffic went. Persistent sessions count as STATIC.
+     */
+    enum Channel {
+        DYNAMIC, STATIC, SWIM
+    }
+
+    /**
+     * why inbound traffic was turned away without being decoded
+     */
+    enum Shed {
+        OVERSIZED, RATE_LIMITED, OVERLOADED
+    }
+
+    default void packetSent(Channel channel, int bytes) {
+    }
+
+    default void packetReceived(Channel channel, int bytes) {
+    }
+
+    default void decodeFailed(Channel channel) {
+    }
+
+    /**
+     * reports a datagram, point2point message or connection that was dropped before it was decoded
+     */
+    default void messageShed(Channel channel, Shed reason) {
+    }
+
+    default void endpointJoined(Endpoint endpoint, int membershipSize) {
+    }
+
+    default void endpointLeft(Endpoint endpoint, int membershipSize) {
+    }
+
+    default void endpointExpired(Endpoint endpoint, int membershipSize) {
+    }
+
+    /**
+     * reports how long it took to build and encode one outgoing message
+     */
+    default void messageEncoded(long nanos) {
+    }
+
+    /**
+     * reports how long one point2point exchange took, from connecting until the reply was applied, or until it failed
+     */
+    default void staticExchanged(Endpoint peer, long nanos, boolean succeeded) {
+    }
+
+    /**
+     * reports how long after beginning the membership first held a peer's complete view
+     */
+    default void bootstrapped(long nanos) {
+    }
+}
@@ -18,6 +18,7 @@
 package com.mebigfatguy.rumors;
 
 import java.util.List;
+import java.util.Map;
 
 public interface Rumors {
 
@@ -25,7 +26,56 @@ public interface Rumors {
 
     void end();
 
+    /**
+     * returns the current members as an unmodifiable list, the same list as getMembership().getEndpoints()
+     */
     List<Endpoint> getEndpoints();
 
+    /**
+     * returns the current membership snapshot. Snapshots are only rebuilt after the membership changes, so repeated calls are cheap.
+     */
+    MembershipSnapshot getMembership();
+
+    /**
+     * returns how healthy the endpoint looks, or DEAD if it isn't known
+     */
+    EndpointState getEndpointState(Endpoint endpoint);
+
     void reportBadInput(Endpoint endpoint);
+
+    void addListener(MembershipListener listener);
+
+    void removeListener(MembershipListener listener);
+
+    /**
+     * returns the live counters and gauges for this instance, the same ones that are registered with jmx while it is running
+     */
+    RumorsMetricsMXBean getMetrics();
+
+    /**
+     * sets a listener that is told about every measurement as it is taken, or clears it if null
+     */
+    void setMetricsListener(MetricsListener listener);
+
+    /**
+     * attaches metadata to this instance's endpoint, replacing what was attached before, and spreads it to the other members. Keys and values
+     * are limited to 255 utf8 bytes, and the whole map must fit in one datagram.
+     */
+    void setMetadata(Map<String, String> metadata);
+
+    /**
+     * returns the latest metadata known for the endpoint, or null if it hasn't attached any
+     */
+    EndpointMetadata getMetadata(Endpoint endpoint);
+
+    /**
+     * returns the members whose metadata holds the value under the key, as an unmodifiable list
+     */
+    List<Endpoint> selectByTag(String key, String value);
+
+    /**
+     * picks a member by the power of two choices, the less loaded of two picked at random, from the members whose metadata holds the value
+     * under the key, or from every member if the key is null. Returns null if there is nothing to pick from.
+     */
+    Endpoint selectLeastLoaded(String key, String value);
 }
@@ -0,0 +1,30 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+/**
+ * how a rumors instance drives its sockets
+ * <ul>
+ * <li>THREADED - a dedicated blocking thread for each of the broadcast, receive, static and maintenance tasks</li>
+ * <li>NIO - one selector thread with non blocking channels, and all timers run from that thread</li>
+ * <li>TRANSPORT - one scheduler thread for all timers, with all networking done by a Transport, plain sockets by default</li>
+ * </ul>
+ */
+public enum RumorsEngine {
+    THREADED, NIO, TRANSPORT
+}
@@ -22,9 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
@@ -44,7 +48,12 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.mebigfatguy.rumors.impl.AbstractRumors;
+import com.mebigfatguy.rumors.impl.AdmissionControl;
+import com.mebigfatguy.rumors.impl.GroupTransport;
+import com.mebigfatguy.rumors.impl.NioRumorsImpl;
 import com.mebigfatguy.rumors.impl.RumorsImpl;
+import com.mebigfatguy.rumors.impl.TransportRumorsImpl;
 
 public final class RumorsFactory {
 
@@ -64,6 +73,17 @@ public final class RumorsFactory {
         return new RumorsImpl();
     }
 
+    public static Rumors createRumors(RumorsEngine engine) {
+        return newRumors(engine);
+    }
+
+    /**
+     * creates an instance that does all of its networking through the given transport
+     */
+    public static Rumors createRumors(Transport transport) {
+        return new TransportRumorsImpl(transport);
+    }
+
     public static Rumors createRumors(Path rumorsPath) throws IOException {
 
         try (InputStream is = Files.newInputStream(rumorsPath)) {
@@ -72,58 +92,247 @@ public final class RumorsFactory {
     }
 
     public static Rumors createRumors(InputStream rumorsStream) throws IOException {
+        try {
+            Document d = parse(rumorsStream);
+            XPath xp = newXPath();
+
+            XPathExpression xpe = xp.compile("/ru:rumors/engine/@type");
+            Attr engine = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+            AbstractRumors rumors = newRumors((engine == null) ? RumorsEngine.THREADED : RumorsEngine.valueOf(engine.getValue().toUpperCase(Locale.ENGLISH)));
+            configure(rumors, d, xp, null);
+            return rumors;
+        } catch (XPathExpressionException e) {
+            throw new IOException("Failed to parse rumors configuration file", e);
+        }
+    }
+
+    /**
+     * creates one instance per named discovery group, all sharing the given transport, keyed by group name. Each group has its own membership,
+     * and ignores the traffic of the others.
+     */
+    public static Map<String, Rumors> createGroups(Transport transport, String... groupNames) {
+        GroupTransport groupTransport = new GroupTransport(transport);
+        Map<String, Rumors> groups = new LinkedHashMap<>();
+        for (String groupName : groupNames) {
+            TransportRumorsImpl rumors = new TransportRumorsImpl(groupTransport.getGroup(groupName));
+            rumors.setGroupName(groupName);
+            groups.put(groupName, rumors);
+        }
+        return groups;
+    }
+
+    public static Map<String, Rumors> createGroups(Path rumorsPath) throws IOException {
+
+        try (InputStream is = Files.newInputStream(rumorsPath)) {
+            return createGroups(is);
+        }
+    }
+
+    /**
+     * creates one instance per group listed in the configuration's groups element, all sharing one socket transport built from the
+     * configuration, keyed by group name. Every group is configured alike, except that a membership cache file gets the group name appended.
+     */
+    public static Map<String, Rumors> createGroups(InputStream rumorsStream) throws IOException {
+        try {
+            Document d = parse(rumorsStream);
+            XPath xp = newXPath();
+
+            TransportRumorsImpl template = new TransportRumorsImpl();
+            configure(template, d, xp, null);
+            GroupTransport groupTransport = new GroupTransport(template.newSocketTransport());
+
+            XPathExpression xpe = xp.compile("/ru:rumors/groups/group/@name");
+            NodeList names = (NodeList) xpe.evaluate(d, XPathConstants.NODESET);
+            Map<String, Rumors> groups = new LinkedHashMap<>();
+            for (int i = 0; i < names.getLength(); ++i) {
+                String groupName = names.item(i).getNodeValue();
+                TransportRumorsImpl rumors = new TransportRumorsImpl(groupTransport.getGroup(groupName));
+                configure(rumors, d, xp, groupName);
+                groups.put(groupName, rumors);
+            }
+            return groups;
+        } catch (XPathExpressionException e) {
+            throw new IOException("Failed to parse rumors configuration file", e);
+        }
+    }
+
+    private static Document parse(InputStream rumorsStream) throws IOException {
         try (InputStream xmlIs = new BufferedInputStream(rumorsStream);
                 InputStream xsdIs = new BufferedInputStream(RumorsFactory.class.getResourceAsStream(RUMORS_SCHEMA_FILE))) {
 
-            RumorsImpl rumors = new RumorsImpl();
-
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
             dbf.setNamespaceAware(true);
             dbf.setValidating(true);
             dbf.setAttribute(JAXP_SCHEMA_LANGUAGE, W3C_XML_SCHEMA);
             dbf.setAttribute(JAXP_SCHEMA_SOURCE, xsdIs);
             DocumentBuilder db = dbf.newDocumentBuilder();
-            Document d = db.parse(xmlIs);
+            return db.parse(xmlIs);
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Failed to parse rumors configuration file", e);
+        }
+    }
+
+    private static XPath newXPath() {
+        XPathFactory xpf = XPathFactory.newInstance();
+        XPath xp = xpf.newXPath();
+        xp.setNamespaceContext(new RumorsNamespaceContext());
+        return xp;
+    }
+
+    private static void configure(AbstractRumors rumors, Document d, XPath xp, String groupName) throws XPathExpressionException {
+        XPathExpression xpe = xp.compile("/ru:rumors/broadcast");
+
+        Element e = (Element) xpe.evaluate(d, XPathConstants.NODE);
+        rumors.setBroadcastEndpoint(new Endpoint(e.getAttribute("ip"), Integer.parseInt(e.getAttribute("port"))));
+        if (e.hasAttribute("receivebuffer")) {
+            rumors.setReceiveBufferSize(Integer.parseInt(e.getAttribute("receivebuffer")));
+        }
+
+        xpe = xp.compile("/ru:rumors/static/@port");
+        Attr staticPort = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (staticPort != null) {
+            rumors.setStaticPort(Integer.parseInt(staticPort.getValue()));
+        }
+
+        xpe = xp.compile("/ru:rumors/static/@advertise");
+        Attr advertise = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (advertise != null) {
+            rumors.setStaticAdvertiseAddress(advertise.getValue());
+        }
+
+        xpe = xp.compile("/ru:rumors/point2point/tcp");
+        NodeList tcps = (NodeList) xpe.evaluate(d, XPathConstants.NODESET);
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < tcps.getLength(); ++i) {
+            Element tcp = (Element) tcps.item(i);
+            String ip = tcp.getAttribute("ip");
+            int port = Integer.parseInt(tcp.getAttribute("port"));
+            Endpoint endpoint = new Endpoint(ip, port);
+            endpoints.add(endpoint);
+        }
+        rumors.setPoint2PointEndpoints(endpoints);
+
+        xpe = xp.compile("/ru:rumors/point2point/@connecttimeout");
+        Attr connectTimeout = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (connectTimeout != null) {
+            rumors.setStaticConnectTimeout(Integer.parseInt(connectTimeout.getValue()));
+        }
+
+        xpe = xp.compile("/ru:rumors/point2point/@readtimeout");
+        Attr readTimeout = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (readTimeout != null) {
+            rumors.setStaticReadTimeout(Integer.parseInt(readTimeout.getValue()));
+        }
 
-            XPathFactory xpf = XPathFactory.newInstance();
-            XPath xp = xpf.newXPath();
-            xp.setNamespaceContext(new RumorsNamespaceContext());
-            XPathExpression xpe = xp.compile("/ru:rumors/broadcast");
+        xpe = xp.compile("/ru:rumors/point2point/@persistent");
+        Attr persistent = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (persistent != null) {
+            rumors.setPersistentSessions(Boolean.parseBoolean(persistent.getValue()));
+        }
+
+        xpe = xp.compile("/ru:rumors/point2point/@antientropy");
+        Attr antiEntropy = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (antiEntropy != null) {
+            rumors.setAntiEntropy(Boolean.parseBoolean(antiEntropy.getValue()));
+        }
 
-            Element e = (Element) xpe.evaluate(d, XPathConstants.NODE);
-            rumors.setBroadcastEndpoint(new Endpoint(e.getAttribute("ip"), Integer.parseInt(e.getAttribute("port"))));
+        xpe = xp.compile("/ru:rumors/announce/@delay");
+        Attr attr = (Attr) xpe.evaluate(d, XPathConstants.NODE);
 
-            xpe = xp.compile("/ru:rumors/static/@port");
-            Attr staticPort = (Attr) xpe.evaluate(d, XPathConstants.NODE);
-            if (staticPort != null) {
-                rumors.setStaticPort(Integer.parseInt(staticPort.getValue()));
+        rumors.setBroadcastAnnounceDelay(attr.getValue());
+
+        xpe = xp.compile("/ru:rumors/staletime/text()");
+        String staleTime = (String) xpe.evaluate(d, XPathConstants.STRING);
+        if (!staleTime.isEmpty()) {
+            rumors.setEndpointStaleTime(Long.parseLong(staleTime.trim()));
+        }
+
+        xpe = xp.compile("/ru:rumors/wire/@version");
+        Attr wireVersion = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (wireVersion != null) {
+            rumors.setWireVersion(Integer.parseInt(wireVersion.getValue()));
+        }
+
+        xpe = xp.compile("/ru:rumors/wire/@legacy");
+        Attr legacy = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (legacy != null) {
+            rumors.setLegacyPeers(Boolean.parseBoolean(legacy.getValue()));
+        }
+
+        xpe = xp.compile("/ru:rumors/failuredetector");
+        Element detector = (Element) xpe.evaluate(d, XPathConstants.NODE);
+        if (detector != null) {
+            String suspect = detector.getAttribute("suspect");
+            String dead = detector.getAttribute("dead");
+            rumors.setFailureThresholds(suspect.isEmpty() ? AbstractRumors.DEFAULT_SUSPECT_PHI : Double.parseDouble(suspect),
+                    dead.isEmpty() ? AbstractRumors.DEFAULT_DEAD_PHI : Double.parseDouble(dead));
+        }
+
+        xpe = xp.compile("/ru:rumors/swim");
+        Element swim = (Element) xpe.evaluate(d, XPathConstants.NODE);
+        if (swim != null) {
+            rumors.setSwimMode(true);
+            if (swim.hasAttribute("probeinterval")) {
+                rumors.setSwimProbeInterval(Integer.parseInt(swim.getAttribute("probeinterval")));
+            }
+            if (swim.hasAttribute("probetimeout")) {
+                rumors.setSwimProbeTimeout(Integer.parseInt(swim.getAttribute("probetimeout")));
+            }
+            if (swim.hasAttribute("indirect")) {
+                rumors.setSwimIndirectProbes(Integer.parseInt(swim.getAttribute("indirect")));
             }
+            if (swim.hasAttribute("fanout")) {
+                rumors.setSwimFanout(Integer.parseInt(swim.getAttribute("fanout")));
+            }
+        }
+
+        xpe = xp.compile("/ru:rumors/membership/@compact");
+        Attr compact = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        if (compact != null) {
+            rumors.setCompactMembership(Boolean.parseBoolean(compact.getValue()));
+        }
 
-            xpe = xp.compile("/ru:rumors/point2point/tcp");
-            NodeList tcps = (NodeList) xpe.evaluate(d, XPathConstants.NODESET);
-            List<Endpoint> endpoints = new ArrayList<>();
-            for (int i = 0; i < tcps.getLength(); ++i) {
-                Element tcp = (Element) tcps.item(i);
-                String ip = tcp.getAttribute("ip");
-                int port = Integer.parseInt(tcp.getAttribute("port"));
-                Endpoint endpoint = new Endpoint(ip, port);
-                endpoints.add(endpoint);
+        xpe = xp.compile("/ru:rumors/cache");
+        Element cache = (Element) xpe.evaluate(d, XPathConstants.NODE);
+        if (cache != null) {
+            String file = cache.getAttribute("file");
+            rumors.setMembershipCache(Paths.get((groupName == null) ? file : file + '.' + groupName));
+            if (cache.hasAttribute("interval")) {
+                rumors.setMembershipCacheInterval(Long.parseLong(cache.getAttribute("interval")));
             }
-            rumors.setPoint2PointEndpoints(endpoints);
+        }
 
-            xpe = xp.compile("/ru:rumors/announce/@delay");
-            Attr attr = (Attr) xpe.evaluate(d, XPathConstants.NODE);
+        xpe = xp.compile("/ru:rumors/admission");
+        Element admission = (Element) xpe.evaluate(d, XPathConstants.NODE);
+        if (admission != null) {
+            String rate = admission.getAttribute("rate");
+            String burst = admission.getAttribute("burst");
+            rumors.setRateLimit(rate.isEmpty() ? AdmissionControl.DEFAULT_MESSAGE_RATE : Integer.parseInt(rate),
+                    burst.isEmpty() ? AdmissionControl.DEFAULT_MESSAGE_BURST : Integer.parseInt(burst));
+            if (admission.hasAttribute("maxdatagram")) {
+                rumors.setMaxDatagramSize(Integer.parseInt(admission.getAttribute("maxdatagram")));
+            }
+            if (admission.hasAttribute("maxstatic")) {
+                rumors.setMaxStaticMessageSize(Integer.parseInt(admission.getAttribute("maxstatic")));
+            }
+        }
 
-            rumors.setBroadcastAnnounceDelay(attr.getValue());
+        if (groupName != null) {
+            rumors.setGroupName(groupName);
+        }
+    }
 
-            xpe = xp.compile("/ru:rumors/staleTime/text()");
-            long staleTime = ((Number) xpe.evaluate(d, XPathConstants.NUMBER)).longValue();
+    private static AbstractRumors newRumors(RumorsEngine engine) {
+        switch (engine) {
+            case NIO:
+                return new NioRumorsImpl();
 
-            rumors.setEndpointStaleTime(staleTime);
+            case TRANSPORT:
+                return new TransportRumorsImpl();
 
-            return rumors;
-        } catch (SAXException | ParserConfigurationException | XPathExpressionException e) {
-            throw new IOException("Failed to parse rumors configuration file", e);
+            case THREADED:
+            default:
+                return new RumorsImpl();
         }
     }
 
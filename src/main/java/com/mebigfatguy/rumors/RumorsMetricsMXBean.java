@@ -0,0 +1,111 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+/**
+ * the counters and gauges a running rumors instance keeps, registered with the platform MBean server under
+ * com.mebigfatguy.rumors:type=Rumors,endpoint="ip:port". Counts are totals since the instance was created, while rates are one minute moving
+ * averages.
+ */
+public interface RumorsMetricsMXBean {
+
+    int getMembershipSize();
+
+    long getDynamicPacketsSent();
+
+    long getDynamicBytesSent();
+
+    long getDynamicPacketsReceived();
+
+    long getDynamicBytesReceived();
+
+    long getStaticPacketsSent();
+
+    long getStaticBytesSent();
+
+    long getStaticPacketsReceived();
+
+    long getStaticBytesReceived();
+
+    long getSwimPacketsSent();
+
+    long getSwimBytesSent();
+
+    long getSwimPacketsReceived();
+
+    long getSwimBytesReceived();
+
+    long getDecodeFailures();
+
+    /**
+     * returns how many datagrams and point2point messages were dropped for being larger than the size caps
+     */
+    long getOversizedMessages();
+
+    /**
+     * returns how many datagrams and point2point connections were dropped because their source was over its rate limit
+     */
+    long getRateLimitedMessages();
+
+    /**
+     * returns how many point2point connections were refused because every slot for serving them was taken
+     */
+    long getRefusedConnections();
+
+    long getJoins();
+
+    double getJoinsPerSecond();
+
+    long getLeaves();
+
+    double getLeavesPerSecond();
+
+    long getExpiries();
+
+    double getExpiriesPerSecond();
+
+    long getMessagesEncoded();
+
+    long getAverageEncodeNanos();
+
+    long getMaxEncodeNanos();
+
+    long getStaticExchanges();
+
+    long getStaticExchangeFailures();
+
+    /**
+     * returns the upper bound, in milliseconds, of each bucket of the static exchange latency histogram. The last bucket has no upper bound.
+     */
+    long[] getStaticExchangeLatencyBounds();
+
+    long[] getStaticExchangeLatencyHistogram();
+
+    /**
+     * returns the upper bound, in milliseconds, of the histogram bucket holding the median static exchange
+     */
+    long getStaticExchangeLatencyP50();
+
+    long getStaticExchangeLatencyP99();
+
+    /**
+     * returns how many milliseconds after beginning the membership first held a peer's complete view, either pulled from it or confirmed by
+     * matching digests, or -1 if it hasn't yet
+     */
+    long getBootstrapMillis();
+}
@@ -0,0 +1,49 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * moves rumors messages around, so that the protocol can run over something other than the built in sockets. A transport carries two kinds of
+ * traffic: datagrams sent to the whole group, and request/response exchanges with a single point2point peer. Messages are already encoded
+ * when they reach the transport, so a transport never needs to understand them.
+ */
+public interface Transport {
+
+    /**
+     * starts delivering received traffic to the handler, and returns the endpoint that identifies this instance to the others
+     */
+    Endpoint open(TransportHandler handler) throws IOException;
+
+    /**
+     * sends one datagram, from the buffer's position to its limit, to every member of the group, this one included
+     */
+    void send(ByteBuffer datagram) throws IOException;
+
+    /**
+     * sends a request to a point2point peer, and returns everything the peer sends back before closing the exchange
+     */
+    byte[] exchange(Endpoint peer, byte[] request, int connectTimeout, int readTimeout) throws IOException;
+
+    /**
+     * stops delivering traffic, and releases whatever the transport holds
+     */
+    void close();
+}
@@ -0,0 +1,50 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * what a transport hands received traffic to. Transports may call these from any thread, and from several threads at once.
+ */
+public interface TransportHandler {
+
+    /**
+     * handles one datagram, from the buffer's position to its limit. The buffer is only valid for the duration of the call.
+     */
+    void datagramReceived(ByteBuffer datagram);
+
+    /**
+     * handles a burst of datagrams that were waiting together, each from its position to its limit, which the transport may already have
+     * stripped of exact duplicates. The buffers are only valid for the duration of the call. By default each one is handled on its own.
+     */
+    default void datagramsReceived(List<ByteBuffer> datagrams) {
+        for (ByteBuffer datagram : datagrams) {
+            datagramReceived(datagram);
+        }
+    }
+
+    /**
+     * reads one point2point request from the stream and returns the reply, or null if there is none. An EOFException means the request hasn't
+     * completely arrived yet, so a transport that reads incrementally can call again with more of it.
+     */
+    byte[] requestReceived(DataInputStream request) throws IOException;
+}
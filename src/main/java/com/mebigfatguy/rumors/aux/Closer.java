@@ -17,8 +17,10 @@
  */
 package com.mebigfatguy.rumors.aux;
 
+import java.io.Closeable;
 import java.net.MulticastSocket;
 import java.net.ServerSocket;
+import java.net.Socket;
 
 public class Closer {
 
@@ -42,4 +44,26 @@ public class Closer {
         } catch (Exception e) {
         }
     }
+
+    /**
+     * closes the socket with a reset, rather than an orderly shutdown, so that refusing a connection costs as little as possible
+     */
+    public static void abort(Socket s) {
+        try {
+            if (s != null) {
+                s.setSoLinger(true, 0);
+                s.close();
+            }
+        } catch (Exception e) {
+        }
+    }
+
+    public static void close(Closeable c) {
+        try {
+            if (c != null) {
+                c.close();
+            }
+        } catch (Exception e) {
+        }
+    }
 }
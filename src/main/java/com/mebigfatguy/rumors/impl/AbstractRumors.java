@@ -0,0 +1,1634 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.lang.management.ManagementFactory;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
+import com.mebigfatguy.rumors.EndpointState;
+import com.mebigfatguy.rumors.MembershipListener;
+import com.mebigfatguy.rumors.MembershipSnapshot;
+import com.mebigfatguy.rumors.MetricsListener;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.Rumors;
+import com.mebigfatguy.rumors.RumorsException;
+import com.mebigfatguy.rumors.RumorsMetricsMXBean;
+
+/**
+ * the configuration, membership and protocol handling that is shared by the rumors engines. Engines only supply the threads and sockets that
+ * move messages around.
+ */
+public abstract class AbstractRumors implements Rumors {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(AbstractRumors.class);
+
+    static final String DEFAULT_BROADCAST_IP = "228.229.230.231";
+    static final int DEFAULT_DYNAMIC_PORT = 13531;
+    static final int[] DEFAULT_ANNOUNCE_DELAY = { 100, 5000, 5000, 5000, 60000 };
+    static final int DEFAULT_MAINTENANCE_STALE_TIME = 5 * 60000;
+    static final int MAX_DATAGRAM_SIZE = 1400;
+    static final int MAX_RECEIVE_SIZE = 65536;
+    static final int MAX_RECEIVE_BURST = 64;
+    // how long a blocking receiver waits for the next datagram of a burst before applying what it has
+    static final int BURST_DRAIN_TIMEOUT = 1;
+    static final long PULL_INTERVAL = 1000;
+    static final int DEFAULT_STATIC_CONNECT_TIMEOUT = 2000;
+    static final int DEFAULT_STATIC_READ_TIMEOUT = 5000;
+    static final int MAX_STATIC_THREADS = 8;
+    static final long MIN_EXPIRY_TICK = 10;
+    static final long MAX_EXPIRY_TICK = 1000;
+    static final int EXPIRY_TICKS_PER_STALE_TIME = 64;
+    public static final double DEFAULT_SUSPECT_PHI = 5.0;
+    public static final double DEFAULT_DEAD_PHI = 10.0;
+    static final int DEFAULT_SWIM_PROBE_INTERVAL = 1000;
+    static final int DEFAULT_SWIM_PROBE_TIMEOUT = 300;
+    static final int DEFAULT_SWIM_INDIRECT_PROBES = 3;
+    static final int DEFAULT_SWIM_FANOUT = 3;
+    static final String METRICS_DOMAIN = "com.mebigfatguy.rumors";
+    static final long DEFAULT_CACHE_INTERVAL = 10000;
+    // what is left of a datagram after the header, the longest endpoint entry, the version and the pair count
+    static final int MAX_METADATA_SIZE = MAX_DATAGRAM_SIZE - 6 - 259 - 8 - 1;
+    private static final Endpoint UNBOUND_ENDPOINT = new Endpoint("", 0);
+    // the leaves of the anti entropy tree, picked by the top bits of each endpoint's digest, whose xor is the membership digest
+    static final int SYNC_BUCKETS = 64;
+    private static final int SYNC_BUCKET_SHIFT = 64 - 6;
+    static final int LEAVE_RETRANSMITS = 3;
+    static final long LEAVE_RETRANSMIT_INTERVAL = 20;
+    // trails the dynamic datagrams an instance sends about itself, after the message, where readers that don't know it never look
+    private static final byte INCARNATION_MARK = 'I';
+    static final int INCARNATION_TRAILER_SIZE = 1 + 8;
+    // how many instances, on average, offer a full view to each one that bootstraps
+    static final int BOOTSTRAP_RESPONDERS = 4;
+
+    Endpoint broadcastEndpoint = new Endpoint(DEFAULT_BROADCAST_IP, DEFAULT_DYNAMIC_PORT);
+    Endpoint myEndpoint;
+    int staticPort = 0;
+    String staticAdvertiseAddress;
+    List<Endpoint> staticEndpoints = new ArrayList<>();
+    int[] broadcastAnnounce = DEFAULT_ANNOUNCE_DELAY;
+    int wireVersion = EndpointCodec.V1;
+    boolean legacyPeers = false;
+    long endpointStaleTime = DEFAULT_MAINTENANCE_STALE_TIME;
+    int staticConnectTimeout = DEFAULT_STATIC_CONNECT_TIMEOUT;
+    int staticReadTimeout = DEFAULT_STATIC_READ_TIMEOUT;
+    boolean persistentSessions = false;
+    boolean antiEntropy = false;
+    boolean swimMode = false;
+    int swimProbeInterval = DEFAULT_SWIM_PROBE_INTERVAL;
+    int swimProbeTimeout = DEFAULT_SWIM_PROBE_TIMEOUT;
+    int swimIndirectProbes = DEFAULT_SWIM_INDIRECT_PROBES;
+    int swimFanout = DEFAULT_SWIM_FANOUT;
+    double suspectScore = FailureDetector.scoreFor(DEFAULT_SUSPECT_PHI);
+    double deadScore = FailureDetector.scoreFor(DEFAULT_DEAD_PHI);
+    MembershipCache membershipCache;
+    long cacheInterval = DEFAULT_CACHE_INTERVAL;
+    int receiveBufferSize = 0;
+
+    ConcurrentMap<Endpoint, EndpointInfo> knownMessageSockets = new ConcurrentHashMap<>();
+    Clock clock = Clock.systemUTC();
+    ExpiryWheel expiryWheel = newExpiryWheel(DEFAULT_MAINTENANCE_STALE_TIME, clock.millis());
+    final AtomicLong membershipVersion = new AtomicLong();
+    final AtomicLong membershipDigest = new AtomicLong();
+    final AtomicLongArray bucketDigests = new AtomicLongArray(SYNC_BUCKETS);
+    final Tombstones tombstones = new Tombstones();
+    long incarnation;
+    // per point2point peer, the buckets holding endpoints the peer was last seen to be missing
+    final Map<Endpoint, Long> owedBuckets = new ConcurrentHashMap<>();
+    final GossipChannel dynamicChannel = new GossipChannel() {
+        @Override
+        void send(MessageType type, Collection<Endpoint> endpoints) throws IOException, RumorsException {
+            sendDynamic(type, endpoints);
+        }
+    };
+    volatile AnnounceScheduler announceScheduler;
+    private volatile MembershipSnapshot snapshot = new MembershipSnapshot(-1, Collections.<Endpoint> emptyList());
+    final MembershipDispatcher dispatcher = new MembershipDispatcher();
+    final RumorsMetrics metrics = new RumorsMetrics(() -> knownMessageSockets.size());
+    final AdmissionControl admission = new AdmissionControl(metrics);
+    private ObjectName metricsName;
+    private String groupName;
+    final MetadataIndex metadataIndex = new MetadataIndex();
+    private volatile EndpointMetadata ownMetadata;
+    final Set<Endpoint> restoredEndpoints = ConcurrentHashMap.newKeySet();
+    private volatile long restoredUntil;
+    private long lastCheckpoint;
+    private long checkpointedVersion = -1;
+    private volatile long bootstrapStarted;
+    private final AtomicBoolean bootstrapOffered = new AtomicBoolean();
+    // the second hand endpoints of the burst a thread is applying, which are added together once the whole burst has been applied
+    private final ThreadLocal<Set<Endpoint>> burstAdds = new ThreadLocal<>();
+    // and the digests its deltas carried, which are only compared once those endpoints have been added
+    private final ThreadLocal<List<DigestCheck>> burstChecks = new ThreadLocal<>();
+    private final ThreadLocal<ByteBuffer> sendBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_DATAGRAM_SIZE));
+
+    @Override
+    public List<Endpoint> getEndpoints() {
+        return getMembership().getEndpoints();
+    }
+
+    /**
+     * returns the published snapshot if the membership version hasn't moved since it was built, and otherwise publishes a new one. Rebuilding
+     * on read, rather than on every change, means a burst of changes costs one copy. Every change is made to the membership before the version
+     * is advanced past it, and the version is read here before copying, so a snapshot that races with a change is labeled older than its
+     * contents, and is simply rebuilt on the next read, rather than being labeled newer and kept.
+     */
+    @Override
+    public MembershipSnapshot getMembership() {
+        MembershipSnapshot current = snapshot;
+        long version = membershipVersion.get();
+        if (current.getVersion() == version) {
+            return current;
+        }
+
+        List<Endpoint> endpoints = new ArrayList<>(knownMessageSockets.keySet());
+        for (Endpoint ep : restoredEndpoints) {
+            if (!knownMessageSockets.containsKey(ep)) {
+                endpoints.add(ep);
+            }
+        }
+        current = new MembershipSnapshot(version, Collections.unmodifiableList(endpoints));
+        snapshot = current;
+        return current;
+    }
+
+    @Override
+    public EndpointState getEndpointState(Endpoint endpoint) {
+        EndpointInfo info = knownMessageSockets.get(endpoint);
+        if (info == null) {
+            return restoredEndpoints.contains(endpoint) ? EndpointState.SUSPECT : EndpointState.DEAD;
+        }
+
+        long now = clock.millis();
+        if (now >= failureDeadline(info, deadScore)) {
+            return EndpointState.DEAD;
+        }
+        return (info.isSuspected() || (now >= failureDeadline(info, suspectScore))) ? EndpointState.SUSPECT : EndpointState.ALIVE;
+    }
+
+    @Override
+    public void addListener(MembershipListener listener) {
+        dispatcher.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(MembershipListener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+    @Override
+    public RumorsMetricsMXBean getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        metrics.setListener(listener);
+    }
+
+    @Override
+    public void setMetadata(Map<String, String> metadata) {
+        int size = 0;
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            int keyLength = entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+            int valueLength = entry.getValue().getBytes(StandardCharsets.UTF_8).length;
+            if ((keyLength > 255) || (valueLength > 255)) {
+                throw new IllegalArgumentException("Metadata key or value longer than 255 bytes: " + entry.getKey());
+            }
+            size += 2 + keyLength + valueLength;
+        }
+        if ((size > MAX_METADATA_SIZE) || (metadata.size() > EndpointCodec.MAX_METADATA_PAIRS)) {
+            throw new IllegalArgumentException("Metadata too large to fit in a datagram: " + metadata);
+        }
+
+        synchronized (metadataIndex) {
+            // versions follow the clock, so that a restarted instance's metadata still replaces what it spread before
+            EndpointMetadata old = ownMetadata;
+            long version = Math.max((old == null) ? 0 : (old.getVersion() + 1), clock.millis());
+            ownMetadata = new EndpointMetadata((myEndpoint == null) ? UNBOUND_ENDPOINT : myEndpoint, version, metadata);
+        }
+
+        AnnounceScheduler scheduler = announceScheduler;
+        if (scheduler != null) {
+            scheduler.changed(clock.millis());
+        }
+    }
+
+    @Override
+    public EndpointMetadata getMetadata(Endpoint endpoint) {
+        if (endpoint.equals(myEndpoint)) {
+            return currentMetadata();
+        }
+        return metadataIndex.get(endpoint);
+    }
+
+    @Override
+    public List<Endpoint> selectByTag(String key, String value) {
+        currentMetadata();
+        return metadataIndex.withTag(key, value);
+    }
+
+    @Override
+    public Endpoint selectLeastLoaded(String key, String value) {
+        currentMetadata();
+        return metadataIndex.leastLoaded((key == null) ? getEndpoints() : metadataIndex.withTag(key, value));
+    }
+
+    /**
+     * returns this instance's metadata, bound to its endpoint, and indexed along with everyone else's, or null if none has been set. Metadata
+     * can be set before the endpoint is known, so it is bound the first time it is needed after.
+     */
+    EndpointMetadata currentMetadata() {
+        EndpointMetadata md = ownMetadata;
+        if ((md == null) || (myEndpoint == null)) {
+            return md;
+        }
+
+        if (!md.getEndpoint().equals(myEndpoint)) {
+            synchronized (metadataIndex) {
+                md = ownMetadata;
+                if (!md.getEndpoint().equals(myEndpoint)) {
+                    md = new EndpointMetadata(myEndpoint, md.getVersion(), md.getValues());
+                    ownMetadata = md;
+                }
+            }
+        }
+        if (metadataIndex.get(myEndpoint) != md) {
+            metadataIndex.update(md);
+        }
+        return md;
+    }
+
+    /**
+     * sends this instance's metadata, if it has any, as a datagram of its own, reusing the buffer the announce was just sent from. It goes out
+     * with every announce, so members that joined, or missed it, since it last changed soon catch up.
+     */
+    void announceMetadata(ByteBuffer buffer) throws IOException, RumorsException {
+        EndpointMetadata md = currentMetadata();
+        if (md == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        buffer.clear();
+        buffer.limit(MAX_DATAGRAM_SIZE);
+        EndpointCodec.encodeMetadata(buffer, md);
+        putIncarnation(buffer);
+        buffer.flip();
+        metrics.messageEncoded(System.nanoTime() - start);
+        sendDynamic(buffer);
+    }
+
+    /**
+     * registers the metrics with the platform MBean server, once this instance knows its endpoint. Failing to register never stops rumors from
+     * running.
+     */
+    void registerMetrics() {
+        try {
+            String group = (groupName == null) ? "" : ",group=" + ObjectName.quote(groupName);
+            ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=Rumors,endpoint=" + ObjectName.quote(myEndpoint.toString()) + group);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            LOGGER.warn("Failed registering rumors metrics for {}", myEndpoint, e);
+        }
+    }
+
+    void unregisterMetrics() {
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                LOGGER.warn("Failed unregistering rumors metrics {}", metricsName, e);
+            }
+            metricsName = null;
+        }
+    }
+
+    @Override
+    public void reportBadInput(Endpoint endpoint) {
+        removeEndPoint(endpoint);
+    }
+
+    public void setBroadcastEndpoint(Endpoint bcEndpoint) {
+        broadcastEndpoint = bcEndpoint;
+    }
+
+    public void setStaticPort(int port) {
+        staticPort = port;
+    }
+
+    /**
+     * sets the address that other instances are told to make point2point exchanges with this one at, such as when it offers a full view to
+     * an instance that is bootstrapping. By default, the address this instance is bound to is used, or when that is the wildcard address, an
+     * address of the interface it multicasts on.
+     */
+    public void setStaticAdvertiseAddress(String ip) {
+        staticAdvertiseAddress = ip;
+    }
+
+    public void setPoint2PointEndpoints(List<Endpoint> p2pEndpoints) {
+        staticEndpoints = new ArrayList<>(p2pEndpoints);
+    }
+
+    /**
+     * sets the announce delays as a comma separated list. The first is the delay before the first announce, and the rest bound the interval,
+     * which backs off from the shortest to the longest while the membership is quiet.
+     */
+    public void setBroadcastAnnounceDelay(String value) {
+        String[] delays = value.split(",");
+        broadcastAnnounce = new int[delays.length];
+
+        int i = 0;
+        for (String delay : delays) {
+            broadcastAnnounce[i++] = Integer.parseInt(delay);
+        }
+    }
+
+    public void setEndpointStaleTime(long time) {
+        endpointStaleTime = time;
+        expiryWheel = newExpiryWheel(time, clock.millis());
+    }
+
+    private static ExpiryWheel newExpiryWheel(long staleTime, long now) {
+        long tick = Math.min(MAX_EXPIRY_TICK, Math.max(MIN_EXPIRY_TICK, staleTime / EXPIRY_TICKS_PER_STALE_TIME));
+        return new ExpiryWheel(tick, staleTime, now);
+    }
+
+    /**
+     * sets the clock the membership bookkeeping runs on, which is only ever something other than the system clock in simulations. Must be
+     * called before any endpoints are known.
+     */
+    void setClock(Clock membershipClock) {
+        clock = membershipClock;
+        expiryWheel = newExpiryWheel(endpointStaleTime, clock.millis());
+    }
+
+    /**
+     * how often the engine should call expireStaleEndPoints
+     */
+    long getMaintenanceInterval() {
+        return expiryWheel.getTickMillis();
+    }
+
+    /**
+     * sets the phi values at which an endpoint that announces itself is considered suspect, and then dead and removed. Each step of phi makes
+     * a false positive ten times less likely, and endpoints are never suspected before the longest announce interval has passed.
+     */
+    public void setFailureThresholds(double suspect, double dead) {
+        if ((suspect <= 0.0) || (dead < suspect)) {
+            throw new IllegalArgumentException("Invalid failure thresholds suspect: " + suspect + ", dead: " + dead);
+        }
+        suspectScore = FailureDetector.scoreFor(suspect);
+        deadScore = FailureDetector.scoreFor(dead);
+    }
+
+    /**
+     * sets how long to wait for a point2point peer to accept a connection, in milliseconds
+     */
+    public void setStaticConnectTimeout(int timeout) {
+        staticConnectTimeout = timeout;
+    }
+
+    /**
+     * sets how long a static exchange may wait on a silent peer, in either direction, in milliseconds
+     */
+    public void setStaticReadTimeout(int timeout) {
+        staticReadTimeout = timeout;
+    }
+
+    /**
+     * when set, point2point exchanges reconcile the two views instead of shipping whole memberships. Each request carries the digests of the
+     * sender's membership split into buckets, and the peer only answers with the endpoints of the buckets that differ. Buckets in which the
+     * sender turns out to have endpoints the peer lacks are sent along with the next request to that peer. Every point2point peer must be
+     * running a version that understands the SYNC message.
+     */
+    public void setAntiEntropy(boolean enabled) {
+        antiEntropy = enabled;
+    }
+
+    /**
+     * when set, point2point peers are kept connected, and membership changes are pushed over the connections as they happen, rather than
+     * reconnecting for each announce
+     */
+    public void setPersistentSessions(boolean persistent) {
+        persistentSessions = persistent;
+    }
+
+    /**
+     * when set, the threaded engine switches to swim style membership. Multicast is only used to announce a node while it warms up, and from
+     * then on, each node probes one random member per probe interval, and membership changes are piggybacked on the probes, so the load on each
+     * node stays the same however big the cluster gets. Swim probing replaces the stale time and announce based failure detection.
+     */
+    public void setSwimMode(boolean swim) {
+        swimMode = swim;
+    }
+
+    /**
+     * returns whether membership is actually run swim style. The setting is left as configured, and engines that can't probe override this to
+     * keep announce based failure detection.
+     */
+    boolean isSwimming() {
+        return swimMode;
+    }
+
+    /**
+     * sets how often a swim node probes a member, in milliseconds
+     */
+    public void setSwimProbeInterval(int interval) {
+        swimProbeInterval = interval;
+    }
+
+    /**
+     * sets how long a swim node waits for a direct ack before asking other members to probe for it, in milliseconds
+     */
+    public void setSwimProbeTimeout(int timeout) {
+        swimProbeTimeout = timeout;
+    }
+
+    /**
+     * sets how many members are asked to probe an unresponsive member
+     */
+    public void setSwimIndirectProbes(int probes) {
+        swimIndirectProbes = probes;
+    }
+
+    /**
+     * sets the gossip fanout. Each membership update is piggybacked fanout * log2(members) times, and on average fanout members answer a new
+     * node's announce with their membership.
+     */
+    public void setSwimFanout(int fanout) {
+        swimFanout = fanout;
+    }
+
+    /**
+     * when set, the membership is kept in a CompactEndpointMap, which packs ipv4 endpoints into primitive keys, rather than in a hash map. It
+     * costs less memory per member, which matters for large views. Must be set before begin.
+     */
+    public void setCompactMembership(boolean compact) {
+        if (compact != (knownMessageSockets instanceof CompactEndpointMap)) {
+            ConcurrentMap<Endpoint, EndpointInfo> table = compact ? new CompactEndpointMap() : new ConcurrentHashMap<>();
+            table.putAll(knownMessageSockets);
+            knownMessageSockets = table;
+        }
+    }
+
+    /**
+     * names the discovery group this instance runs in, when it shares its transport with others through a GroupTransport. The instances of
+     * a shared transport all have the same endpoint, so the group tells their metrics apart.
+     */
+    public void setGroupName(String group) {
+        groupName = group;
+    }
+
+    /**
+     * keeps a copy of the membership in the given file, which is checkpointed as the membership changes, and loaded when rumors begins. The
+     * endpoints loaded are handed out straight away, but as suspects, and they aren't gossiped, until they are heard from. The ones that aren't
+     * heard from within twice the longest announce interval are dropped.
+     */
+    public void setMembershipCache(Path cachePath) {
+        membershipCache = (cachePath == null) ? null : new MembershipCache(cachePath);
+    }
+
+    /**
+     * sets the least time between checkpoints of the membership cache, in milliseconds
+     */
+    public void setMembershipCacheInterval(long interval) {
+        cacheInterval = interval;
+    }
+
+    /**
+     * limits how many datagrams and point2point connections each source address may send per second on average, and back to back, beyond which
+     * they are dropped unread. A rate of 0 turns the limit off.
+     */
+    public void setRateLimit(int messagesPerSecond, int burst) {
+        admission.setRateLimit(messagesPerSecond, burst);
+    }
+
+    /**
+     * sets the largest datagram that is decoded, in bytes. Nothing this library sends is larger than the default, so it only needs raising for
+     * peers that send larger datagrams. With legacy peers, the default is already the largest UDP payload.
+     */
+    public void setMaxDatagramSize(int size) {
+        admission.setMaxDatagramSize(size);
+    }
+
+    /**
+     * sets the largest point2point message that is read, in bytes. A message is dropped, along with its connection, as soon as it grows past
+     * the limit.
+     */
+    public void setMaxStaticMessageSize(int size) {
+        admission.setMaxStaticMessageSize(size);
+    }
+
+    /**
+     * sets the size of the socket receive buffer, SO_RCVBUF, of the broadcast socket, in bytes, so that a burst of announces, say when a whole
+     * rack restarts, is queued rather than dropped while it is drained. 0 leaves it to the operating system. Must be set before begin.
+     */
+    public void setReceiveBufferSize(int size) {
+        receiveBufferSize = size;
+    }
+
+    /**
+     * sets the wire format used for dynamic broadcasts. Both formats are always understood on receipt, so a fleet can be moved from v1 to v2 by
+     * first upgrading every node, and then switching them over.
+     */
+    public void setWireVersion(int version) {
+        if ((version != EndpointCodec.V1) && (version != EndpointCodec.V2)) {
+            throw new IllegalArgumentException("Unsupported wire version " + version);
+        }
+        wireVersion = version;
+    }
+
+    /**
+     * when set, only messages that instances predating the DELTA message understand are sent, so that a fleet can be upgraded one node at a
+     * time. Those instances read any message other than a JOIN as a LEAVE, so announces and point2point requests go back to carrying the full
+     * view as JOINs, rotated over as many datagrams as it takes, in the v1 format whatever the wire version, and bootstraps are skipped. As those
+     * instances send their whole view as one JOIN, datagrams up to the largest UDP payload are admitted, unless a size cap is set. Once every
+     * instance is upgraded, it should be turned off.
+     */
+    public void setLegacyPeers(boolean legacy) {
+        legacyPeers = legacy;
+        admission.setLegacyPeers(legacy);
+    }
+
+    /**
+     * sends one already encoded datagram to the broadcast group
+     */
+    abstract void sendDynamic(ByteBuffer message) throws IOException;
+
+    byte[] endpointsToBuffer(MessageType type, Collection<Endpoint> endpoints) throws RumorsException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        endpointsToBuffer(type, new ArrayList<>(endpoints), 0, Integer.MAX_VALUE, baos);
+        byte[] buffer = baos.toByteArray();
+        metrics.messageEncoded(System.nanoTime() - start);
+        return buffer;
+    }
+
+    /**
+     * fills the buffer with one datagram, in the configured wire format, holding as many endpoints as fit starting at start, and returns the
+     * index of the first endpoint not written. The buffer is flipped, ready to send.
+     */
+    int endpointsToDatagram(MessageType type, List<Endpoint> endpoints, int start, ByteBuffer buffer) throws RumorsException {
+        long startTime = System.nanoTime();
+        buffer.clear();
+        buffer.limit(MAX_DATAGRAM_SIZE - INCARNATION_TRAILER_SIZE);
+
+        int next;
+        if ((wireVersion == EndpointCodec.V2) && !legacyPeers) {
+            next = EndpointCodec.encode(buffer, type, membershipDigest.get(), knownMessageSockets.size(), endpoints, start);
+        } else {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            next = endpointsToBuffer(type, endpoints, start, MAX_DATAGRAM_SIZE - INCARNATION_TRAILER_SIZE, baos);
+            buffer.put(baos.toByteArray());
+        }
+
+        buffer.limit(MAX_DATAGRAM_SIZE);
+        if ((start == 0) && ((type == MessageType.LEAVE) || (type == MessageType.BOOTSTRAP) || leadsWithSender(type))
+                && myEndpoint.equals(endpoints.get(0))) {
+            putIncarnation(buffer);
+        }
+        buffer.flip();
+        metrics.messageEncoded(System.nanoTime() - startTime);
+        return next;
+    }
+
+    /**
+     * trails a datagram this instance sends about itself with its incarnation, if it has one and there is room
+     */
+    private void putIncarnation(ByteBuffer buffer) {
+        if ((incarnation != 0L) && (buffer.remaining() >= INCARNATION_TRAILER_SIZE)) {
+            buffer.put(INCARNATION_MARK).putLong(incarnation);
+        }
+    }
+
+    /**
+     * returns whether messages of the type carry their sender as their first endpoint
+     */
+    static boolean leadsWithSender(MessageType type) {
+        return (type == MessageType.DELTA) || (type == MessageType.SYNC);
+    }
+
+    /**
+     * starts a new incarnation of this instance, which is later than any before it, even across restarts
+     */
+    void incarnate() {
+        incarnation = Math.max(incarnation + 1, clock.millis());
+    }
+
+    /**
+     * asks for a full view straight away, rather than piecing it together from announces over the first few announce periods. The group is
+     * asked for offers, and the first one to come back is pulled from with a point2point exchange, while a point2point peer, if there are any,
+     * is asked directly. Must be called once the instance can receive.
+     */
+    void startBootstrap() {
+        bootstrapStarted = System.nanoTime();
+        bootstrapOffered.set(false);
+        metrics.bootstrapStarted();
+        if (!legacyPeers) {
+            try {
+                sendDynamic(MessageType.BOOTSTRAP, Collections.singletonList(myEndpoint));
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Failed requesting bootstrap offers", e);
+            }
+        }
+
+        if (!staticEndpoints.isEmpty()) {
+            pullFullView(staticEndpoints.get(ThreadLocalRandom.current().nextInt(staticEndpoints.size())));
+        }
+    }
+
+    private void pullFullView(Endpoint peer) {
+        try {
+            LOGGER.debug("Bootstrapping from {}", peer);
+            bootstrapFrom(peer, endpointsToBuffer(MessageType.JOIN, knownMessageSockets.keySet()));
+        } catch (RumorsException e) {
+            LOGGER.error("Failed bootstrapping from {}", peer, e);
+            bootstrapFailed(peer);
+        }
+    }
+
+    /**
+     * called when a pull of a full view fails, or never starts, so that the next offer is taken rather than ignored
+     */
+    void bootstrapFailed(Endpoint peer) {
+        LOGGER.debug("Bootstrapping from {} failed, waiting for another offer", peer);
+        bootstrapOffered.set(false);
+    }
+
+    /**
+     * runs a point2point exchange of the request with the peer, whose reply is a full view, without holding up the calling thread. The reply is
+     * applied like that of any other exchange. Engines that can't make point2point exchanges ignore it.
+     */
+    void bootstrapFrom(Endpoint peer, byte[] request) {
+    }
+
+    /**
+     * returns the endpoint that others can make point2point exchanges with this instance at, or null if they can't. Instances bound to the
+     * wildcard address advertise an address of the interface they multicast on, unless an address to advertise is configured.
+     */
+    Endpoint getStaticEndpoint() {
+        if (staticPort <= 0) {
+            return null;
+        }
+        String ip = (staticAdvertiseAddress != null) ? staticAdvertiseAddress : routableAddress(myEndpoint.getIp());
+        return (ip == null) ? null : new Endpoint(ip, staticPort);
+    }
+
+    /**
+     * returns the ip itself, unless it is the wildcard address, which is no use to anyone else, in which case an address of the multicast
+     * interface in the broadcast group's family is returned, or null if there isn't one
+     */
+    private String routableAddress(String ip) {
+        try {
+            // only literals are looked at, so that a host name is never resolved here
+            boolean wildcard = (EndpointCodec.parseIPv4(ip) == 0L) || ((ip.indexOf(':') >= 0) && InetAddress.getByName(ip).isAnyLocalAddress());
+            if (!wildcard) {
+                return ip;
+            }
+            boolean ipv6 = InetAddress.getByName(broadcastEndpoint.getIp()) instanceof Inet6Address;
+            Enumeration<InetAddress> addrs = findMulticastInterface().getInetAddresses();
+            while (addrs.hasMoreElements()) {
+                InetAddress addr = addrs.nextElement();
+                if (((addr instanceof Inet6Address) == ipv6) && !addr.isLinkLocalAddress()) {
+                    return addr.getHostAddress();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed finding a routable address for {}", ip, e);
+        }
+        return null;
+    }
+
+    /**
+     * picks the interface to join the multicast group on, preferring an interface that is up, supports multicast and isn't the loopback
+     */
+    static NetworkInterface findMulticastInterface() throws IOException {
+        NetworkInterface fallback = null;
+        Enumeration<NetworkInterface> nifs = NetworkInterface.getNetworkInterfaces();
+        while (nifs.hasMoreElements()) {
+            NetworkInterface nif = nifs.nextElement();
+            if (nif.isUp() && nif.supportsMulticast()) {
+                if (!nif.isLoopback()) {
+                    return nif;
+                }
+                fallback = nif;
+            }
+        }
+
+        if (fallback == null) {
+            throw new IOException("No multicast capable network interface found");
+        }
+
+        return fallback;
+    }
+
+    /**
+     * records the first time the membership holds a peer's complete view since the instance began
+     */
+    private void viewCompleted() {
+        long started = bootstrapStarted;
+        if (started != 0L) {
+            metrics.bootstrapped(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * announces this instance's departure a few times over, so that one lost datagram doesn't leave it to the stale time for peers to notice
+     */
+    void sendLeave() throws IOException, RumorsException {
+        List<Endpoint> leaving = Collections.singletonList(myEndpoint);
+        for (int i = 0; i < LEAVE_RETRANSMITS; i++) {
+            if (i > 0) {
+                try {
+                    Thread.sleep(LEAVE_RETRANSMIT_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            sendDynamic(MessageType.LEAVE, leaving);
+        }
+    }
+
+    /**
+     * writes one message holding as many endpoints as fit in maxSize, starting at start, and returns the index of the first endpoint not written
+     */
+    private int endpointsToBuffer(MessageType type, List<Endpoint> endpoints, int start, int maxSize, ByteArrayOutputStream baos) throws RumorsException {
+        try {
+            DataOutputStream dos = new DataOutputStream(baos);
+
+            dos.writeChar(type.getCode());
+            if (type.hasDigest()) {
+                dos.writeLong(membershipDigest.get());
+                dos.writeInt(knownMessageSockets.size());
+            }
+            if (type == MessageType.SYNC) {
+                for (int i = 0; i < SYNC_BUCKETS; i++) {
+                    dos.writeLong(bucketDigests.get(i));
+                }
+            }
+
+            int next = start;
+            while (next < endpoints.size()) {
+                Endpoint ep = endpoints.get(next);
+                // utf length + ip + port + the empty string terminator
+                int entrySize = 2 + ep.getIp().length() + 4 + 2;
+                if ((next > start) && ((dos.size() + entrySize) > maxSize)) {
+                    break;
+                }
+
+                dos.writeUTF(ep.getIp());
+                dos.writeInt(ep.getPort());
+                ++next;
+            }
+
+            dos.writeUTF("");
+            dos.flush();
+
+            return next;
+
+        } catch (IOException ioe) {
+            throw new RumorsException("Failed converting known endpoints to buffer", ioe);
+        }
+    }
+
+    EndpointMessage bufferToEndPoints(InputStream is) throws RumorsException {
+        return bufferToEndPoints(new DataInputStream(new BufferedInputStream(is)));
+    }
+
+    /**
+     * reads exactly one message from the stream, so that a stream carrying many messages can keep being read from
+     */
+    EndpointMessage bufferToEndPoints(DataInputStream dis) throws RumorsException {
+        try {
+            List<Endpoint> endpoints = new ArrayList<>();
+            char action = dis.readChar();
+            MessageType type = MessageType.fromCode(action);
+            if (type == null) {
+                throw new RumorsException("Unknown message type '" + action + "'");
+            }
+
+            long digest = 0L;
+            int memberCount = 0;
+            if (type.hasDigest()) {
+                digest = dis.readLong();
+                memberCount = dis.readInt();
+            }
+            long[] buckets = null;
+            if (type == MessageType.SYNC) {
+                buckets = new long[SYNC_BUCKETS];
+                for (int i = 0; i < SYNC_BUCKETS; i++) {
+                    buckets[i] = dis.readLong();
+                }
+            }
+
+            String ip = dis.readUTF();
+            while (ip.length() > 0) {
+                int port = dis.readInt();
+
+                Endpoint ep = new Endpoint(ip, port);
+                endpoints.add(ep);
+
+                ip = dis.readUTF();
+            }
+
+            EndpointMessage message = new EndpointMessage(type, endpoints, digest, memberCount);
+            message.setBuckets(buckets);
+            return message;
+
+        } catch (IOException ioe) {
+            throw new RumorsException("Failed converting incoming buffer to endpoints", ioe);
+        }
+    }
+
+    /**
+     * counts and decodes one received broadcast datagram, in whichever wire format it is in. v2 messages are decoded into the given message,
+     * so the codec and message must belong to the receiving thread.
+     */
+    EndpointMessage receiveDatagram(ByteBuffer datagram, EndpointCodec codec, EndpointMessage v2Message) throws RumorsException {
+        metrics.packetReceived(Channel.DYNAMIC, datagram.remaining());
+        try {
+            return decodeDatagram(datagram, codec, v2Message);
+        } catch (RumorsException e) {
+            metrics.decodeFailed(Channel.DYNAMIC);
+            throw e;
+        }
+    }
+
+    /**
+     * decodes one datagram, in whichever wire format it is in, along with the sender's incarnation, if it trails the message
+     */
+    EndpointMessage decodeDatagram(ByteBuffer datagram, EndpointCodec codec, EndpointMessage v2Message) throws RumorsException {
+        EndpointMessage message;
+        if (EndpointCodec.isV2(datagram)) {
+            codec.decode(datagram, v2Message);
+            message = v2Message;
+        } else {
+            ByteArrayInputStream bais;
+            if (datagram.hasArray()) {
+                bais = new ByteArrayInputStream(datagram.array(), datagram.arrayOffset() + datagram.position(), datagram.remaining());
+            } else {
+                byte[] bytes = new byte[datagram.remaining()];
+                datagram.duplicate().get(bytes);
+                bais = new ByteArrayInputStream(bytes);
+            }
+            message = bufferToEndPoints(new DataInputStream(bais));
+            datagram.position(datagram.limit() - bais.available());
+        }
+
+        if ((datagram.remaining() >= INCARNATION_TRAILER_SIZE) && (datagram.get(datagram.position()) == INCARNATION_MARK)) {
+            datagram.get();
+            message.setIncarnation(datagram.getLong());
+        }
+        return message;
+    }
+
+    /**
+     * reads one message off a point2point stream, counting the bytes the counter has seen since the last message. Failing to read because the
+     * connection failed isn't counted as a decode failure.
+     */
+    EndpointMessage receiveStatic(DataInputStream dis, CountingInputStream counter) throws RumorsException {
+        counter.setLimit(admission.getMaxStaticMessageSize());
+        try {
+            EndpointMessage message = bufferToEndPoints(dis);
+            metrics.packetReceived(Channel.STATIC, (int) counter.takeCount());
+            return message;
+        } catch (RumorsException e) {
+            Throwable cause = e.getCause();
+            if (counter.isOverLimit()) {
+                admission.oversized(Channel.STATIC);
+            } else if (!(cause instanceof IOException) || (cause instanceof UTFDataFormatException)) {
+                metrics.decodeFailed(Channel.STATIC);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * adds endpoints heard about second hand, skipping the ones that have recently left or expired
+     */
+    void addEndPoints(List<Endpoint> endpoints) {
+        Set<Endpoint> burst = burstAdds.get();
+        if (burst != null) {
+            burst.addAll(endpoints);
+            return;
+        }
+
+        long now = clock.millis();
+        for (Endpoint ep : endpoints) {
+            if (!tombstones.isBuried(ep, now)) {
+                addEndPoint(ep);
+            }
+        }
+    }
+
+    /**
+     * adds the endpoints of a message. A message that leads with its sender is heard from the sender itself, which is enough to bring it back
+     * from a tombstone, as long as it is a later incarnation than the one that left. The rest are second hand.
+     */
+    void addEndPoints(EndpointMessage message) {
+        List<Endpoint> endpoints = message.getEndpoints();
+        if (!leadsWithSender(message.getType()) || endpoints.isEmpty()) {
+            addEndPoints(endpoints);
+            return;
+        }
+
+        Endpoint sender = endpoints.get(0);
+        if (tombstones.revive(sender, message.getIncarnation(), clock.millis())) {
+            addEndPoint(sender);
+        }
+        addEndPoints(endpoints.subList(1, endpoints.size()));
+    }
+
+    void removeEndPoints(List<Endpoint> endpoints) {
+        for (Endpoint ep : endpoints) {
+            removeEndPoint(ep);
+        }
+    }
+
+    /**
+     * removes the endpoints of a LEAVE, and keeps gossip from adding them back for the stale time, which is as long as a peer that missed the
+     * leave could go on gossiping them. If the leave carried its sender's incarnation, only a later one of the sender brings it back earlier.
+     */
+    void removeEndPoints(EndpointMessage message) {
+        long until = clock.millis() + endpointStaleTime;
+        List<Endpoint> endpoints = message.getEndpoints();
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint ep = endpoints.get(i);
+            removeEndPoint(ep);
+            if (!ep.equals(myEndpoint)) {
+                tombstones.bury(ep, (i == 0) ? message.getIncarnation() : 0L, until);
+            }
+        }
+    }
+
+    void addEndPoint(Endpoint ep) {
+        long now = clock.millis();
+        EndpointInfo info = knownMessageSockets.get(ep);
+        if (info != null) {
+            info.touch(now);
+            return;
+        }
+
+        // the entry is published before the version moves past it, so anyone that reads the version and then scans the membership either sees
+        // the entry, or sees it later with a newer version. Until then, it counts as newer than everything
+        info = new EndpointInfo(ep, Long.MAX_VALUE, now);
+        if (knownMessageSockets.putIfAbsent(ep, info) == null) {
+            info.setVersion(membershipVersion.incrementAndGet());
+            toggleDigest(ep);
+            if (!isSwimming() && !ep.equals(myEndpoint)) {
+                expiryWheel.schedule(info, now + endpointStaleTime);
+            }
+            boolean restored = restoredEndpoints.remove(ep);
+            membershipChanged(ep, true);
+            if (!restored) {
+                metrics.endpointJoined(ep);
+            }
+            dispatcher.fire(ep, EndpointState.ALIVE);
+        }
+    }
+
+    void removeEndPoint(Endpoint ep) {
+        if (restoredEndpoints.remove(ep) && !knownMessageSockets.containsKey(ep)) {
+            membershipVersion.incrementAndGet();
+            metrics.endpointLeft(ep);
+            dispatcher.fire(ep, EndpointState.DEAD);
+        }
+
+        if (knownMessageSockets.remove(ep) != null) {
+            metadataIndex.remove(ep);
+            membershipVersion.incrementAndGet();
+            toggleDigest(ep);
+            membershipChanged(ep, false);
+            metrics.endpointLeft(ep);
+            dispatcher.fire(ep, EndpointState.DEAD);
+        }
+    }
+
+    void expireEndPoint(Endpoint ep, EndpointInfo info) {
+        if (knownMessageSockets.remove(ep, info)) {
+            // expiring is only for want of news, so any announce of the endpoint's own brings it back
+            tombstones.bury(ep, 0L, clock.millis() + endpointStaleTime);
+            metadataIndex.remove(ep);
+            membershipVersion.incrementAndGet();
+            toggleDigest(ep);
+            membershipChanged(ep, false);
+            metrics.endpointExpired(ep);
+            dispatcher.fire(ep, EndpointState.DEAD);
+        }
+    }
+
+    /**
+     * loads the membership cache, if there is one, once this instance knows its own endpoint. The endpoints that aren't already known are handed
+     * out as suspects until they are heard from, or until the restore times out.
+     */
+    void restoreMembership() {
+        if (membershipCache == null) {
+            return;
+        }
+
+        long now = clock.millis();
+        try {
+            List<Endpoint> cached = membershipCache.load(now - endpointStaleTime);
+            restoredUntil = now + Math.min(endpointStaleTime, 2L * AnnounceScheduler.longestInterval(broadcastAnnounce));
+            for (Endpoint ep : cached) {
+                if (!knownMessageSockets.containsKey(ep) && restoredEndpoints.add(ep)) {
+                    membershipVersion.incrementAndGet();
+                    metrics.endpointJoined(ep);
+                    dispatcher.fire(ep, EndpointState.SUSPECT);
+                }
+            }
+            LOGGER.info("Restored {} endpoints from membership cache {}", cached.size(), membershipCache.getPath());
+        } catch (RumorsException e) {
+            LOGGER.warn("Failed restoring membership cache {}", membershipCache.getPath(), e);
+        }
+    }
+
+    /**
+     * drops the restored endpoints that still haven't been heard from once the restore has timed out
+     */
+    void expireRestoredEndPoints() {
+        if (restoredEndpoints.isEmpty() || (clock.millis() < restoredUntil)) {
+            return;
+        }
+
+        for (Endpoint ep : restoredEndpoints) {
+            if (restoredEndpoints.remove(ep)) {
+                membershipVersion.incrementAndGet();
+                metrics.endpointExpired(ep);
+                dispatcher.fire(ep, EndpointState.DEAD);
+            }
+        }
+    }
+
+    /**
+     * writes the membership to the cache, if there is one, and it has changed since the last checkpoint, at most once per cache interval unless
+     * forced
+     */
+    void checkpointMembership(boolean force) {
+        MembershipCache cache = membershipCache;
+        if (cache == null) {
+            return;
+        }
+
+        synchronized (cache) {
+            long now = clock.millis();
+            long version = membershipVersion.get();
+            if ((version == checkpointedVersion) || (!force && ((now - lastCheckpoint) < cacheInterval))) {
+                return;
+            }
+
+            List<Endpoint> endpoints = new ArrayList<>(getEndpoints());
+            endpoints.remove(myEndpoint);
+            try {
+                cache.save(endpoints, now);
+                checkpointedVersion = version;
+                lastCheckpoint = now;
+            } catch (RumorsException e) {
+                LOGGER.warn("Failed checkpointing membership cache {}", cache.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * writes a last checkpoint and closes the cache, when rumors ends
+     */
+    void closeMembershipCache() {
+        if (membershipCache != null) {
+            checkpointMembership(true);
+            membershipCache.close();
+        }
+    }
+
+    /**
+     * feeds the failure detector of the endpoint that sent a message. Deltas always lead with the sender's own endpoint, so that is the only
+     * kind of message that identifies its sender. A suspected sender is cleared, and if the detector now expects the endpoint to fail sooner
+     * than its next scheduled check, that check is pulled forward.
+     */
+    void heartbeat(EndpointMessage message) {
+        List<Endpoint> endpoints = message.getEndpoints();
+        if (!leadsWithSender(message.getType()) || endpoints.isEmpty()) {
+            return;
+        }
+
+        Endpoint sender = endpoints.get(0);
+        EndpointInfo info = knownMessageSockets.get(sender);
+        if ((info == null) || isSwimming() || sender.equals(myEndpoint)) {
+            return;
+        }
+
+        info.heartbeat(clock.millis());
+        unsuspect(sender);
+
+        long deadline = failureDeadline(info, suspectScore);
+        if (deadline < info.getScheduledDeadline()) {
+            expiryWheel.schedule(info, deadline);
+        }
+    }
+
+    /**
+     * returns when the failure detector's phi will reach the threshold with the given score, or Long.MAX_VALUE if it can't judge the endpoint
+     * yet
+     */
+    long failureDeadline(EndpointInfo info, double score) {
+        FailureDetector detector = info.getDetector();
+        if ((detector == null) || !detector.isReady()) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(detector.timeAt(score), detector.getLastArrival() + AnnounceScheduler.longestInterval(broadcastAnnounce));
+    }
+
+    /**
+     * marks an endpoint suspect, returning false if it was already suspected or isn't known
+     */
+    boolean suspect(Endpoint ep) {
+        EndpointInfo info = knownMessageSockets.get(ep);
+        if ((info != null) && info.markSuspected()) {
+            dispatcher.fire(ep, EndpointState.SUSPECT);
+            return true;
+        }
+        return false;
+    }
+
+    void unsuspect(Endpoint ep) {
+        EndpointInfo info = knownMessageSockets.get(ep);
+        if ((info != null) && info.clearSuspected()) {
+            dispatcher.fire(ep, EndpointState.ALIVE);
+        }
+    }
+
+    /**
+     * called after an endpoint has been added or removed. The next announce is brought forward, and engines that push changes rather than
+     * waiting for the next announce hook in here.
+     */
+    void membershipChanged(Endpoint ep, boolean added) {
+        AnnounceScheduler scheduler = announceScheduler;
+        if (scheduler != null) {
+            scheduler.changed(clock.millis());
+        }
+    }
+
+    /**
+     * expires the endpoints whose deadlines have come due on the wheel and that haven't been seen since, or that their failure detector
+     * considers dead, and marks the ones it considers suspect. Ones that are still alive are rescheduled for their next check, and ones that
+     * were already removed (or removed and re-added) are dropped.
+     */
+    void expireStaleEndPoints() {
+        long now = clock.millis();
+        for (EndpointInfo info : expiryWheel.advance(now)) {
+            Endpoint ep = info.getEndpoint();
+            if (knownMessageSockets.get(ep) != info) {
+                continue;
+            }
+
+            long deadline = Math.min(info.getLastSeen() + endpointStaleTime, failureDeadline(info, deadScore));
+            if (deadline <= now) {
+                expireEndPoint(ep, info);
+                continue;
+            }
+
+            if (!info.isSuspected()) {
+                long suspectDeadline = failureDeadline(info, suspectScore);
+                if (suspectDeadline > now) {
+                    deadline = Math.min(deadline, suspectDeadline);
+                } else {
+                    suspect(ep);
+                }
+            }
+            expiryWheel.schedule(info, deadline);
+        }
+
+        tombstones.purge(now);
+        admission.purge(now);
+        expireRestoredEndPoints();
+        checkpointMembership(false);
+    }
+
+    /**
+     * flips an endpoint in or out of the membership digest, and the digest of its bucket
+     */
+    private void toggleDigest(Endpoint ep) {
+        long digest = digestOf(ep);
+        membershipDigest.getAndAccumulate(digest, (a, b) -> a ^ b);
+        bucketDigests.getAndAccumulate(bucketOf(digest), digest, (a, b) -> a ^ b);
+    }
+
+    static int bucketOf(long digest) {
+        return (int) (digest >>> SYNC_BUCKET_SHIFT);
+    }
+
+    /**
+     * mixes an endpoint into a 64 bit hash, so that the membership digest can be maintained incrementally as the xor of all of its endpoints,
+     * regardless of the order the endpoints were learned in.
+     */
+    static long digestOf(Endpoint ep) {
+        long h = ((long) ep.getIp().hashCode() << 32) ^ ep.getPort();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * returns the endpoints that have been added after the given membership version, always including this instance's endpoint as a heartbeat
+     */
+    List<Endpoint> changesSince(long version) {
+        List<Endpoint> changes = new ArrayList<>();
+        changes.add(myEndpoint);
+        for (EndpointInfo info : knownMessageSockets.values()) {
+            if ((info.getVersion() > version) && !info.getEndpoint().equals(myEndpoint)) {
+                changes.add(info.getEndpoint());
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * sends the endpoints as as many self contained datagrams as are needed to keep each one under MAX_DATAGRAM_SIZE. Each page carries its own
+     * header, so receivers can apply them as they arrive without reassembly.
+     */
+    void sendDynamic(MessageType type, Collection<Endpoint> endpoints) throws IOException, RumorsException {
+        List<Endpoint> eps = new ArrayList<>(endpoints);
+        ByteBuffer buffer = sendBuffers.get();
+        int start = 0;
+        do {
+            start = endpointsToDatagram(type, eps, start, buffer);
+            sendDynamic(buffer);
+        } while (start < eps.size());
+    }
+
+    void processDynamicMessage(EndpointMessage message) throws IOException, RumorsException {
+        processGossipMessage(message, dynamicChannel);
+    }
+
+    /**
+     * decodes and applies a burst of datagrams that arrived together. What each sender says about itself, and leaves, are applied message by
+     * message, but the endpoints heard about second hand are merged across the burst and added in one pass at the end, so a storm of near
+     * identical announces only looks each endpoint up once. The digests the deltas carry are only compared after that, against the view they
+     * helped build.
+     */
+    void processDynamicBurst(List<ByteBuffer> datagrams, EndpointCodec codec, EndpointMessage v2Message) {
+        Set<Endpoint> merged = new LinkedHashSet<>();
+        List<DigestCheck> checks = new ArrayList<>();
+        burstAdds.set(merged);
+        burstChecks.set(checks);
+        try {
+            for (ByteBuffer datagram : datagrams) {
+                try {
+                    EndpointMessage message = receiveDatagram(datagram, codec, v2Message);
+                    LOGGER.debug("Receiving dynamic broadcast packet {}", message);
+                    processDynamicMessage(message);
+                } catch (Exception e) {
+                    LOGGER.error("Failed receiving broadcast", e);
+                }
+            }
+        } finally {
+            burstAdds.remove();
+            burstChecks.remove();
+        }
+
+        addEndPoints(new ArrayList<>(merged));
+        for (DigestCheck check : checks) {
+            try {
+                checkDigest(check.digest, check.memberCount, check.sender, dynamicChannel);
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Failed reconciling broadcast digest", e);
+            }
+        }
+    }
+
+    /**
+     * applies a gossip message to the membership, and then reconciles digests. If a sender's view looks bigger than ours, but the digests differ,
+     * ask the channel for full views, and if someone is asking for full views and ours differs from theirs, send it.
+     */
+    void processGossipMessage(EndpointMessage message, GossipChannel channel) throws IOException, RumorsException {
+        switch (message.getType()) {
+            case JOIN:
+            case SESSION:
+                addEndPoints(message);
+                break;
+
+            case LEAVE:
+                removeEndPoints(message);
+                break;
+
+            case DELTA:
+                addEndPoints(message);
+                heartbeat(message);
+                Endpoint sender = message.getEndpoints().isEmpty() ? null : message.getEndpoints().get(0);
+                List<DigestCheck> checks = burstChecks.get();
+                if (checks != null) {
+                    checks.add(new DigestCheck(message.getDigest(), message.getMemberCount(), sender));
+                } else {
+                    checkDigest(message.getDigest(), message.getMemberCount(), sender, channel);
+                }
+                break;
+
+            case BOOTSTRAP:
+                addEndPoints(message);
+                offerBootstrap(message, channel);
+                break;
+
+            case OFFER:
+                List<Endpoint> offer = message.getEndpoints();
+                if ((offer.size() == 2) && myEndpoint.equals(offer.get(0)) && (metrics.getBootstrapMillis() < 0L)
+                        && bootstrapOffered.compareAndSet(false, true)) {
+                    pullFullView(offer.get(1));
+                }
+                break;
+
+            case METADATA:
+                for (EndpointMetadata md : message.getMetadata()) {
+                    // only an endpoint sends its own metadata, so it is as good as hearing from the endpoint
+                    if (tombstones.revive(md.getEndpoint(), message.getIncarnation(), clock.millis())) {
+                        addEndPoint(md.getEndpoint());
+                        metadataIndex.update(md);
+                    }
+                }
+                break;
+
+            case PULL:
+                if (message.getDigest() != membershipDigest.get()) {
+                    if (channel.allowPullResponse(clock.millis(), PULL_INTERVAL)) {
+                        channel.send(MessageType.JOIN, knownMessageSockets.keySet());
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * compares a delta's digest with ours, once the endpoints it brought have been added. If the sender's view looks at least as big as ours,
+     * but differs, full views are asked for, and if it matches, ours is complete.
+     */
+    private void checkDigest(long digest, int memberCount, Endpoint sender, GossipChannel channel) throws IOException, RumorsException {
+        if ((digest != membershipDigest.get()) && (memberCount >= knownMessageSockets.size())) {
+            if (channel.allowPullRequest(clock.millis(), PULL_INTERVAL)) {
+                LOGGER.debug("Membership digest mismatch, requesting full membership");
+                channel.send(MessageType.PULL, Collections.<Endpoint> emptyList());
+            }
+        } else if ((digest == membershipDigest.get()) && (sender != null) && !myEndpoint.equals(sender)) {
+            viewCompleted();
+        }
+    }
+
+    /**
+     * offers the instance that is bootstrapping a point2point exchange, if this one serves them. So that a big group doesn't answer every
+     * bootstrap all at once, each member only offers with a probability that leaves a few offers per bootstrap on average.
+     */
+    private void offerBootstrap(EndpointMessage message, GossipChannel channel) throws IOException, RumorsException {
+        if (message.getEndpoints().isEmpty()) {
+            return;
+        }
+        Endpoint joiner = message.getEndpoints().get(0);
+        Endpoint offered = getStaticEndpoint();
+        if (legacyPeers || joiner.equals(myEndpoint) || (offered == null)) {
+            return;
+        }
+
+        if (ThreadLocalRandom.current().nextInt(Math.max(1, knownMessageSockets.size())) < BOOTSTRAP_RESPONDERS) {
+            LOGGER.debug("Offering {} to bootstrap from {}", joiner, offered);
+            channel.send(MessageType.OFFER, Arrays.asList(joiner, offered));
+        }
+    }
+
+    /**
+     * builds the delta that is sent to every point2point peer in a round, or null when each peer is sent its own anti entropy request. With
+     * legacy peers, it is the full view.
+     */
+    byte[] staticDelta(List<Endpoint> changes) throws RumorsException {
+        if (legacyPeers) {
+            List<Endpoint> view = new ArrayList<>(knownMessageSockets.size() + 1);
+            view.add(myEndpoint);
+            for (Endpoint ep : knownMessageSockets.keySet()) {
+                if (!ep.equals(myEndpoint)) {
+                    view.add(ep);
+                }
+            }
+            return endpointsToBuffer(MessageType.JOIN, view);
+        }
+        return antiEntropy ? null : endpointsToBuffer(MessageType.DELTA, changes);
+    }
+
+    /**
+     * builds the request sent to one point2point peer. Without anti entropy, every peer is sent the same delta, which is built once and passed
+     * in.
+     */
+    byte[] staticRequest(Endpoint peer, List<Endpoint> changes, byte[] delta) throws RumorsException {
+        if (delta != null) {
+            return delta;
+        }
+
+        Long owed = owedBuckets.get(peer);
+        if ((owed == null) || (owed.longValue() == 0L)) {
+            return endpointsToBuffer(MessageType.SYNC, changes);
+        }
+
+        Set<Endpoint> endpoints = new LinkedHashSet<>(changes);
+        endpoints.addAll(endpointsInBuckets(owed.longValue()));
+        return endpointsToBuffer(MessageType.SYNC, endpoints);
+    }
+
+    /**
+     * returns this instance's endpoints that fall in the buckets of the mask
+     */
+    List<Endpoint> endpointsInBuckets(long mask) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (Endpoint ep : knownMessageSockets.keySet()) {
+            if ((mask & (1L << bucketOf(digestOf(ep)))) != 0) {
+                endpoints.add(ep);
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * returns a mask of the buckets whose digests differ from the given ones
+     */
+    long differingBuckets(long[] buckets) {
+        long mask = 0L;
+        for (int i = 0; i < SYNC_BUCKETS; i++) {
+            if (buckets[i] != bucketDigests.get(i)) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * applies a static request to the membership and builds the reply. The full view is only sent back if the peer's view doesn't already match
+     * ours, and for a SYNC request, only the buckets that don't match are.
+     */
+    byte[] processStaticRequest(EndpointMessage message) throws RumorsException {
+        processStaticReply(message);
+
+        if (message.getType().hasDigest() && (message.getDigest() == membershipDigest.get())) {
+            return endpointsToBuffer(MessageType.DELTA, Collections.<Endpoint> emptyList());
+        }
+        if (message.getType() == MessageType.SYNC) {
+            // like every digested message, the reply leads with its sender
+            Set<Endpoint> missing = new LinkedHashSet<>();
+            missing.add(myEndpoint);
+            missing.addAll(endpointsInBuckets(differingBuckets(message.getBuckets())));
+            return endpointsToBuffer(MessageType.SYNC, missing);
+        }
+        return endpointsToBuffer(MessageType.JOIN, knownMessageSockets.keySet());
+    }
+
+    void processStaticReply(EndpointMessage message) {
+        if (message.isAdding()) {
+            addEndPoints(message);
+            heartbeat(message);
+        } else {
+            removeEndPoints(message);
+        }
+    }
+
+    /**
+     * applies a point2point peer's reply to a request we sent. A SYNC reply carries the peer's bucket digests, after it applied our request,
+     * so whatever still differs once its endpoints are added is what the peer is missing, and is owed to it with the next request.
+     */
+    void processStaticReply(Endpoint peer, EndpointMessage message) {
+        processStaticReply(message);
+
+        if (message.getType() == MessageType.SYNC) {
+            long owed = differingBuckets(message.getBuckets());
+            if (owed == 0L) {
+                owedBuckets.remove(peer);
+            } else {
+                owedBuckets.put(peer, owed);
+            }
+        } else if (message.getType().hasDigest() && (message.getDigest() == membershipDigest.get())) {
+            owedBuckets.remove(peer);
+        }
+    }
+
+    /**
+     * applies the reply to a bootstrap pull. Unlike the reply to a delta, it is the peer's full view, so once it is applied, this instance's
+     * view is complete.
+     */
+    void processBootstrapReply(Endpoint peer, EndpointMessage message) {
+        processStaticReply(peer, message);
+        if (message.getType() == MessageType.JOIN) {
+            viewCompleted();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[knownMessageSockets: " + knownMessageSockets + "]";
+    }
+
+    /**
+     * the digest a delta of a burst carried, kept until the burst's endpoints have been added. The message itself is reused by the decoder.
+     */
+    private static final class DigestCheck {
+        final long digest;
+        final int memberCount;
+        final Endpoint sender;
+
+        DigestCheck(long digest, int memberCount, Endpoint sender) {
+            this.digest = digest;
+            this.memberCount = memberCount;
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * keeps track of what has already been announced on one channel, so that each announce only carries what changed since the last one
+     */
+    class DeltaTracker {
+        private long announcedVersion = 0;
+        private final Set<Endpoint> pending = new LinkedHashSet<>();
+
+        /**
+         * returns everything that changed since the last call. The version is read before scanning, and entries are published before the
+         * version is advanced past them, so a change that races with the scan is at worst returned twice, but never missed.
+         */
+        List<Endpoint> takeChanges() {
+            long version = membershipVersion.get();
+            List<Endpoint> changes = changesSince(announcedVersion);
+            announcedVersion = version;
+            return changes;
+        }
+
+        /**
+         * encodes one datagram's worth of changes into the buffer, and returns the endpoints that were written. Changes that don't fit are
+         * carried over to the following calls, so a big burst of changes is rotated out over a bounded number of rounds, rather than fragmenting
+         * or being truncated.
+         */
+        List<Endpoint> takeDatagram(ByteBuffer buffer) throws RumorsException {
+            pending.addAll(takeChanges());
+            if (legacyPeers && (pending.size() <= 1)) {
+                // legacy peers only learn from full views, so once the changes are out, the rest of the view is rotated through
+                pending.addAll(knownMessageSockets.keySet());
+            }
+            pending.remove(myEndpoint);
+
+            List<Endpoint> changes = new ArrayList<>(pending.size() + 1);
+            changes.add(myEndpoint);
+            changes.addAll(pending);
+            int sent = endpointsToDatagram(legacyPeers ? MessageType.JOIN : MessageType.DELTA, changes, 0, buffer);
+            List<Endpoint> written = changes.subList(0, sent);
+            pending.removeAll(written);
+            return written;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.MetricsListener.Shed;
+
+/**
+ * decides whether inbound traffic is worth handling, before any of it is decoded. Datagrams and point2point messages larger than anything a
+ * well behaved peer sends are dropped, and each source address gets a token bucket of messages, shared by its datagrams and its point2point
+ * connections, so that a looping or misbehaving sender only ever costs a bounded amount of work. Whatever is turned away is counted, rather
+ * than queued. Instances sharing a host share its budget.
+ */
+public class AdmissionControl {
+
+    public static final int DEFAULT_MESSAGE_RATE = 200;
+    public static final int DEFAULT_MESSAGE_BURST = 1000;
+    public static final int DEFAULT_MAX_STATIC_MESSAGE_SIZE = 8 * 1024 * 1024;
+    // the largest payload a UDP datagram can carry, which is what instances predating the size cap may send
+    public static final int MAX_UDP_PAYLOAD = 65507;
+    // past this many sources, new ones share a single bucket until the idle ones are purged, so spoofed sources can't grow the table
+    static final int MAX_TRACKED_SOURCES = 4096;
+
+    private final RumorsMetrics metrics;
+    private final ConcurrentMap<InetAddress, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Bucket overflow = new Bucket(0L, 0.0);
+    private volatile double tokensPerMilli = DEFAULT_MESSAGE_RATE / 1000.0;
+    private volatile double burst = DEFAULT_MESSAGE_BURST;
+    private volatile int maxDatagramSize = 0;
+    private volatile boolean legacyPeers = false;
+    private volatile int maxStaticMessageSize = DEFAULT_MAX_STATIC_MESSAGE_SIZE;
+
+    public AdmissionControl(RumorsMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * sets how many messages per second each source may send on average, and how many it may send back to back. A rate of 0 turns rate limiting
+     * off.
+     */
+    public void setRateLimit(int messagesPerSecond, int messageBurst) {
+        tokensPerMilli = messagesPerSecond / 1000.0;
+        burst = Math.max(1, messageBurst);
+    }
+
+    /**
+     * returns the configured datagram size cap, or when none is configured, the largest datagram this library sends, or with legacy peers the
+     * largest there is, as they packed the whole view into one JOIN.
+     */
+    public int getMaxDatagramSize() {
+        int size = maxDatagramSize;
+        if (size > 0) {
+            return size;
+        }
+        return legacyPeers ? MAX_UDP_PAYLOAD : AbstractRumors.MAX_DATAGRAM_SIZE;
+    }
+
+    /**
+     * sets the datagram size cap, 0 going back to the default
+     */
+    public void setMaxDatagramSize(int size) {
+        maxDatagramSize = size;
+    }
+
+    public void setLegacyPeers(boolean legacy) {
+        legacyPeers = legacy;
+    }
+
+    public int getMaxStaticMessageSize() {
+        return maxStaticMessageSize;
+    }
+
+    public void setMaxStaticMessageSize(int size) {
+        maxStaticMessageSize = size;
+    }
+
+    /**
+     * returns whether a datagram of the given size, from the given source, should be handled, counting it if not
+     */
+    public boolean admitDatagram(InetAddress source, int size, long now) {
+        return admitDatagram(size) && admitSource(Channel.DYNAMIC, source, now);
+    }
+
+    /**
+     * returns whether a datagram of the given size should be handled, for when its source isn't known, counting it if not
+     */
+    public boolean admitDatagram(int size) {
+        if (size > getMaxDatagramSize()) {
+            metrics.messageShed(Channel.DYNAMIC, Shed.OVERSIZED);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * takes a token from the source's bucket, returning whether there was one, and counting the message as rate limited if not
+     */
+    public boolean admitSource(Channel channel, InetAddress source, long now) {
+        double rate = tokensPerMilli;
+        if ((rate <= 0.0) || (source == null)) {
+            return true;
+        }
+
+        Bucket bucket = buckets.get(source);
+        if (bucket == null) {
+            if (buckets.size() < MAX_TRACKED_SOURCES) {
+                bucket = buckets.computeIfAbsent(source, s -> new Bucket(now, burst));
+            } else {
+                bucket = overflow;
+            }
+        }
+
+        if (bucket.take(now, rate, burst)) {
+            return true;
+        }
+        metrics.messageShed(channel, Shed.RATE_LIMITED);
+        return false;
+    }
+
+    /**
+     * counts a point2point message that grew past the size cap before it could be decoded
+     */
+    public void oversized(Channel channel) {
+        metrics.messageShed(channel, Shed.OVERSIZED);
+    }
+
+    /**
+     * counts a point2point connection that was refused because every slot for serving them was taken
+     */
+    public void refused(Channel channel) {
+        metrics.messageShed(channel, Shed.OVERLOADED);
+    }
+
+    /**
+     * forgets the sources whose buckets have filled back up, as they would start from a full bucket anyway
+     */
+    public void purge(long now) {
+        double rate = tokensPerMilli;
+        double full = burst;
+        buckets.values().removeIf(bucket -> bucket.isFull(now, rate, full));
+    }
+
+    int trackedSources() {
+        return buckets.size();
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        Bucket(long now, double tokens) {
+            this.tokens = tokens;
+            lastRefill = now;
+        }
+
+        synchronized boolean take(long now, double rate, double burst) {
+            refill(now, rate, burst);
+            if (tokens < 1.0) {
+                return false;
+            }
+            tokens -= 1.0;
+            return true;
+        }
+
+        synchronized boolean isFull(long now, double rate, double burst) {
+            refill(now, rate, burst);
+            return tokens >= burst;
+        }
+
+        private void refill(long now, double rate, double burst) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + ((now - lastRefill) * rate));
+                lastRefill = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * decides when the next dynamic announce goes out. The first announce uses the first configured delay. After that, the interval starts at the
+ * shortest of the remaining delays, and doubles after every announce that had nothing new to say, up to the longest delay. A membership change
+ * drops the interval back to the shortest delay, and brings the next announce forward to just after the change, so that a burst of changes
+ * goes out together. Every delay is jittered, so that nodes started together drift apart rather than announcing in lockstep.
+ */
+public class AnnounceScheduler {
+
+    static final double JITTER = 0.2;
+    static final long MAX_DEBOUNCE = 250;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final long debounce;
+    private final Random random;
+    private long interval;
+    private long nextAnnounce;
+    private boolean changed = true;
+
+    public AnnounceScheduler(int[] delays, long now) {
+        this(delays, now, null);
+    }
+
+    /**
+     * creates a scheduler that jitters with the given random, so that a simulation can replay exactly, or with the thread's own random if it is
+     * null
+     */
+    public AnnounceScheduler(int[] delays, long now, Random random) {
+        this.random = random;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = (delays.length > 1) ? 1 : 0; i < delays.length; i++) {
+            min = Math.min(min, delays[i]);
+            max = Math.max(max, delays[i]);
+        }
+
+        minInterval = min;
+        maxInterval = max;
+        interval = min;
+        debounce = Math.min(MAX_DEBOUNCE, min);
+        nextAnnounce = now + delays[0];
+    }
+
+    /**
+     * returns the longest time that can pass between two announces with the given delays, jitter included
+     */
+    public static long longestInterval(int[] delays) {
+        long max = 0;
+        for (int delay : delays) {
+            max = Math.max(max, delay);
+        }
+        return (long) Math.ceil(max * (1.0 + JITTER));
+    }
+
+    public synchronized long getNextAnnounce() {
+        return nextAnnounce;
+    }
+
+    /**
+     * notes a membership change, and returns whether that brought the next announce forward. An announce that is already due within the
+     * debounce window is left alone, so that it picks up this change as well.
+     */
+    public synchronized boolean changed(long now) {
+        changed = true;
+        if ((nextAnnounce - now) <= (long) (debounce * (1.0 + JITTER))) {
+            return false;
+        }
+
+        nextAnnounce = now + jitter(debounce);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * notes that an announce has gone out, and schedules the next one
+     */
+    public synchronized void announced(long now) {
+        interval = changed ? minInterval : Math.min(maxInterval, interval * 2);
+        changed = false;
+        nextAnnounce = now + jitter(interval);
+    }
+
+    /**
+     * blocks until the next announce is due, including when a change brings it forward while waiting
+     */
+    public synchronized void awaitAnnounce() throws InterruptedException {
+        long now;
+        while ((now = System.currentTimeMillis()) < nextAnnounce) {
+            wait(nextAnnounce - now);
+        }
+    }
+
+    private long jitter(long delay) {
+        double r = (random == null) ? ThreadLocalRandom.current().nextDouble() : random.nextDouble();
+        return (long) (delay * ((1.0 - JITTER) + (2.0 * JITTER * r)));
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * a membership table that keeps ipv4 endpoints in an open addressing table keyed by the address and port packed into one long, rather than in
+ * hash map nodes keyed by the endpoint. Each entry costs one long and one reference, lookups don't chase nodes, and the endpoint itself is only
+ * held by its EndpointInfo, which is where it is handed out from. Endpoints that aren't ipv4 literals, or whose ip isn't written in its
+ * canonical form, are kept in a side table.
+ *
+ * Lookups are lock free unless they race with a change, in which case they retry under a read lock. Iteration works on a copy taken when the
+ * iterator is created, so it never misses an entry that is there throughout. Every value must be the info of the endpoint it is stored under.
+ */
+public class CompactEndpointMap extends AbstractMap<Endpoint, EndpointInfo> implements ConcurrentMap<Endpoint, EndpointInfo> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+    private final ConcurrentHashMap<Endpoint, EndpointInfo> others = new ConcurrentHashMap<>();
+    private Table table = new Table(MIN_CAPACITY);
+    private volatile int packedSize;
+    private final EntrySet entrySet = new EntrySet();
+    private final KeySet keySet = new KeySet();
+    private final Values values = new Values();
+
+    /**
+     * packs a canonical ipv4 endpoint into a key, or returns 0 if it can't be. The extra high bit keeps a real key from ever being 0.
+     */
+    static long keyOf(Endpoint ep) {
+        int port = ep.getPort();
+        if ((port < 0) || (port > 0xFFFF)) {
+            return 0;
+        }
+
+        String ip = ep.getIp();
+        long addr = EndpointCodec.parseIPv4(ip);
+        if ((addr < 0) || (ip.length() != EndpointCodec.canonicalLength(addr))) {
+            return 0;
+        }
+        return (1L << 48) | (addr << 16) | port;
+    }
+
+    @Override
+    public int size() {
+        return packedSize + others.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public EndpointInfo get(Object key) {
+        if (!(key instanceof Endpoint)) {
+            return null;
+        }
+
+        Endpoint ep = (Endpoint) key;
+        long packed = keyOf(ep);
+        if (packed == 0) {
+            return others.get(ep);
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        EndpointInfo info = table.find(packed);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                info = table.find(packed);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return info;
+    }
+
+    @Override
+    public EndpointInfo put(Endpoint ep, EndpointInfo info) {
+        return store(ep, info, false);
+    }
+
+    @Override
+    public EndpointInfo putIfAbsent(Endpoint ep, EndpointInfo info) {
+        return store(ep, info, true);
+    }
+
+    private EndpointInfo store(Endpoint ep, EndpointInfo info, boolean onlyIfAbsent) {
+        if (!info.getEndpoint().equals(ep)) {
+            throw new IllegalArgumentException("Endpoint " + ep + " can't be stored with the info of " + info.getEndpoint());
+        }
+
+        long packed = keyOf(ep);
+        if (packed == 0) {
+            return onlyIfAbsent ? others.putIfAbsent(ep, info) : others.put(ep, info);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = table.slotOf(packed);
+            EndpointInfo old = table.values[slot];
+            if (old != null) {
+                if (!onlyIfAbsent) {
+                    table.values[slot] = info;
+                }
+                return old;
+            }
+
+            if (((packedSize + 1) * 2) > table.keys.length) {
+                table = table.resize(table.keys.length * 2);
+                slot = table.slotOf(packed);
+            }
+            table.keys[slot] = packed;
+            table.values[slot] = info;
+            ++packedSize;
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public EndpointInfo remove(Object key) {
+        return (key instanceof Endpoint) ? delete((Endpoint) key, null) : null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return (key instanceof Endpoint) && (value != null) && (delete((Endpoint) key, value) != null);
+    }
+
+    /**
+     * removes the endpoint, if it is stored with the expected value, or with anything when expected is null
+     */
+    private EndpointInfo delete(Endpoint ep, Object expected) {
+        long packed = keyOf(ep);
+        if (packed == 0) {
+            if (expected == null) {
+                return others.remove(ep);
+            }
+            return others.remove(ep, expected) ? (EndpointInfo) expected : null;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = table.slotOf(packed);
+            EndpointInfo old = table.values[slot];
+            if ((old == null) || ((expected != null) && (old != expected))) {
+                return null;
+            }
+
+            table.delete(slot);
+            --packedSize;
+            if ((table.keys.length > MIN_CAPACITY) && ((packedSize * 8) < table.keys.length)) {
+                table = table.resize(table.keys.length / 2);
+            }
+            return old;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean replace(Endpoint ep, EndpointInfo oldInfo, EndpointInfo newInfo) {
+        if (!newInfo.getEndpoint().equals(ep)) {
+            throw new IllegalArgumentException("Endpoint " + ep + " can't be stored with the info of " + newInfo.getEndpoint());
+        }
+
+        long packed = keyOf(ep);
+        if (packed == 0) {
+            return others.replace(ep, oldInfo, newInfo);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = table.slotOf(packed);
+            if ((table.values[slot] == null) || (table.values[slot] != oldInfo)) {
+                return false;
+            }
+            table.values[slot] = newInfo;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public EndpointInfo replace(Endpoint ep, EndpointInfo info) {
+        if (!info.getEndpoint().equals(ep)) {
+            throw new IllegalArgumentException("Endpoint " + ep + " can't be stored with the info of " + info.getEndpoint());
+        }
+
+        long packed = keyOf(ep);
+        if (packed == 0) {
+            return others.replace(ep, info);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = table.slotOf(packed);
+            EndpointInfo old = table.values[slot];
+            if (old != null) {
+                table.values[slot] = info;
+            }
+            return old;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = new Table(MIN_CAPACITY);
+            packedSize = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        others.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<Endpoint, EndpointInfo>> entrySet() {
+        return entrySet;
+    }
+
+    @Override
+    public Set<Endpoint> keySet() {
+        return keySet;
+    }
+
+    @Override
+    public Collection<EndpointInfo> values() {
+        return values;
+    }
+
+    /**
+     * copies the values out of the table, retrying under a read lock if a change raced with the copy
+     */
+    private List<EndpointInfo> copyValues() {
+        long stamp = lock.tryOptimisticRead();
+        List<EndpointInfo> copy = table.copyValues(packedSize + others.size());
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copy = table.copyValues(packedSize + others.size());
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        copy.addAll(others.values());
+        return copy;
+    }
+
+    /**
+     * iterates over a copy of the values, handing each one out as whatever the view is made of
+     */
+    private abstract class CopyIterator<T> implements Iterator<T> {
+        private final Iterator<EndpointInfo> it = copyValues().iterator();
+        private EndpointInfo last;
+
+        abstract T view(EndpointInfo info);
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public T next() {
+            last = it.next();
+            return view(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            CompactEndpointMap.this.remove(last.getEndpoint(), last);
+            last = null;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<Endpoint, EndpointInfo>> {
+        @Override
+        public int size() {
+            return CompactEndpointMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Endpoint, EndpointInfo>> iterator() {
+            return new CopyIterator<Map.Entry<Endpoint, EndpointInfo>>() {
+                @Override
+                Map.Entry<Endpoint, EndpointInfo> view(EndpointInfo info) {
+                    return new AbstractMap.SimpleImmutableEntry<>(info.getEndpoint(), info);
+                }
+            };
+        }
+    }
+
+    private class KeySet extends AbstractSet<Endpoint> {
+        @Override
+        public int size() {
+            return CompactEndpointMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return CompactEndpointMap.this.remove(o) != null;
+        }
+
+        @Override
+        public Iterator<Endpoint> iterator() {
+            return new CopyIterator<Endpoint>() {
+                @Override
+                Endpoint view(EndpointInfo info) {
+                    return info.getEndpoint();
+                }
+            };
+        }
+    }
+
+    private class Values extends AbstractCollection<EndpointInfo> {
+        @Override
+        public int size() {
+            return CompactEndpointMap.this.size();
+        }
+
+        @Override
+        public Iterator<EndpointInfo> iterator() {
+            return new CopyIterator<EndpointInfo>() {
+                @Override
+                EndpointInfo view(EndpointInfo info) {
+                    return info;
+                }
+            };
+        }
+    }
+
+    /**
+     * the linear probing arrays, which are replaced together when the table is resized, so that a lock free reader always sees a matching pair.
+     * The table is never more than half full, so every probe ends at an empty slot.
+     */
+    private static class Table {
+        final long[] keys;
+        final EndpointInfo[] values;
+        final int shift;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new EndpointInfo[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        /**
+         * returns the value stored under key, or null. This may be called while the table is being changed, in which case the caller must
+         * throw the answer away, so it is bounded rather than trusting the table to have an empty slot.
+         */
+        EndpointInfo find(long key) {
+            int mask = keys.length - 1;
+            int slot = home(key);
+            for (int probes = 0; probes < keys.length; probes++) {
+                long k = keys[slot];
+                if (k == key) {
+                    return values[slot];
+                }
+                if (k == 0) {
+                    return null;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * returns the slot holding key, or the empty slot it would be stored in
+         */
+        int slotOf(long key) {
+            int mask = keys.length - 1;
+            int slot = home(key);
+            while ((keys[slot] != 0) && (keys[slot] != key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * empties the slot, shifting later entries of the same probe run back, so that lookups never need to skip over deleted slots
+         */
+        void delete(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != 0) {
+                int home = home(keys[next]);
+                // the entry can fill the hole if its home isn't cyclically within (hole, next]
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+        }
+
+        Table resize(int capacity) {
+            Table resized = new Table(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    int slot = resized.slotOf(keys[i]);
+                    resized.keys[slot] = keys[i];
+                    resized.values[slot] = values[i];
+                }
+            }
+            return resized;
+        }
+
+        List<EndpointInfo> copyValues(int expectedSize) {
+            List<EndpointInfo> copy = new ArrayList<>(Math.max(0, expectedSize));
+            for (EndpointInfo info : values) {
+                if (info != null) {
+                    copy.add(info);
+                }
+            }
+            return copy;
+        }
+    }
+}
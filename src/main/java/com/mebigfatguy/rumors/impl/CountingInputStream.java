@@ -0,0 +1,90 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * counts the bytes read through it, so that traffic on streams can be measured a message at a time, and so that a message can be cut off
+ * once it has grown past a limit, rather than being read into memory whole. Not thread safe.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private long count;
+    private long limit = Long.MAX_VALUE;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            ++count;
+            checkLimit();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count += read;
+            checkLimit();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        checkLimit();
+        return skipped;
+    }
+
+    /**
+     * sets how many bytes may be read between calls to takeCount before reads start failing
+     */
+    void setLimit(long maxBytes) {
+        limit = maxBytes;
+    }
+
+    boolean isOverLimit() {
+        return count > limit;
+    }
+
+    private void checkLimit() throws IOException {
+        if (count > limit) {
+            throw new IOException("Message exceeds the limit of " + limit + " bytes");
+        }
+    }
+
+    /**
+     * returns the bytes read since the last call
+     */
+    long takeCount() {
+        long c = count;
+        count = 0;
+        return c;
+    }
+}
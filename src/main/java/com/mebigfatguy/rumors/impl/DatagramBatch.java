@@ -0,0 +1,119 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * the datagrams drained from a socket in one burst, with exact duplicates dropped as they are added. When many nodes restart together, most of
+ * what arrives is the same few announces over and over, so keeping only the first copy of each saves decoding and applying the rest. Each
+ * datagram is copied in, so the receive buffer can be reused straight away. Not thread safe; each receiving thread keeps its own.
+ */
+public class DatagramBatch {
+
+    private final ByteBuffer[] slots;
+    private final long[] hashes;
+    private int size;
+    private int duplicates;
+
+    public DatagramBatch(int capacity) {
+        slots = new ByteBuffer[capacity];
+        hashes = new long[capacity];
+    }
+
+    /**
+     * copies in the datagram, from its position to its limit, unless the batch already holds an exact copy. Returns whether it was added.
+     */
+    public boolean add(ByteBuffer datagram) {
+        if (isFull()) {
+            throw new IllegalStateException("Datagram batch is full");
+        }
+
+        long hash = hashOf(datagram);
+        for (int i = 0; i < size; i++) {
+            if ((hashes[i] == hash) && slots[i].equals(datagram)) {
+                ++duplicates;
+                return false;
+            }
+        }
+
+        ByteBuffer slot = slots[size];
+        if ((slot == null) || (slot.capacity() < datagram.remaining())) {
+            slot = ByteBuffer.allocate(Math.max(datagram.remaining(), AbstractRumors.MAX_DATAGRAM_SIZE));
+            slots[size] = slot;
+        }
+        slot.clear();
+        slot.put(datagram.duplicate());
+        slot.flip();
+        hashes[size++] = hash;
+        return true;
+    }
+
+    public boolean isFull() {
+        return size == slots.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * returns the distinct datagrams of the burst, in the order they arrived. Each one is rewound every time it is fetched.
+     */
+    public List<ByteBuffer> getDatagrams() {
+        return new AbstractList<ByteBuffer>() {
+            @Override
+            public ByteBuffer get(int index) {
+                if (index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+                }
+                ByteBuffer slot = slots[index];
+                slot.rewind();
+                return slot;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * returns how many duplicates were dropped since the last clear
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public void clear() {
+        size = 0;
+        duplicates = 0;
+    }
+
+    private static long hashOf(ByteBuffer datagram) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = datagram.position(); i < datagram.limit(); i++) {
+            h ^= datagram.get(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
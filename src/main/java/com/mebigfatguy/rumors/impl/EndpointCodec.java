@@ -0,0 +1,355 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
+import com.mebigfatguy.rumors.RumorsException;
+
+/**
+ * encodes and decodes the v2 binary wire format directly against ByteBuffers. The layout is
+ *
+ * <pre>
+ * 'R' 'U' version(1) type(1) [digest(8) memberCount(4)] entryCount(2) entries...
+ * entry: family(1) address(4|16) port(2)   where family is 4 or 16
+ *        0 length(1) utf8-host(length) port(2)   for endpoints that aren't canonical ip literals
+ * </pre>
+ *
+ * METADATA messages carry metadata rather than bare endpoints, as
+ *
+ * <pre>
+ * 'R' 'U' version(1) 'M' count(2) (entry version(8) pairs(1) (length(1) utf8-key(length) length(1) utf8-value(length))...)...
+ * </pre>
+ *
+ * v1 messages start with the high byte of a java char, which is always 0, so the magic is enough to tell the two apart. Decoding reuses the
+ * message it is given, and ipv4 endpoints are interned in a small direct mapped cache, so decoding a membership that is already known creates no
+ * garbage. Encoding is stateless, but decoding is not thread safe, so each receiving thread needs its own codec.
+ */
+public class EndpointCodec {
+
+    public static final int V1 = 1;
+    public static final int V2 = 2;
+
+    private static final byte MAGIC_0 = 'R';
+    private static final byte MAGIC_1 = 'U';
+    private static final int HEADER_SIZE = 4;
+    private static final int DIGEST_SIZE = 8 + 4;
+    private static final int COUNT_SIZE = 2;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int FAMILY_TEXT = 0;
+    private static final int FAMILY_IPV4 = 4;
+    private static final int FAMILY_IPV6 = 16;
+    private static final int INTERN_SIZE = 1024;
+    static final int MAX_METADATA_PAIRS = 255;
+
+    private final long[] internKeys = new long[INTERN_SIZE];
+    private final Endpoint[] internEndpoints = new Endpoint[INTERN_SIZE];
+    private final byte[] scratch = new byte[255];
+    private final StringBuilder ipBuilder = new StringBuilder(15);
+
+    public static boolean isV2(ByteBuffer buffer) {
+        int pos = buffer.position();
+        return (buffer.remaining() >= HEADER_SIZE) && (buffer.get(pos) == MAGIC_0) && (buffer.get(pos + 1) == MAGIC_1);
+    }
+
+    /**
+     * writes a message into the buffer from its position up to its limit, holding as many endpoints as fit starting at start. Returns the index
+     * of the first endpoint not written.
+     */
+    public static int encode(ByteBuffer buffer, MessageType type, long digest, int memberCount, List<Endpoint> endpoints, int start)
+            throws RumorsException {
+        int needed = HEADER_SIZE + (type.hasDigest() ? DIGEST_SIZE : 0) + COUNT_SIZE;
+        if (buffer.remaining() < needed) {
+            throw new RumorsException("Buffer too small to hold a message header");
+        }
+
+        buffer.put(MAGIC_0).put(MAGIC_1).put((byte) V2).put((byte) type.getCode());
+        if (type.hasDigest()) {
+            buffer.putLong(digest).putInt(memberCount);
+        }
+
+        int countPos = buffer.position();
+        buffer.putShort((short) 0);
+
+        int next = start;
+        while ((next < endpoints.size()) && ((next - start) < MAX_ENTRIES)) {
+            Endpoint ep = endpoints.get(next);
+            int entryStart = buffer.position();
+            if (!encodeEntry(buffer, ep)) {
+                buffer.position(entryStart);
+                if (next == start) {
+                    throw new RumorsException("Buffer too small to hold endpoint " + ep);
+                }
+                break;
+            }
+            ++next;
+        }
+
+        buffer.putShort(countPos, (short) (next - start));
+        return next;
+    }
+
+    /**
+     * writes a METADATA message holding the one endpoint's metadata into the buffer from its position up to its limit
+     */
+    public static void encodeMetadata(ByteBuffer buffer, EndpointMetadata metadata) throws RumorsException {
+        try {
+            buffer.put(MAGIC_0).put(MAGIC_1).put((byte) V2).put((byte) MessageType.METADATA.getCode());
+            buffer.putShort((short) 1);
+            if (!encodeEntry(buffer, metadata.getEndpoint())) {
+                throw new RumorsException("Buffer too small to hold metadata of " + metadata.getEndpoint());
+            }
+
+            Map<String, String> values = metadata.getValues();
+            if (values.size() > MAX_METADATA_PAIRS) {
+                throw new RumorsException("Too many metadata values to encode " + values.size());
+            }
+            buffer.putLong(metadata.getVersion()).put((byte) values.size());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                putShortString(buffer, entry.getKey());
+                putShortString(buffer, entry.getValue());
+            }
+        } catch (BufferOverflowException e) {
+            throw new RumorsException("Buffer too small to hold metadata of " + metadata.getEndpoint(), e);
+        }
+    }
+
+    private static void putShortString(ByteBuffer buffer, String s) throws RumorsException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new RumorsException("Metadata string too long to encode " + s);
+        }
+        buffer.put((byte) bytes.length).put(bytes);
+    }
+
+    private String getShortString(ByteBuffer buffer) {
+        int len = buffer.get() & 0xFF;
+        buffer.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * decodes a v2 message from the buffer's position to its limit into the given message, replacing its previous contents
+     */
+    public void decode(ByteBuffer buffer, EndpointMessage message) throws RumorsException {
+        try {
+            if ((buffer.get() != MAGIC_0) || (buffer.get() != MAGIC_1)) {
+                throw new RumorsException("Message is not in the v2 format");
+            }
+            int version = buffer.get() & 0xFF;
+            if (version != V2) {
+                throw new RumorsException("Unsupported message version " + version);
+            }
+
+            char code = (char) (buffer.get() & 0xFF);
+            MessageType type = MessageType.fromCode(code);
+            if (type == null) {
+                throw new RumorsException("Unknown message type '" + code + "'");
+            }
+
+            long digest = 0L;
+            int memberCount = 0;
+            if (type.hasDigest()) {
+                digest = buffer.getLong();
+                memberCount = buffer.getInt();
+            }
+
+            message.reset(type, digest, memberCount);
+            int count = buffer.getShort() & 0xFFFF;
+            if (type == MessageType.METADATA) {
+                decodeMetadata(buffer, count, message.getMetadata());
+                return;
+            }
+
+            List<Endpoint> endpoints = message.getEndpoints();
+            for (int i = 0; i < count; i++) {
+                endpoints.add(decodeEntry(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new RumorsException("Truncated v2 message", e);
+        }
+    }
+
+    private void decodeMetadata(ByteBuffer buffer, int count, List<EndpointMetadata> metadata) throws RumorsException {
+        for (int i = 0; i < count; i++) {
+            Endpoint ep = decodeEntry(buffer);
+            long version = buffer.getLong();
+            int pairs = buffer.get() & 0xFF;
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int p = 0; p < pairs; p++) {
+                String key = getShortString(buffer);
+                values.put(key, getShortString(buffer));
+            }
+            metadata.add(new EndpointMetadata(ep, version, values));
+        }
+    }
+
+    /**
+     * writes one endpoint, returning false, and leaving the buffer partially written, if it doesn't fit. Endpoints are compared by their ip
+     * strings, so only literals that decode back to the very same string are written as addresses, and anything else, such as "010.0.0.1", a
+     * mapped ipv6 address or one with a scope id, is written as text.
+     */
+    static boolean encodeEntry(ByteBuffer buffer, Endpoint ep) throws RumorsException {
+        String ip = ep.getIp();
+        long ipv4 = parseIPv4(ip);
+        byte[] ipv6;
+        if ((ipv4 >= 0) && (ip.length() == canonicalLength(ipv4))) {
+            if (buffer.remaining() < (1 + 4 + 2)) {
+                return false;
+            }
+            buffer.put((byte) FAMILY_IPV4).putInt((int) ipv4);
+        } else if ((ipv6 = canonicalIPv6(ip)) != null) {
+            if (buffer.remaining() < (1 + ipv6.length + 2)) {
+                return false;
+            }
+            buffer.put((byte) ipv6.length).put(ipv6);
+        } else {
+            byte[] host = ip.getBytes(StandardCharsets.UTF_8);
+            if (host.length > 255) {
+                throw new RumorsException("Host name too long to encode " + ip);
+            }
+            if (buffer.remaining() < (1 + 1 + host.length + 2)) {
+                return false;
+            }
+            buffer.put((byte) FAMILY_TEXT).put((byte) host.length).put(host);
+        }
+
+        buffer.putShort((short) ep.getPort());
+        return true;
+    }
+
+    Endpoint decodeEntry(ByteBuffer buffer) throws RumorsException {
+        int family = buffer.get() & 0xFF;
+        switch (family) {
+            case FAMILY_IPV4: {
+                int addr = buffer.getInt();
+                int port = buffer.getShort() & 0xFFFF;
+                return internIPv4(addr, port);
+            }
+
+            case FAMILY_IPV6: {
+                byte[] addr = new byte[FAMILY_IPV6];
+                buffer.get(addr);
+                int port = buffer.getShort() & 0xFFFF;
+                try {
+                    return new Endpoint(InetAddress.getByAddress(addr).getHostAddress(), port);
+                } catch (UnknownHostException e) {
+                    throw new RumorsException("Failed decoding ipv6 address", e);
+                }
+            }
+
+            case FAMILY_TEXT: {
+                int len = buffer.get() & 0xFF;
+                buffer.get(scratch, 0, len);
+                int port = buffer.getShort() & 0xFFFF;
+                return new Endpoint(new String(scratch, 0, len, StandardCharsets.UTF_8), port);
+            }
+
+            default:
+                throw new RumorsException("Unknown address family " + family);
+        }
+    }
+
+    private Endpoint internIPv4(int addr, int port) {
+        // the extra high bit keeps a real key from ever matching an empty slot
+        long key = (1L << 48) | ((addr & 0xFFFFFFFFL) << 16) | port;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 54) & (INTERN_SIZE - 1);
+        if (internKeys[slot] == key) {
+            return internEndpoints[slot];
+        }
+
+        ipBuilder.setLength(0);
+        ipBuilder.append((addr >>> 24) & 0xFF).append('.').append((addr >>> 16) & 0xFF).append('.').append((addr >>> 8) & 0xFF).append('.')
+                .append(addr & 0xFF);
+        Endpoint ep = new Endpoint(ipBuilder.toString(), port);
+        internKeys[slot] = key;
+        internEndpoints[slot] = ep;
+        return ep;
+    }
+
+    /**
+     * returns the length of the dotted quad without leading zeros, so that "010.0.0.1" can be told apart from "10.0.0.1"
+     */
+    static int canonicalLength(long addr) {
+        int length = 3;
+        for (int shift = 0; shift < 32; shift += 8) {
+            long octet = (addr >>> shift) & 0xFF;
+            length += (octet < 10) ? 1 : ((octet < 100) ? 2 : 3);
+        }
+        return length;
+    }
+
+    /**
+     * returns the address of an ipv6 literal that is written the way it is decoded, or null for anything else
+     */
+    private static byte[] canonicalIPv6(String ip) {
+        if ((ip.indexOf(':') < 0) || (ip.indexOf('%') >= 0)) {
+            return null;
+        }
+        try {
+            InetAddress addr = InetAddress.getByName(ip);
+            if ((addr instanceof Inet6Address) && addr.getHostAddress().equals(ip)) {
+                return addr.getAddress();
+            }
+        } catch (UnknownHostException e) {
+            // not a literal, so sent as text
+        }
+        return null;
+    }
+
+    /**
+     * parses a dotted quad without allocating, returning the address as an unsigned int, or -1 if the string isn't an ipv4 literal
+     */
+    static long parseIPv4(String ip) {
+        long addr = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if ((c >= '0') && (c <= '9')) {
+                octet = ((octet < 0) ? 0 : (octet * 10)) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if ((c == '.') && (octet >= 0) && (dots < 3)) {
+                addr = (addr << 8) | octet;
+                octet = -1;
+                ++dots;
+            } else {
+                return -1;
+            }
+        }
+
+        if ((dots != 3) || (octet < 0)) {
+            return -1;
+        }
+
+        return (addr << 8) | octet;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * the local bookkeeping kept for each known endpoint. The version is the local membership version at which the endpoint was added, and is used to
+ * figure out which endpoints are new since the last announce. The last seen time is refreshed every time the endpoint is heard about, while the
+ * failure detector is only fed by the endpoint's own announces, and so only exists for endpoints that are heard from directly.
+ */
+public class EndpointInfo {
+
+    private final Endpoint endpoint;
+    private volatile long version;
+    private volatile long lastSeen;
+    private volatile long scheduledDeadline = Long.MAX_VALUE;
+    private volatile FailureDetector detector;
+    private volatile boolean suspected;
+
+    public EndpointInfo(Endpoint endpoint, long version) {
+        this(endpoint, version, System.currentTimeMillis());
+    }
+
+    public EndpointInfo(Endpoint endpoint, long version, long now) {
+        this.endpoint = endpoint;
+        this.version = version;
+        lastSeen = now;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void touch(long now) {
+        lastSeen = now;
+    }
+
+    /**
+     * returns the failure detector, or null if the endpoint has never announced itself to us
+     */
+    public FailureDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * records an announce sent by the endpoint itself
+     */
+    public void heartbeat(long now) {
+        FailureDetector fd = detector;
+        if (fd == null) {
+            synchronized (this) {
+                fd = detector;
+                if (fd == null) {
+                    fd = new FailureDetector();
+                    detector = fd;
+                }
+            }
+        }
+        fd.heartbeat(now);
+        lastSeen = now;
+    }
+
+    public boolean isSuspected() {
+        return suspected;
+    }
+
+    /**
+     * marks the endpoint suspected, returning whether it wasn't already
+     */
+    synchronized boolean markSuspected() {
+        boolean changed = !suspected;
+        suspected = true;
+        return changed;
+    }
+
+    /**
+     * clears the suspicion, returning whether the endpoint was suspected
+     */
+    synchronized boolean clearSuspected() {
+        boolean changed = suspected;
+        suspected = false;
+        return changed;
+    }
+
+    long getScheduledDeadline() {
+        return scheduledDeadline;
+    }
+
+    void setScheduledDeadline(long deadline) {
+        scheduledDeadline = deadline;
+    }
+
+    @Override
+    public String toString() {
+        return "[version: " + version + ", lastSeen: " + lastSeen + "]";
+    }
+}
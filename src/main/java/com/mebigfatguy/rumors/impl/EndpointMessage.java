@@ -17,32 +17,103 @@
  */
 package com.mebigfatguy.rumors.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
 
 public class EndpointMessage {
 
-    private boolean adding;
+    private MessageType type;
     private List<Endpoint> endpoints;
+    private long digest;
+    private int memberCount;
+    private final List<EndpointMetadata> metadata = new ArrayList<>();
+    private long[] buckets;
+    private long incarnation;
+
+    public EndpointMessage() {
+        this(MessageType.JOIN, new ArrayList<Endpoint>(), 0L, 0);
+    }
 
     public EndpointMessage(boolean adding, List<Endpoint> endpoints) {
-        this.adding = adding;
+        this(adding ? MessageType.JOIN : MessageType.LEAVE, endpoints, 0L, 0);
+    }
+
+    public EndpointMessage(MessageType type, List<Endpoint> endpoints, long digest, int memberCount) {
+        this.type = type;
         this.endpoints = endpoints;
+        this.digest = digest;
+        this.memberCount = memberCount;
+    }
+
+    /**
+     * clears this message so that it can be reused for decoding the next one, without allocating
+     */
+    void reset(MessageType newType, long newDigest, int newMemberCount) {
+        type = newType;
+        digest = newDigest;
+        memberCount = newMemberCount;
+        endpoints.clear();
+        metadata.clear();
+        buckets = null;
+        incarnation = 0L;
+    }
+
+    public MessageType getType() {
+        return type;
     }
 
     public boolean isAdding() {
-        return adding;
+        return type != MessageType.LEAVE;
     }
 
     public List<Endpoint> getEndpoints() {
         return endpoints;
     }
 
+    /**
+     * returns the metadata carried by a METADATA message, which is empty for every other type
+     */
+    public List<EndpointMetadata> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * returns the bucket digests carried by a SYNC message, or null for every other type
+     */
+    public long[] getBuckets() {
+        return buckets;
+    }
+
+    void setBuckets(long[] bucketDigests) {
+        buckets = bucketDigests;
+    }
+
+    /**
+     * returns the incarnation of the sender, if it trailed a datagram the sender sent about itself, or 0
+     */
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    void setIncarnation(long senderIncarnation) {
+        incarnation = senderIncarnation;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
     @Override
     public int hashCode() {
-        int hc = endpoints.hashCode();
-        return adding ? hc : -hc;
+        return (int) (type.hashCode() ^ endpoints.hashCode() ^ digest);
     }
 
     @Override
@@ -52,11 +123,18 @@ public class EndpointMessage {
         }
 
         EndpointMessage that = (EndpointMessage) o;
-        return (adding == that.adding) && endpoints.equals(that.endpoints);
+        return (type == that.type) && (digest == that.digest) && (memberCount == that.memberCount) && endpoints.equals(that.endpoints)
+                && metadata.equals(that.metadata) && Arrays.equals(buckets, that.buckets);
     }
 
     @Override
     public String toString() {
-        return "[adding: " + adding + ", endpoints: " + endpoints + "]";
+        if (type.hasDigest()) {
+            return "[type: " + type + ", digest: " + Long.toHexString(digest) + ", members: " + memberCount + ", endpoints: " + endpoints + "]";
+        }
+        if (type == MessageType.METADATA) {
+            return "[type: " + type + ", metadata: " + metadata + "]";
+        }
+        return "[type: " + type + ", endpoints: " + endpoints + "]";
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * a hashed timing wheel of endpoint expiry deadlines. Each advance only looks at the slots whose ticks have passed, so the cost of expiry
+ * follows the number of entries coming due, rather than the size of the membership. Entries are not moved when their endpoint is seen again;
+ * instead whoever advances the wheel checks each due entry and reschedules the ones that have been refreshed since. An entry can be pulled
+ * forward by scheduling it again with an earlier deadline, in which case its later deadline is dropped when it comes due.
+ */
+public class ExpiryWheel {
+
+    private final long tickMillis;
+    private final List<List<Deadline>> slots;
+    private long currentTick;
+
+    public ExpiryWheel(long tickMillis, long span) {
+        this(tickMillis, span, System.currentTimeMillis());
+    }
+
+    public ExpiryWheel(long tickMillis, long span, long now) {
+        this.tickMillis = tickMillis;
+        int numSlots = (int) Math.max(2, (span / tickMillis) + 2);
+        slots = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            slots.add(new ArrayList<>());
+        }
+        currentTick = now / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public synchronized void schedule(EndpointInfo info, long deadline) {
+        info.setScheduledDeadline(deadline);
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+        slots.get((int) (tick % slots.size())).add(new Deadline(info, deadline));
+    }
+
+    /**
+     * removes and returns the entries whose latest deadlines have passed
+     */
+    public synchronized List<EndpointInfo> advance(long now) {
+        List<EndpointInfo> due = new ArrayList<>();
+        long nowTick = now / tickMillis;
+        // after a long stall, one pass over the wheel covers everything
+        long firstTick = Math.max(currentTick + 1, (nowTick - slots.size()) + 1);
+
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            Iterator<Deadline> it = slots.get((int) (tick % slots.size())).iterator();
+            while (it.hasNext()) {
+                Deadline d = it.next();
+                if (d.deadline <= now) {
+                    if (d.info.getScheduledDeadline() == d.deadline) {
+                        due.add(d.info);
+                    }
+                    it.remove();
+                }
+            }
+        }
+
+        // the current tick isn't over yet, so it is looked at again next time, for entries due later in it
+        currentTick = Math.max(currentTick, nowTick - 1);
+        return due;
+    }
+
+    private static class Deadline {
+        final EndpointInfo info;
+        final long deadline;
+
+        Deadline(EndpointInfo info, long deadline) {
+            this.info = info;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+/**
+ * a phi accrual failure detector for one endpoint. It keeps a window of the intervals between the endpoint's own announces, and phi is how
+ * unlikely it is, given the mean and deviation of that window, that the next announce is still on its way. The normal distribution is
+ * approximated with a logistic function, so that phi is cheap to compute, and since phi only grows with elapsed time, the time at which a
+ * threshold will be crossed can be computed up front when each announce arrives.
+ */
+public class FailureDetector {
+
+    private static final int WINDOW_SIZE = 100;
+    private static final int MIN_SAMPLES = 3;
+    private static final double MIN_STD_DEVIATION = 100.0;
+
+    private final long[] intervals = new long[WINDOW_SIZE];
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastArrival = -1;
+
+    public synchronized void heartbeat(long now) {
+        if (lastArrival >= 0) {
+            long interval = now - lastArrival;
+            if (count == WINDOW_SIZE) {
+                long old = intervals[next];
+                sum -= old;
+                sumOfSquares -= (double) old * old;
+            } else {
+                ++count;
+            }
+
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW_SIZE;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+        lastArrival = now;
+    }
+
+    public synchronized long getLastArrival() {
+        return lastArrival;
+    }
+
+    /**
+     * whether enough announces have arrived to judge the endpoint by
+     */
+    public synchronized boolean isReady() {
+        return count >= MIN_SAMPLES;
+    }
+
+    public synchronized double phi(long now) {
+        if (count < MIN_SAMPLES) {
+            return 0.0;
+        }
+
+        return phiOf((now - lastArrival - mean()) / stdDeviation());
+    }
+
+    /**
+     * returns the time at which phi will reach the threshold whose standard score is y, as computed by scoreFor
+     */
+    public synchronized long timeAt(double y) {
+        if (count < MIN_SAMPLES) {
+            return Long.MAX_VALUE;
+        }
+
+        return lastArrival + (long) (mean() + (y * stdDeviation()));
+    }
+
+    /**
+     * returns the number of standard deviations past the mean at which phi reaches the given threshold
+     */
+    public static double scoreFor(double phiThreshold) {
+        double low = -10.0;
+        double high = 50.0;
+        for (int i = 0; i < 60; i++) {
+            double mid = (low + high) / 2.0;
+            if (phiOf(mid) < phiThreshold) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    private double mean() {
+        return sum / count;
+    }
+
+    private double stdDeviation() {
+        double mean = mean();
+        double variance = Math.max(0.0, (sumOfSquares / count) - (mean * mean));
+        return Math.max(Math.sqrt(variance), Math.max(MIN_STD_DEVIATION, mean / 10.0));
+    }
+
+    private static double phiOf(double y) {
+        double e = Math.exp(-y * (1.5976 + (0.070566 * y * y)));
+        if (y > 0) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - (1.0 / (1.0 + e)));
+    }
+}
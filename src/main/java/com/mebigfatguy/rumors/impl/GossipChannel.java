@@ -0,0 +1,52 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+/**
+ * somewhere gossip messages can be answered on, such as the broadcast group or a persistent static session. Pulls and pull responses are rate
+ * limited per channel, so that a disagreement on one channel can't turn into a storm.
+ */
+public abstract class GossipChannel {
+
+    private volatile long lastPullRequest;
+    private volatile long lastPullResponse;
+
+    abstract void send(MessageType type, Collection<Endpoint> endpoints) throws IOException, RumorsException;
+
+    boolean allowPullRequest(long now, long interval) {
+        if ((now - lastPullRequest) > interval) {
+            lastPullRequest = now;
+            return true;
+        }
+        return false;
+    }
+
+    boolean allowPullResponse(long now, long interval) {
+        if ((now - lastPullResponse) > interval) {
+            lastPullResponse = now;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.Transport;
+import com.mebigfatguy.rumors.TransportHandler;
+
+/**
+ * shares one transport between several named discovery groups, each of which runs its own rumors instance, with its own membership, over a
+ * transport view of its own. Everything a group sends is prefixed with its name
+ *
+ * <pre>
+ * 'R' 'G' length(1) utf8-name(length) message...
+ * </pre>
+ *
+ * so a receiver drops traffic for groups it hasn't opened by comparing the prefix, before any of the message is decoded. The underlying
+ * transport is opened along with the first group, and closed along with the last.
+ */
+public class GroupTransport {
+
+    static final int MAX_GROUP_NAME = 64;
+    private static final byte MAGIC_0 = 'R';
+    private static final byte MAGIC_1 = 'G';
+
+    private final Transport transport;
+    private final Map<String, Group> groups = new HashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Group[] opened = new Group[0];
+    private Endpoint endpoint;
+
+    public GroupTransport(Transport sharedTransport) {
+        transport = sharedTransport;
+    }
+
+    /**
+     * returns the transport view for the named group, which a rumors instance can be created over
+     */
+    public synchronized Transport getGroup(String name) {
+        Group group = groups.get(name);
+        if (group == null) {
+            group = new Group(name);
+            groups.put(name, group);
+        }
+        return group;
+    }
+
+    /**
+     * returns how many datagrams were dropped because they weren't for an opened group
+     */
+    public long getDroppedDatagrams() {
+        return dropped.sum();
+    }
+
+    private final TransportHandler dispatcher = new TransportHandler() {
+        @Override
+        public void datagramReceived(ByteBuffer datagram) {
+            int pos = datagram.position();
+            if ((datagram.remaining() >= 3) && (datagram.get(pos) == MAGIC_0) && (datagram.get(pos + 1) == MAGIC_1)) {
+                int length = datagram.get(pos + 2) & 0xFF;
+                if (datagram.remaining() >= (3 + length)) {
+                    for (Group group : opened) {
+                        if (group.matches(datagram, pos + 3, length)) {
+                            TransportHandler handler = group.handler;
+                            if (handler != null) {
+                                datagram.position(pos + 3 + length);
+                                handler.datagramReceived(datagram);
+                            }
+                            return;
+                        }
+                    }
+                }
+            }
+            dropped.increment();
+        }
+
+        @Override
+        public byte[] requestReceived(DataInputStream request) throws IOException {
+            if ((request.readByte() != MAGIC_0) || (request.readByte() != MAGIC_1)) {
+                throw new IOException("Point2point request isn't for a discovery group");
+            }
+            byte[] name = new byte[request.readUnsignedByte()];
+            request.readFully(name);
+
+            for (Group group : opened) {
+                if (Arrays.equals(group.name, name)) {
+                    TransportHandler handler = group.handler;
+                    return (handler == null) ? null : handler.requestReceived(request);
+                }
+            }
+            return null;
+        }
+    };
+
+    private class Group implements Transport {
+        private final byte[] name;
+        private final byte[] prefix;
+        private volatile TransportHandler handler;
+
+        Group(String groupName) {
+            name = groupName.getBytes(StandardCharsets.UTF_8);
+            if ((name.length == 0) || (name.length > MAX_GROUP_NAME)) {
+                throw new IllegalArgumentException("Group names must be 1 to " + MAX_GROUP_NAME + " bytes: " + groupName);
+            }
+            prefix = new byte[3 + name.length];
+            prefix[0] = MAGIC_0;
+            prefix[1] = MAGIC_1;
+            prefix[2] = (byte) name.length;
+            System.arraycopy(name, 0, prefix, 3, name.length);
+        }
+
+        boolean matches(ByteBuffer datagram, int pos, int length) {
+            if (length != name.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (datagram.get(pos + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Endpoint open(TransportHandler transportHandler) throws IOException {
+            synchronized (GroupTransport.this) {
+                if (handler != null) {
+                    throw new IllegalStateException("Group " + new String(name, StandardCharsets.UTF_8) + " is already open");
+                }
+                if (opened.length == 0) {
+                    endpoint = transport.open(dispatcher);
+                }
+                handler = transportHandler;
+                Group[] groupsOpened = Arrays.copyOf(opened, opened.length + 1);
+                groupsOpened[opened.length] = this;
+                opened = groupsOpened;
+                return endpoint;
+            }
+        }
+
+        @Override
+        public void send(ByteBuffer datagram) throws IOException {
+            ByteBuffer framed = ByteBuffer.allocate(prefix.length + datagram.remaining());
+            framed.put(prefix).put(datagram);
+            framed.flip();
+            transport.send(framed);
+        }
+
+        @Override
+        public byte[] exchange(Endpoint peer, byte[] request, int connectTimeout, int readTimeout) throws IOException {
+            byte[] framed = Arrays.copyOf(prefix, prefix.length + request.length);
+            System.arraycopy(request, 0, framed, prefix.length, request.length);
+            return transport.exchange(peer, framed, connectTimeout, readTimeout);
+        }
+
+        @Override
+        public void close() {
+            synchronized (GroupTransport.this) {
+                if (handler == null) {
+                    return;
+                }
+                handler = null;
+
+                Group[] groupsOpened = new Group[opened.length - 1];
+                int i = 0;
+                for (Group group : opened) {
+                    if (group != this) {
+                        groupsOpened[i++] = group;
+                    }
+                }
+                opened = groupsOpened;
+                if (opened.length == 0) {
+                    transport.close();
+                    endpoint = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * an in memory network that LoopbackTransports attach to. Datagrams sent by one are delivered to all of them, and exchanges are handed
+ * straight to the peer's handler, so whole clusters can run in one jvm without binding any sockets.
+ */
+public class LoopbackNetwork {
+
+    static final String LOOPBACK_HOST = "loopback";
+
+    private final Map<Endpoint, LoopbackTransport> transports = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPort = new AtomicInteger(1);
+
+    Endpoint attach(LoopbackTransport transport) {
+        Endpoint ep = new Endpoint(LOOPBACK_HOST, nextPort.getAndIncrement());
+        transports.put(ep, transport);
+        return ep;
+    }
+
+    void detach(Endpoint ep) {
+        transports.remove(ep);
+    }
+
+    LoopbackTransport find(Endpoint ep) {
+        return transports.get(ep);
+    }
+
+    void broadcast(byte[] datagram) {
+        for (LoopbackTransport transport : transports.values()) {
+            transport.deliver(datagram);
+        }
+    }
+
+    /**
+     * returns the number of transports currently attached
+     */
+    public int size() {
+        return transports.size();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.Transport;
+import com.mebigfatguy.rumors.TransportHandler;
+
+/**
+ * a transport that lives on a LoopbackNetwork. Datagrams are delivered in order on a thread of the receiver's own, so that a handler that sends
+ * while handling never calls back into itself, while exchanges run on the caller's thread.
+ */
+public class LoopbackTransport implements Transport {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(LoopbackTransport.class);
+
+    private static final byte[] NO_REPLY = new byte[0];
+
+    private final LoopbackNetwork network;
+    private volatile TransportHandler handler;
+    private Endpoint endpoint;
+    private ExecutorService delivery;
+
+    public LoopbackTransport(LoopbackNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public synchronized Endpoint open(TransportHandler transportHandler) {
+        handler = transportHandler;
+        delivery = Executors.newSingleThreadExecutor(new NamedThreadFactory("Rumor Loopback Delivery"));
+        endpoint = network.attach(this);
+        return endpoint;
+    }
+
+    @Override
+    public void send(ByteBuffer datagram) {
+        byte[] bytes = new byte[datagram.remaining()];
+        datagram.get(bytes);
+        network.broadcast(bytes);
+    }
+
+    @Override
+    public byte[] exchange(Endpoint peer, byte[] request, int connectTimeout, int readTimeout) throws IOException {
+        LoopbackTransport transport = network.find(peer);
+        TransportHandler peerHandler = (transport == null) ? null : transport.handler;
+        if (peerHandler == null) {
+            throw new ConnectException("No loopback transport at " + peer);
+        }
+
+        byte[] reply = peerHandler.requestReceived(new DataInputStream(new ByteArrayInputStream(request)));
+        return (reply == null) ? NO_REPLY : reply;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (endpoint != null) {
+            network.detach(endpoint);
+            delivery.shutdownNow();
+            handler = null;
+            endpoint = null;
+        }
+    }
+
+    void deliver(byte[] datagram) {
+        try {
+            delivery.execute(() -> {
+                TransportHandler h = handler;
+                if (h != null) {
+                    h.datagramReceived(ByteBuffer.wrap(datagram));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Dropping datagram for closed loopback transport {}", endpoint);
+        }
+    }
+}
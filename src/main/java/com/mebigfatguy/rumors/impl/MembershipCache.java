@@ -0,0 +1,175 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+import com.mebigfatguy.rumors.aux.Closer;
+
+/**
+ * keeps a copy of the membership in a memory mapped file, so that a restarted node starts out with the peers it knew before. The layout is
+ *
+ * <pre>
+ * 'R' 'C' version(1) 0(1) savedAt(8) count(4) bodyLength(4) crc32(4) entries...
+ * </pre>
+ *
+ * where the entries are in the same form as v2 messages. The body is written before the header, and the header carries the checksum of the
+ * body, so a checkpoint torn by a crash is simply ignored on the next load. The mapping only ever grows, and is kept for the life of the cache.
+ */
+public class MembershipCache {
+
+    static final int VERSION = 1;
+    private static final byte MAGIC_0 = 'R';
+    private static final byte MAGIC_1 = 'C';
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 4;
+    private static final int MIN_MAPPING = 4096;
+    // the largest an entry can be, a host name of 255 bytes
+    private static final int MAX_ENTRY_SIZE = 1 + 1 + 255 + 2;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+
+    public MembershipCache(Path cachePath) {
+        path = cachePath;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * returns the endpoints saved no earlier than notBefore, or an empty list if there is no cache, it is older than that, or it is damaged
+     */
+    public synchronized List<Endpoint> load(long notBefore) throws RumorsException {
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (fc.size() < HEADER_SIZE) {
+                return Collections.emptyList();
+            }
+            return read(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()), notBefore);
+        } catch (IOException e) {
+            throw new RumorsException("Failed loading membership cache " + path, e);
+        }
+    }
+
+    private static List<Endpoint> read(ByteBuffer buffer, long notBefore) throws RumorsException {
+        if ((buffer.get() != MAGIC_0) || (buffer.get() != MAGIC_1) || ((buffer.get() & 0xFF) != VERSION)) {
+            return Collections.emptyList();
+        }
+        buffer.get();
+
+        long savedAt = buffer.getLong();
+        int count = buffer.getInt();
+        int bodyLength = buffer.getInt();
+        int crc = buffer.getInt();
+        if ((savedAt < notBefore) || (bodyLength < 0) || (bodyLength > buffer.remaining())) {
+            return Collections.emptyList();
+        }
+
+        ByteBuffer body = buffer.slice();
+        body.limit(bodyLength);
+        CRC32 checksum = new CRC32();
+        checksum.update(body.duplicate());
+        if ((int) checksum.getValue() != crc) {
+            return Collections.emptyList();
+        }
+
+        try {
+            EndpointCodec codec = new EndpointCodec();
+            List<Endpoint> endpoints = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                endpoints.add(codec.decodeEntry(body));
+            }
+            return endpoints;
+        } catch (BufferUnderflowException e) {
+            throw new RumorsException("Membership cache body is shorter than its count", e);
+        }
+    }
+
+    /**
+     * writes the endpoints to the cache, and forces them out to the file
+     */
+    public synchronized void save(Collection<Endpoint> endpoints, long now) throws RumorsException {
+        try {
+            ensureMapped(HEADER_SIZE + (endpoints.size() * MAX_ENTRY_SIZE));
+
+            ByteBuffer body = mapping.duplicate();
+            body.position(HEADER_SIZE);
+            int count = 0;
+            for (Endpoint ep : endpoints) {
+                if (!EndpointCodec.encodeEntry(body, ep)) {
+                    throw new RumorsException("Membership cache mapping too small for " + ep);
+                }
+                ++count;
+            }
+
+            int bodyLength = body.position() - HEADER_SIZE;
+            ByteBuffer written = mapping.duplicate();
+            written.position(HEADER_SIZE);
+            written.limit(HEADER_SIZE + bodyLength);
+            CRC32 checksum = new CRC32();
+            checksum.update(written);
+
+            ByteBuffer header = mapping.duplicate();
+            header.put(MAGIC_0).put(MAGIC_1).put((byte) VERSION).put((byte) 0);
+            header.putLong(now).putInt(count).putInt(bodyLength).putInt((int) checksum.getValue());
+            mapping.force();
+        } catch (IOException e) {
+            throw new RumorsException("Failed saving membership cache " + path, e);
+        }
+    }
+
+    private void ensureMapped(int size) throws IOException {
+        if ((mapping != null) && (mapping.capacity() >= size)) {
+            return;
+        }
+
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        int mappingSize = Math.max(MIN_MAPPING, Integer.highestOneBit(size - 1) << 1);
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize);
+    }
+
+    /**
+     * closes the file. The mapping itself is released when it is collected.
+     */
+    public synchronized void close() {
+        Closer.close(channel);
+        channel = null;
+        mapping = null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointState;
+import com.mebigfatguy.rumors.MembershipListener;
+
+/**
+ * hands membership events to listeners on a single dispatch thread, through a bounded queue. Firing an event never blocks; if the queue is
+ * full the event is dropped and counted, so that a slow listener can't stall the threads that receive messages. The dispatch thread goes away
+ * when it has been idle for a while.
+ */
+public class MembershipDispatcher {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(MembershipDispatcher.class);
+
+    static final int MAX_PENDING_EVENTS = 4096;
+
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    public MembershipDispatcher() {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_EVENTS),
+                new NamedThreadFactory("Rumor Listener Dispatch"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void addListener(MembershipListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    public void fire(Endpoint endpoint, EndpointState state) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> deliver(endpoint, state));
+        } catch (RejectedExecutionException e) {
+            if (droppedEvents.getAndIncrement() == 0) {
+                LOGGER.warn("Membership listeners are falling behind, dropping events");
+            }
+        }
+    }
+
+    private void deliver(Endpoint endpoint, EndpointState state) {
+        for (MembershipListener listener : listeners) {
+            try {
+                listener.endpointChanged(endpoint, state);
+            } catch (RuntimeException e) {
+                LOGGER.error("Membership listener {} failed handling {} {}", listener, endpoint, state, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+/**
+ * the kinds of messages that are exchanged between rumors instances
+ * <ul>
+ * <li>JOIN - the full membership of the sender</li>
+ * <li>LEAVE - endpoints that are leaving</li>
+ * <li>DELTA - endpoints that have been added since the last announce, along with a digest of the sender's membership</li>
+ * <li>PULL - a request for a full JOIN from any instance whose digest differs from the one sent</li>
+ * <li>SESSION - opens a persistent static session, carrying the full membership of the sender</li>
+ * <li>PING - a swim probe, answered with an ACK</li>
+ * <li>ACK - answers a PING, either directly or relayed for a PING_REQ</li>
+ * <li>PING_REQ - asks the receiver to PING the target on the sender's behalf</li>
+ * <li>METADATA - the metadata the sender has attached to its own endpoint, only ever sent in the v2 format</li>
+ * <li>SYNC - a point2point anti entropy exchange, carrying the sender's bucket digests, and the endpoints the receiver may be missing</li>
+ * <li>BOOTSTRAP - sent by an instance as it begins, asking for someone to offer it a full view</li>
+ * <li>OFFER - answers a BOOTSTRAP, carrying the instance that asked, and the point2point endpoint it can pull the full view from</li>
+ * </ul>
+ */
+public enum MessageType {
+    JOIN('J', false), LEAVE('L', false), DELTA('D', true), PULL('P', true), SESSION('S', true), PING('I', false), ACK('A', false),
+    PING_REQ('Q', false), METADATA('M', false), SYNC('Y', true), BOOTSTRAP('B', false), OFFER('O', false);
+
+    private final char code;
+    private final boolean digested;
+
+    MessageType(char code, boolean digested) {
+        this.code = code;
+        this.digested = digested;
+    }
+
+    public char getCode() {
+        return code;
+    }
+
+    public boolean hasDigest() {
+        return digested;
+    }
+
+    public static MessageType fromCode(char code) {
+        for (MessageType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
+
+/**
+ * the latest metadata of each endpoint, indexed by key and value, so that finding the endpoints with a given tag is two lookups, rather than a
+ * scan of the membership. The endpoint lists are copied on write and never modified after, as metadata changes rarely compared to how often
+ * peers are picked. The load value changes most often of all, and is never indexed.
+ */
+public class MetadataIndex {
+
+    private final Map<Endpoint, EndpointMetadata> metadata = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, List<Endpoint>>> tags = new ConcurrentHashMap<>();
+
+    public EndpointMetadata get(Endpoint ep) {
+        return metadata.get(ep);
+    }
+
+    /**
+     * stores the metadata if it is newer than what is known for its endpoint, returning whether it was
+     */
+    public synchronized boolean update(EndpointMetadata md) {
+        Endpoint ep = md.getEndpoint();
+        EndpointMetadata old = metadata.get(ep);
+        if ((old != null) && (old.getVersion() >= md.getVersion())) {
+            return false;
+        }
+
+        metadata.put(ep, md);
+        if (old != null) {
+            for (Map.Entry<String, String> entry : old.getValues().entrySet()) {
+                if (!entry.getValue().equals(md.get(entry.getKey()))) {
+                    untag(ep, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : md.getValues().entrySet()) {
+            if ((old == null) || !entry.getValue().equals(old.get(entry.getKey()))) {
+                tag(ep, entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    public synchronized void remove(Endpoint ep) {
+        EndpointMetadata old = metadata.remove(ep);
+        if (old != null) {
+            for (Map.Entry<String, String> entry : old.getValues().entrySet()) {
+                untag(ep, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void tag(Endpoint ep, String key, String value) {
+        if (EndpointMetadata.LOAD.equals(key)) {
+            return;
+        }
+
+        Map<String, List<Endpoint>> values = tags.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        List<Endpoint> old = values.get(value);
+        List<Endpoint> tagged = (old == null) ? new ArrayList<>(1) : new ArrayList<>(old);
+        tagged.add(ep);
+        values.put(value, Collections.unmodifiableList(tagged));
+    }
+
+    private void untag(Endpoint ep, String key, String value) {
+        Map<String, List<Endpoint>> values = tags.get(key);
+        List<Endpoint> old = (values == null) ? null : values.get(value);
+        if (old == null) {
+            return;
+        }
+
+        List<Endpoint> tagged = new ArrayList<>(old);
+        tagged.remove(ep);
+        if (tagged.isEmpty()) {
+            values.remove(value);
+        } else {
+            values.put(value, Collections.unmodifiableList(tagged));
+        }
+    }
+
+    /**
+     * returns the endpoints whose metadata holds the value under the key, as an unmodifiable list
+     */
+    public List<Endpoint> withTag(String key, String value) {
+        Map<String, List<Endpoint>> values = tags.get(key);
+        List<Endpoint> tagged = (values == null) ? null : values.get(value);
+        return (tagged == null) ? Collections.<Endpoint> emptyList() : tagged;
+    }
+
+    /**
+     * picks two of the candidates at random, and returns the one reporting the lower load. Picking the better of two random choices keeps the
+     * most loaded peer's load close to the average, without every caller herding onto the same least loaded peer, as picking the global minimum
+     * from stale loads would. Returns null if there are no candidates.
+     */
+    public Endpoint leastLoaded(List<Endpoint> candidates) {
+        int size = candidates.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            ++second;
+        }
+
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return (loadOf(b) < loadOf(a)) ? b : a;
+    }
+
+    private double loadOf(Endpoint ep) {
+        EndpointMetadata md = metadata.get(ep);
+        return (md == null) ? 0.0 : md.getLoad();
+    }
+}
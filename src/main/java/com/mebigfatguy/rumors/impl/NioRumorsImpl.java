@@ -0,0 +1,621 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.RumorsException;
+import com.mebigfatguy.rumors.aux.Closer;
+
+/**
+ * a rumors engine that runs all of its sockets and timers from one selector thread, using non blocking channels, for applications that embed
+ * many rumors instances, or run where threads are scarce.
+ */
+public class NioRumorsImpl extends AbstractRumors {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(NioRumorsImpl.class);
+
+    private final Object sync = new Object();
+    private Thread loopThread;
+    private DynamicBroadcastTask dynamicBroadcastTask;
+    private volatile boolean running = false;
+    private Selector selector;
+    private DatagramChannel broadcastChannel;
+    private InetSocketAddress broadcastAddress;
+    private ServerSocketChannel messageChannel;
+    private ServerSocketChannel staticDiscoveryChannel;
+
+    // only touched by the loop thread once it has started
+    private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_RECEIVE_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private final EndpointCodec codec = new EndpointCodec();
+    private final EndpointMessage v2Message = new EndpointMessage();
+    private final DatagramBatch burst = new DatagramBatch(MAX_RECEIVE_BURST);
+    private int servingConnections;
+
+    @Override
+    public void begin() throws RumorsException {
+        synchronized (sync) {
+            if (!running) {
+                LOGGER.info("Beginning rumors");
+                if (persistentSessions) {
+                    LOGGER.warn("Persistent static sessions are only supported by the threaded engine, exchanging per announce instead");
+                }
+                if (swimMode) {
+                    LOGGER.warn("Swim mode is only supported by the threaded engine, announcing to the whole group instead");
+                }
+                initializeRumorChannels();
+                myEndpoint = new Endpoint(messageChannel.socket().getInetAddress().getHostAddress(), messageChannel.socket().getLocalPort());
+                long now = System.currentTimeMillis();
+                announceScheduler = new AnnounceScheduler(broadcastAnnounce, now);
+                addEndPoint(myEndpoint);
+                incarnate();
+                registerMetrics();
+                restoreMembership();
+
+                tasks.clear();
+                dynamicBroadcastTask = new DynamicBroadcastTask();
+                tasks.add(dynamicBroadcastTask);
+                if (!staticEndpoints.isEmpty()) {
+                    tasks.add(new StaticBroadcastTask(now));
+                }
+                tasks.add(new MaintenanceTask(now));
+                // the loop isn't running yet, so the exchange can be set up from here
+                startBootstrap();
+
+                running = true;
+                loopThread = new Thread(new EventLoopRunnable());
+                loopThread.setName("Rumor Event Loop");
+                loopThread.start();
+            }
+        }
+    }
+
+    @Override
+    boolean isSwimming() {
+        return false;
+    }
+
+    @Override
+    public void end() {
+        synchronized (sync) {
+            if (running) {
+                try {
+                    running = false;
+                    selector.wakeup();
+                    loopThread.join();
+
+                    LOGGER.info("Sending dynamic broadcast leave packet {}", myEndpoint);
+                    sendLeave();
+                } catch (IOException | RumorsException e) {
+                    LOGGER.error("Failure closing down rumors", e);
+                } catch (InterruptedException e) {
+                } finally {
+                    terminateRumorChannels();
+                    closeMembershipCache();
+                    unregisterMetrics();
+                    loopThread = null;
+                    LOGGER.info("Ending Rumors");
+                }
+            }
+        }
+    }
+
+    @Override
+    void sendDynamic(ByteBuffer message) throws IOException {
+        metrics.packetSent(Channel.DYNAMIC, message.remaining());
+        broadcastChannel.send(message, broadcastAddress);
+    }
+
+    private void initializeRumorChannels() throws RumorsException {
+        try {
+            selector = Selector.open();
+
+            messageChannel = ServerSocketChannel.open();
+            messageChannel.bind(null);
+
+            InetAddress group = InetAddress.getByName(broadcastEndpoint.getIp());
+            broadcastAddress = new InetSocketAddress(group, broadcastEndpoint.getPort());
+            NetworkInterface nif = findMulticastInterface();
+            broadcastChannel = DatagramChannel.open((group instanceof Inet6Address) ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            broadcastChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+            broadcastChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+            if (receiveBufferSize > 0) {
+                broadcastChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            broadcastChannel.bind(new InetSocketAddress(broadcastEndpoint.getPort()));
+            broadcastChannel.join(group, nif);
+            broadcastChannel.configureBlocking(false);
+            broadcastChannel.register(selector, SelectionKey.OP_READ);
+
+            if (staticPort > 0) {
+                staticDiscoveryChannel = ServerSocketChannel.open();
+                staticDiscoveryChannel.bind(new InetSocketAddress(staticPort));
+                staticDiscoveryChannel.configureBlocking(false);
+                staticDiscoveryChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException ioe) {
+            terminateRumorChannels();
+            throw new RumorsException("Failed initializing rumor channels", ioe);
+        }
+    }
+
+    private void terminateRumorChannels() {
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                Closer.close(key.channel());
+            }
+        }
+
+        Closer.close(messageChannel);
+        Closer.close(broadcastChannel);
+        Closer.close(staticDiscoveryChannel);
+        Closer.close(selector);
+
+        messageChannel = null;
+        broadcastChannel = null;
+        staticDiscoveryChannel = null;
+        selector = null;
+    }
+
+    /**
+     * drains the pending datagrams a burst at a time, dropping exact duplicates, and applies each burst together
+     */
+    private void receiveDynamic() throws IOException {
+        boolean drained = false;
+        while (!drained) {
+            burst.clear();
+            while (!burst.isFull()) {
+                receiveBuffer.clear();
+                SocketAddress source = broadcastChannel.receive(receiveBuffer);
+                if (source == null) {
+                    drained = true;
+                    break;
+                }
+                receiveBuffer.flip();
+                if (admission.admitDatagram(((InetSocketAddress) source).getAddress(), receiveBuffer.remaining(), clock.millis())) {
+                    burst.add(receiveBuffer);
+                }
+            }
+
+            if (burst.getDuplicates() > 0) {
+                LOGGER.debug("Dropped {} duplicate broadcast packets", burst.getDuplicates());
+            }
+            if (!burst.isEmpty()) {
+                processDynamicBurst(burst.getDatagrams(), codec, v2Message);
+            }
+        }
+    }
+
+    /**
+     * accepts static connections until there are as many being served as the threaded engine has threads for. Past that, or when the client is
+     * over its rate limit, the connection is reset without being read, and the client will try again next round.
+     */
+    private void acceptStatic() throws IOException {
+        SocketChannel channel;
+        while ((channel = staticDiscoveryChannel.accept()) != null) {
+            Socket socket = channel.socket();
+            if (!admission.admitSource(Channel.STATIC, socket.getInetAddress(), clock.millis())) {
+                Closer.abort(socket);
+                continue;
+            }
+            if (servingConnections >= MAX_STATIC_THREADS) {
+                LOGGER.debug("Static discovery is overloaded, refusing connection from {}", socket.getRemoteSocketAddress());
+                admission.refused(Channel.STATIC);
+                Closer.abort(socket);
+                continue;
+            }
+
+            ++servingConnections;
+            channel.configureBlocking(false);
+            StaticConnection connection = new StaticConnection(channel, null, null, false);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            tasks.add(new StaticTimeoutTask(connection, System.currentTimeMillis() + (2L * staticReadTimeout)));
+        }
+    }
+
+    /**
+     * only ever called from the event loop, or before it starts
+     */
+    @Override
+    void bootstrapFrom(Endpoint peer, byte[] request) {
+        connectStatic(peer, request, true);
+    }
+
+    private void connectStatic(Endpoint ep, byte[] request, boolean bootstrap) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            StaticConnection connection = new StaticConnection(channel, ep, request, bootstrap);
+            if (channel.connect(new InetSocketAddress(ep.getIp(), ep.getPort()))) {
+                connection.key = channel.register(selector, SelectionKey.OP_WRITE, connection);
+            } else {
+                connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+            tasks.add(new StaticTimeoutTask(connection, System.currentTimeMillis() + staticConnectTimeout + (2L * staticReadTimeout)));
+        } catch (IOException e) {
+            LOGGER.error("Failed exchanging with static endpoint {}", ep, e);
+            metrics.staticExchanged(ep, 0, false);
+            if (bootstrap) {
+                bootstrapFailed(ep);
+            }
+            Closer.close(channel);
+        }
+    }
+
+    @Override
+    void membershipChanged(Endpoint ep, boolean added) {
+        super.membershipChanged(ep, added);
+        // the loop picks up an announce that was brought forward the next time it wakes
+        if (running && (Thread.currentThread() != loopThread)) {
+            selector.wakeup();
+        }
+    }
+
+    private void runDueTasks() {
+        long now = System.currentTimeMillis();
+        long announce = announceScheduler.getNextAnnounce();
+        if (announce < dynamicBroadcastTask.due) {
+            tasks.remove(dynamicBroadcastTask);
+            dynamicBroadcastTask.due = announce;
+            tasks.add(dynamicBroadcastTask);
+        }
+
+        ScheduledTask task;
+        while (((task = tasks.peek()) != null) && (task.due <= now)) {
+            tasks.poll();
+            try {
+                long delay = task.run();
+                if (delay >= 0) {
+                    task.due = now + delay;
+                    tasks.add(task);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed running rumors task {}", task, e);
+                task.due = now + task.retryDelay();
+                tasks.add(task);
+            }
+        }
+    }
+
+    private class EventLoopRunnable implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    runDueTasks();
+
+                    ScheduledTask next = tasks.peek();
+                    long wait = (next == null) ? 0 : Math.max(1, next.due - System.currentTimeMillis());
+                    selector.select(wait);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.channel() == broadcastChannel) {
+                            receiveDynamic();
+                        } else if (key.channel() == staticDiscoveryChannel) {
+                            acceptStatic();
+                        } else {
+                            ((StaticConnection) key.attachment()).handle(key);
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Failed processing rumors events", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * one static exchange, either as the client that sends the request first (peer is set) or as the server that reads the request first. All
+     * exchanges run side by side on the loop, and each is abandoned if it hasn't finished by its deadline.
+     */
+    private class StaticConnection {
+        private final SocketChannel channel;
+        private final Endpoint peer;
+        private final boolean bootstrap;
+        private byte[] input = new byte[MAX_RECEIVE_SIZE];
+        private int inputSize;
+        private int scanned;
+        private final long started = System.nanoTime();
+        private ByteBuffer output;
+        private SelectionKey key;
+        private boolean closed;
+
+        StaticConnection(SocketChannel channel, Endpoint peer, byte[] request, boolean bootstrap) {
+            this.channel = channel;
+            this.peer = peer;
+            this.bootstrap = bootstrap;
+            output = (request == null) ? null : ByteBuffer.wrap(request);
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    channel.write(output);
+                    if (!output.hasRemaining()) {
+                        metrics.packetSent(Channel.STATIC, output.limit());
+                        if (peer == null) {
+                            close(key);
+                        } else {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                } else if (key.isReadable()) {
+                    read(key);
+                }
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Failed static exchange with {}", (peer == null) ? channel : peer, e);
+                finish(key, false);
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException, RumorsException {
+            receiveBuffer.clear();
+            int len = channel.read(receiveBuffer);
+            if (len > 0) {
+                if ((inputSize + len) > admission.getMaxStaticMessageSize()) {
+                    admission.oversized(Channel.STATIC);
+                    throw new IOException("Static message exceeds the limit of " + admission.getMaxStaticMessageSize() + " bytes");
+                }
+                if ((inputSize + len) > input.length) {
+                    input = Arrays.copyOf(input, Math.max(input.length * 2, inputSize + len));
+                }
+                System.arraycopy(receiveBuffer.array(), 0, input, inputSize, len);
+                inputSize += len;
+            }
+
+            EndpointMessage message = tryDecode();
+            if (message != null) {
+                metrics.packetReceived(Channel.STATIC, inputSize);
+                if (peer == null) {
+                    LOGGER.debug("Receiving static broadcast packets {}", message);
+                    output = ByteBuffer.wrap(processStaticRequest(message));
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    LOGGER.debug("Receiving static broadcast packet {}", message);
+                    if (bootstrap) {
+                        processBootstrapReply(peer, message);
+                    } else {
+                        processStaticReply(peer, message);
+                    }
+                    finish(key, true);
+                }
+            } else if (len < 0) {
+                throw new EOFException("Static peer closed the connection before a complete message was received");
+            }
+        }
+
+        /**
+         * returns the message once all of it has arrived, or null to wait for more. Only the framing of what arrived since the last read is
+         * looked at, and the message is decoded once, so a big message arriving in many reads isn't decoded over and over.
+         */
+        private EndpointMessage tryDecode() throws RumorsException {
+            int length = messageLength();
+            if (length < 0) {
+                return null;
+            }
+            try {
+                return bufferToEndPoints(new ByteArrayInputStream(input, 0, length));
+            } catch (RumorsException e) {
+                metrics.decodeFailed(Channel.STATIC);
+                throw e;
+            }
+        }
+
+        /**
+         * walks the header and the length prefixed endpoints as far as they have arrived, returning the length of the message once its empty
+         * terminator is reached, or -1 if it hasn't been yet. An unknown type is left for the decoder to reject.
+         */
+        private int messageLength() {
+            if (scanned == 0) {
+                if (inputSize < 2) {
+                    return -1;
+                }
+                MessageType type = MessageType.fromCode((char) (((input[0] & 0xFF) << 8) | (input[1] & 0xFF)));
+                if (type == null) {
+                    return 2;
+                }
+                scanned = 2 + (type.hasDigest() ? (8 + 4) : 0) + ((type == MessageType.SYNC) ? (8 * SYNC_BUCKETS) : 0);
+            }
+
+            while ((scanned + 2) <= inputSize) {
+                int ipLength = ((input[scanned] & 0xFF) << 8) | (input[scanned + 1] & 0xFF);
+                if (ipLength == 0) {
+                    return scanned + 2;
+                }
+                // utf length + ip + port
+                scanned += 2 + ipLength + 4;
+            }
+            return -1;
+        }
+
+        /**
+         * closes the connection, recording how the exchange went if this side started it
+         */
+        void finish(SelectionKey selectionKey, boolean succeeded) {
+            if ((peer != null) && !closed) {
+                metrics.staticExchanged(peer, System.nanoTime() - started, succeeded);
+                if (bootstrap && !succeeded) {
+                    bootstrapFailed(peer);
+                }
+            }
+            close(selectionKey);
+        }
+
+        private void close(SelectionKey selectionKey) {
+            if ((peer == null) && !closed) {
+                --servingConnections;
+            }
+            closed = true;
+            selectionKey.cancel();
+            Closer.close(channel);
+        }
+    }
+
+    /**
+     * a timer that is run from the event loop. run returns the delay until the task should run again, or -1 if it shouldn't be rescheduled.
+     */
+    private abstract static class ScheduledTask implements Comparable<ScheduledTask> {
+        long due;
+
+        ScheduledTask(long due) {
+            this.due = due;
+        }
+
+        abstract long run() throws Exception;
+
+        long retryDelay() {
+            return 1000;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask o) {
+            return Long.compare(due, o.due);
+        }
+    }
+
+    private class DynamicBroadcastTask extends ScheduledTask {
+        private final DeltaTracker tracker = new DeltaTracker();
+
+        DynamicBroadcastTask() {
+            super(announceScheduler.getNextAnnounce());
+        }
+
+        @Override
+        long run() throws Exception {
+            long now = System.currentTimeMillis();
+            announceScheduler.announced(now);
+            List<Endpoint> sent = tracker.takeDatagram(sendBuffer);
+            LOGGER.debug("Sending dynamic broadcast packet {}", sent);
+            sendDynamic(sendBuffer);
+            announceMetadata(sendBuffer);
+            return nextDelay(now);
+        }
+
+        private long nextDelay(long now) {
+            return Math.max(0, announceScheduler.getNextAnnounce() - now);
+        }
+
+        @Override
+        long retryDelay() {
+            return nextDelay(System.currentTimeMillis());
+        }
+    }
+
+    private class StaticBroadcastTask extends ScheduledTask {
+        private final DeltaTracker tracker = new DeltaTracker();
+        private int delayIndex = 0;
+
+        StaticBroadcastTask(long now) {
+            super(now + broadcastAnnounce[0] + 100);
+            delayIndex = Math.min(1, broadcastAnnounce.length - 1);
+        }
+
+        @Override
+        long run() throws Exception {
+            List<Endpoint> changes = tracker.takeChanges();
+            LOGGER.debug("Sending static broadcast packets {}", changes);
+            byte[] delta = staticDelta(changes);
+            for (Endpoint ep : staticEndpoints) {
+                connectStatic(ep, staticRequest(ep, changes, delta), false);
+            }
+            return nextDelay();
+        }
+
+        private long nextDelay() {
+            long delay = broadcastAnnounce[delayIndex++] + 100;
+            if (delayIndex >= broadcastAnnounce.length) {
+                --delayIndex;
+            }
+            return delay;
+        }
+
+        @Override
+        long retryDelay() {
+            return nextDelay();
+        }
+    }
+
+    private class StaticTimeoutTask extends ScheduledTask {
+        private final StaticConnection connection;
+
+        StaticTimeoutTask(StaticConnection connection, long deadline) {
+            super(deadline);
+            this.connection = connection;
+        }
+
+        @Override
+        long run() {
+            if (!connection.closed) {
+                LOGGER.error("Timed out on static exchange with {}", (connection.peer == null) ? connection.channel : connection.peer);
+                connection.finish(connection.key, false);
+            }
+            return -1;
+        }
+    }
+
+    private class MaintenanceTask extends ScheduledTask {
+        MaintenanceTask(long now) {
+            super(now + getMaintenanceInterval());
+        }
+
+        @Override
+        long run() {
+            expireStaleEndPoints();
+            return getMaintenanceInterval();
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.Transport;
+import com.mebigfatguy.rumors.TransportHandler;
+import com.mebigfatguy.rumors.aux.Closer;
+
+/**
+ * a transport that runs all of its channels, both directions of every point2point exchange included, on one selector thread. Callers of
+ * exchange block until the loop completes their exchange, or its deadline passes.
+ */
+public class NioTransport implements Transport {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(NioTransport.class);
+
+    private static final long SWEEP_INTERVAL = 100;
+
+    private final Endpoint broadcastEndpoint;
+    private final int staticPort;
+    private final int readTimeout;
+    private final Queue<Connection> pendingConnections = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(AbstractRumors.MAX_RECEIVE_SIZE);
+    private TransportHandler handler;
+    private Selector selector;
+    private ServerSocketChannel messageChannel;
+    private DatagramChannel broadcastChannel;
+    private InetSocketAddress broadcastAddress;
+    private ServerSocketChannel staticChannel;
+    private Thread loopThread;
+    private volatile boolean open;
+    private int receiveBufferSize;
+    private AdmissionControl admission;
+    private final DatagramBatch burst = new DatagramBatch(AbstractRumors.MAX_RECEIVE_BURST);
+
+    /**
+     * creates a transport for the given multicast group, serving point2point requests on staticPort if it is positive, and giving up on silent
+     * requesters after readTimeout milliseconds
+     */
+    public NioTransport(Endpoint broadcastEndpoint, int staticPort, int readTimeout) {
+        this.broadcastEndpoint = broadcastEndpoint;
+        this.staticPort = staticPort;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * sets the SO_RCVBUF of the broadcast channel, in bytes, or 0 to leave it to the operating system. Must be set before open.
+     */
+    public void setReceiveBufferSize(int size) {
+        receiveBufferSize = size;
+    }
+
+    /**
+     * sets what rate limits the sources of datagrams and point2point connections, or null for no limits. Must be set before open.
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        admission = admissionControl;
+    }
+
+    @Override
+    public Endpoint open(TransportHandler transportHandler) throws IOException {
+        handler = transportHandler;
+        try {
+            selector = Selector.open();
+
+            messageChannel = ServerSocketChannel.open();
+            messageChannel.bind(null);
+
+            InetAddress group = InetAddress.getByName(broadcastEndpoint.getIp());
+            broadcastAddress = new InetSocketAddress(group, broadcastEndpoint.getPort());
+            NetworkInterface nif = AbstractRumors.findMulticastInterface();
+            broadcastChannel = DatagramChannel.open((group instanceof Inet6Address) ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            broadcastChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+            broadcastChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+            if (receiveBufferSize > 0) {
+                broadcastChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            broadcastChannel.bind(new InetSocketAddress(broadcastEndpoint.getPort()));
+            broadcastChannel.join(group, nif);
+            broadcastChannel.configureBlocking(false);
+            broadcastChannel.register(selector, SelectionKey.OP_READ);
+
+            if (staticPort > 0) {
+                staticChannel = ServerSocketChannel.open();
+                staticChannel.bind(new InetSocketAddress(staticPort));
+                staticChannel.configureBlocking(false);
+                staticChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        open = true;
+        loopThread = new Thread(new LoopRunnable());
+        loopThread.setName("Rumor Transport Loop");
+        loopThread.setDaemon(true);
+        loopThread.start();
+
+        return new Endpoint(messageChannel.socket().getInetAddress().getHostAddress(), messageChannel.socket().getLocalPort());
+    }
+
+    @Override
+    public void send(ByteBuffer datagram) throws IOException {
+        broadcastChannel.send(datagram, broadcastAddress);
+    }
+
+    @Override
+    public byte[] exchange(Endpoint peer, byte[] request, int connectTimeout, int exchangeReadTimeout) throws IOException {
+        long timeout = connectTimeout + (2L * exchangeReadTimeout);
+        Connection connection = new Connection(peer, ByteBuffer.wrap(request), System.currentTimeMillis() + timeout);
+        pendingConnections.add(connection);
+        selector.wakeup();
+
+        try {
+            return connection.reply.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            connection.reply.cancel(false);
+            throw new SocketTimeoutException("Timed out exchanging with " + peer);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException("Failed exchanging with " + peer, cause);
+        } catch (InterruptedException e) {
+            connection.reply.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted exchanging with " + peer, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        if (loopThread != null) {
+            selector.wakeup();
+            try {
+                loopThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loopThread = null;
+        }
+
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                Closer.close(key.channel());
+            }
+        }
+        Closer.close(messageChannel);
+        Closer.close(broadcastChannel);
+        Closer.close(staticChannel);
+        Closer.close(selector);
+        messageChannel = null;
+        broadcastChannel = null;
+        staticChannel = null;
+        selector = null;
+    }
+
+    private void registerPending() {
+        Connection connection;
+        while ((connection = pendingConnections.poll()) != null) {
+            if (connection.reply.isDone()) {
+                continue;
+            }
+            try {
+                SocketChannel channel = SocketChannel.open();
+                connection.channel = channel;
+                channel.configureBlocking(false);
+                boolean connected = channel.connect(new InetSocketAddress(connection.peer.getIp(), connection.peer.getPort()));
+                channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+            } catch (IOException e) {
+                connection.fail(e);
+            }
+        }
+    }
+
+    /**
+     * drains the pending datagrams a burst at a time, dropping exact duplicates, and hands each burst over together
+     */
+    private void receiveDatagrams() throws IOException {
+        boolean drained = false;
+        while (!drained) {
+            burst.clear();
+            while (!burst.isFull()) {
+                receiveBuffer.clear();
+                SocketAddress source = broadcastChannel.receive(receiveBuffer);
+                if (source == null) {
+                    drained = true;
+                    break;
+                }
+                receiveBuffer.flip();
+                if ((admission == null)
+                        || admission.admitSource(Channel.DYNAMIC, ((InetSocketAddress) source).getAddress(), System.currentTimeMillis())) {
+                    burst.add(receiveBuffer);
+                }
+            }
+
+            if (!burst.isEmpty()) {
+                handler.datagramsReceived(burst.getDatagrams());
+            }
+        }
+    }
+
+    /**
+     * accepts point2point connections until as many requests are being served as the socket transport has threads for. Past that, or when the
+     * client is over its rate limit, the connection is reset without being read.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = staticChannel.accept()) != null) {
+            Socket socket = channel.socket();
+            if ((admission != null) && !admission.admitSource(Channel.STATIC, socket.getInetAddress(), System.currentTimeMillis())) {
+                Closer.abort(socket);
+                continue;
+            }
+            if (servingConnections() >= AbstractRumors.MAX_STATIC_THREADS) {
+                LOGGER.debug("Point2point transport is overloaded, refusing connection from {}", socket.getRemoteSocketAddress());
+                if (admission != null) {
+                    admission.refused(Channel.STATIC);
+                }
+                Closer.abort(socket);
+                continue;
+            }
+
+            channel.configureBlocking(false);
+            Connection connection = new Connection(null, null, System.currentTimeMillis() + (2L * readTimeout));
+            connection.channel = channel;
+            channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private int servingConnections() {
+        int serving = 0;
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (key.isValid() && (attachment instanceof Connection) && (((Connection) attachment).peer == null)) {
+                ++serving;
+            }
+        }
+        return serving;
+    }
+
+    /**
+     * drops exchanges, in either direction, that have run past their deadlines
+     */
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                Connection connection = (Connection) attachment;
+                if ((now >= connection.deadline) || connection.reply.isCancelled()) {
+                    connection.fail(new SocketTimeoutException("Point2point exchange timed out"));
+                }
+            }
+        }
+    }
+
+    private class LoopRunnable implements Runnable {
+        @Override
+        public void run() {
+            long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+            while (open) {
+                try {
+                    registerPending();
+                    selector.select(SWEEP_INTERVAL);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.channel() == broadcastChannel) {
+                            receiveDatagrams();
+                        } else if (key.channel() == staticChannel) {
+                            accept();
+                        } else {
+                            ((Connection) key.attachment()).handle(key);
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextSweep) {
+                        sweep(now);
+                        nextSweep = now + SWEEP_INTERVAL;
+                    }
+                } catch (Exception e) {
+                    if (open) {
+                        LOGGER.error("Failed processing transport events", e);
+                    }
+                }
+            }
+
+            for (Connection connection : pendingConnections) {
+                connection.fail(new IOException("Transport closed"));
+            }
+        }
+    }
+
+    /**
+     * one point2point exchange, either as the client that sends the request and then reads the reply until the peer closes (peer is set), or
+     * as the server that reads the request, writes the reply and closes
+     */
+    private class Connection {
+        private final Endpoint peer;
+        private final long deadline;
+        private final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        private final CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        private ByteBuffer output;
+        private SocketChannel channel;
+
+        Connection(Endpoint peer, ByteBuffer request, long deadline) {
+            this.peer = peer;
+            this.deadline = deadline;
+            output = request;
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    channel.write(output);
+                    if (!output.hasRemaining()) {
+                        if (peer == null) {
+                            finish(key);
+                        } else {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                } else if (key.isReadable()) {
+                    read(key);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            receiveBuffer.clear();
+            int len = channel.read(receiveBuffer);
+            if (len > 0) {
+                if ((peer != null) && (admission != null) && (len > (admission.getMaxStaticMessageSize() - input.size()))) {
+                    admission.oversized(Channel.STATIC);
+                    throw new IOException("Reply from " + peer + " exceeds the limit of " + admission.getMaxStaticMessageSize() + " bytes");
+                }
+                input.write(receiveBuffer.array(), 0, len);
+            }
+
+            if (peer != null) {
+                if (len < 0) {
+                    reply.complete(input.toByteArray());
+                    finish(key);
+                }
+                return;
+            }
+
+            try {
+                byte[] response = handler.requestReceived(new DataInputStream(new ByteArrayInputStream(input.toByteArray())));
+                if (response == null) {
+                    finish(key);
+                } else {
+                    output = ByteBuffer.wrap(response);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } catch (EOFException e) {
+                if (len < 0) {
+                    throw e;
+                }
+            }
+        }
+
+        private void finish(SelectionKey key) {
+            key.cancel();
+            Closer.close(channel);
+        }
+
+        void fail(IOException e) {
+            if ((peer != null) && !reply.isDone()) {
+                reply.completeExceptionally(e);
+            } else if (peer == null) {
+                LOGGER.error("Failed serving point2point request", e);
+            }
+            if (channel != null) {
+                SelectionKey key = channel.keyFor(selector);
+                if (key != null) {
+                    key.cancel();
+                }
+                Closer.close(channel);
+            }
+        }
+    }
+}
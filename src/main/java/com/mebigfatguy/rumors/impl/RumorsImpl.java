@@ -18,51 +18,61 @@
 package com.mebigfatguy.rumors.impl;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.time.Duration;
-import java.time.Instant;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mebigfatguy.rumors.Endpoint;
-import com.mebigfatguy.rumors.Rumors;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
 import com.mebigfatguy.rumors.RumorsException;
 import com.mebigfatguy.rumors.aux.Closer;
 
-public class RumorsImpl implements Rumors {
+/**
+ * the original rumors engine, which dedicates a blocking thread to each of the broadcast, receive, static and maintenance tasks
+ */
+public class RumorsImpl extends AbstractRumors {
 
     private static Logger LOGGER = LoggerFactory.getLogger(RumorsImpl.class);
 
-    private static final String DEFAULT_BROADCAST_IP = "228.229.230.231";
-    private static final int DEFAULT_DYNAMIC_PORT = 13531;
-    private static final int[] DEFAULT_ANNOUNCE_DELAY = { 100, 5000, 5000, 5000, 60000 };
-    private static final int DEFAULT_MAINTENANCE_STALE_TIME = 5 * 60000;
-    private static final int MAX_BUFFERED_ENDPOINTS = 4000 / 40;
-
-    private Endpoint broadcastEndpoint = new Endpoint(DEFAULT_BROADCAST_IP, DEFAULT_DYNAMIC_PORT);
-    private Endpoint myEndpoint;
-    private int staticPort = 0;
-    private List<Endpoint> staticEndpoints = new ArrayList<>();
-    private int[] broadcastAnnounce = DEFAULT_ANNOUNCE_DELAY;
-    private long endpointStaleTime = DEFAULT_MAINTENANCE_STALE_TIME;
+    private static final int SESSION_HEARTBEAT_INTERVAL = 5000;
+    private static final int MAX_SESSIONS = 64;
+    // how long a peer that won't keep a session open is exchanged with one-shot, before a session is tried again
+    private static final long SESSION_RETRY_DELAY = 5 * 60 * 1000L;
+    private static final int MAX_SWIM_UPDATES = 32;
+    private static final int MAX_SWIM_SYNC_PAGE = 128;
 
     private final Object sync = new Object();
     private Thread dynamicBroadcastThread;
@@ -73,9 +83,25 @@ public class RumorsImpl implements Rumors {
     private boolean running = false;
     private ServerSocket staticDiscoverySocket;
     private MulticastSocket broadcastSocket;
+    private InetAddress broadcastAddress;
     private ServerSocket messageSocket;
-
-    private final Map<Endpoint, Instant> knownMessageSockets = new ConcurrentHashMap<>();
+    private ExecutorService staticExchangePool;
+    private ExecutorService staticServePool;
+    private Thread sessionWriterThread;
+    private ExecutorService sessionWritePool;
+    private final Map<Endpoint, StaticSession> peerSessions = new ConcurrentHashMap<>();
+    private final Set<StaticSession> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<Endpoint, Long> oneShotPeers = new ConcurrentHashMap<>();
+    private final Object sessionSync = new Object();
+    private boolean sessionsDirty;
+    private DatagramSocket swimSocket;
+    private Thread swimProbeThread;
+    private Thread swimReceiveThread;
+    private final Map<Long, Probe> probes = new ConcurrentHashMap<>();
+    private final Map<Endpoint, Long> swimSuspects = new ConcurrentHashMap<>();
+    private final AtomicLong probeSequence = new AtomicLong();
+    private final SwimUpdates swimUpdates = new SwimUpdates();
+    private final ThreadLocal<ByteBuffer> swimBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_DATAGRAM_SIZE));
 
     @Override
     public void begin() throws RumorsException {
@@ -84,31 +110,57 @@ public class RumorsImpl implements Rumors {
                 LOGGER.info("Beginning rumors");
                 initializeRumorPorts();
                 myEndpoint = new Endpoint(messageSocket.getInetAddress().getHostAddress(), messageSocket.getLocalPort());
-                knownMessageSockets.put(myEndpoint, Instant.now());
+                announceScheduler = new AnnounceScheduler(broadcastAnnounce, System.currentTimeMillis());
+                addEndPoint(myEndpoint);
+                incarnate();
+                registerMetrics();
+                restoreMembership();
 
                 dynamicBroadcastThread = new Thread(new DynamicBroadcastRunnable());
                 dynamicBroadcastThread.setName("Rumor Dynamic Broadcast");
                 dynamicBroadcastThread.start();
-                dynamicReceiveThread = new Thread(new DynamicReceiveRunnable());
+                dynamicReceiveThread = new Thread(new DynamicReceiveRunnable(broadcastSocket));
                 dynamicReceiveThread.setName("Rumor Dynamic Receive");
                 dynamicReceiveThread.start();
 
                 if (staticPort > 0) {
+                    // no queue, so that once every thread is busy, further connections are refused straight away rather than left waiting
+                    staticServePool = new ThreadPoolExecutor(1, MAX_STATIC_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                            new NamedThreadFactory("Rumor Static Serve"));
                     staticReceiveThread = new Thread(new StaticReceiveRunnable());
                     staticReceiveThread.setName("Rumor Static Receive");
                     staticReceiveThread.start();
                 }
 
                 if (!staticEndpoints.isEmpty()) {
+                    staticExchangePool = Executors.newFixedThreadPool(Math.min(staticEndpoints.size(), MAX_STATIC_THREADS),
+                            new NamedThreadFactory("Rumor Static Exchange"));
                     staticBroadcastThread = new Thread(new StaticBroadcastRunnable());
                     staticBroadcastThread.setName("Rumor Static Discovery");
                     staticBroadcastThread.start();
                 }
 
-                maintenanceThread = new Thread(new MaintenanceRunnable());
-                maintenanceThread.setName("Rumor Maintenance");
-                maintenanceThread.start();
+                if ((staticPort > 0) || (persistentSessions && !staticEndpoints.isEmpty())) {
+                    sessionWritePool = Executors.newCachedThreadPool(new NamedThreadFactory("Rumor Session Push"));
+                    sessionWriterThread = new Thread(new SessionWriterRunnable());
+                    sessionWriterThread.setName("Rumor Session Writer");
+                    sessionWriterThread.start();
+                }
+
+                if (swimMode) {
+                    swimReceiveThread = new Thread(new SwimReceiveRunnable());
+                    swimReceiveThread.setName("Rumor Swim Receive");
+                    swimReceiveThread.start();
+                    swimProbeThread = new Thread(new SwimProbeRunnable());
+                    swimProbeThread.setName("Rumor Swim Probe");
+                    swimProbeThread.start();
+                } else {
+                    maintenanceThread = new Thread(new MaintenanceRunnable());
+                    maintenanceThread.setName("Rumor Maintenance");
+                    maintenanceThread.start();
+                }
                 running = true;
+                startBootstrap();
             }
         }
     }
@@ -118,8 +170,15 @@ public class RumorsImpl implements Rumors {
         synchronized (sync) {
             if (running) {
                 try {
-                    maintenanceThread.interrupt();
-                    maintenanceThread.join();
+                    if (maintenanceThread != null) {
+                        maintenanceThread.interrupt();
+                        maintenanceThread.join();
+                    }
+
+                    if (swimProbeThread != null) {
+                        swimProbeThread.interrupt();
+                        swimProbeThread.join();
+                    }
 
                     dynamicBroadcastThread.interrupt();
 
@@ -129,11 +188,8 @@ public class RumorsImpl implements Rumors {
                     }
                     dynamicBroadcastThread.join();
 
-                    byte[] message = endpointsToBuffer(Arrays.asList(myEndpoint), false);
-                    DatagramPacket packet = new DatagramPacket(message, message.length, InetAddress.getByName(broadcastEndpoint.getIp()),
-                            broadcastEndpoint.getPort());
-                    LOGGER.info("Sending dynamic broadcast packet {}", knownMessageSockets.keySet());
-                    broadcastSocket.send(packet);
+                    LOGGER.info("Sending dynamic broadcast leave packet {}", myEndpoint);
+                    sendLeave();
 
                     terminateRumorPorts();
 
@@ -142,17 +198,32 @@ public class RumorsImpl implements Rumors {
                         staticReceiveThread.join();
                     }
 
+                    closeSessions();
+                    shutdownPools();
+
                     dynamicReceiveThread.interrupt();
                     dynamicReceiveThread.join();
 
+                    if (swimReceiveThread != null) {
+                        swimReceiveThread.interrupt();
+                        swimReceiveThread.join();
+                    }
+
                 } catch (IOException | RumorsException e) {
                     LOGGER.error("Failure closing down rumors", e);
                 } catch (InterruptedException e) {
+                    closeSessions();
+                    shutdownPools();
                 } finally {
                     dynamicBroadcastThread = null;
                     dynamicReceiveThread = null;
                     staticBroadcastThread = null;
                     staticReceiveThread = null;
+                    maintenanceThread = null;
+                    swimProbeThread = null;
+                    swimReceiveThread = null;
+                    closeMembershipCache();
+                    unregisterMetrics();
                     running = false;
                     LOGGER.info("Ending Rumors");
                 }
@@ -160,40 +231,45 @@ public class RumorsImpl implements Rumors {
         }
     }
 
-    @Override
-    public List<Endpoint> getEndpoints() {
-        return new ArrayList<>(knownMessageSockets.keySet());
-    }
-
-    @Override
-    public void reportBadInput(Endpoint endpoint) {
-        knownMessageSockets.remove(endpoint);
-    }
-
-    public void setBroadcastEndpoint(Endpoint bcEndpoint) {
-        broadcastEndpoint = bcEndpoint;
-    }
-
-    public void setStaticPort(int port) {
-        staticPort = port;
-    }
+    private void closeSessions() {
+        if (sessionWriterThread != null) {
+            sessionWriterThread.interrupt();
+            sessionWriterThread = null;
+        }
+        if (sessionWritePool != null) {
+            sessionWritePool.shutdownNow();
+            sessionWritePool = null;
+        }
 
-    public void setPoint2PointEndpoints(List<Endpoint> p2pEndpoints) {
-        staticEndpoints = new ArrayList<>(p2pEndpoints);
+        for (StaticSession session : sessions) {
+            session.close();
+        }
     }
 
-    public void setBroadcastAnnounceDelay(String value) {
-        String[] delays = value.split(",");
-        broadcastAnnounce = new int[delays.length];
+    @Override
+    void membershipChanged(Endpoint ep, boolean added) {
+        super.membershipChanged(ep, added);
+        if (swimMode && !ep.equals(myEndpoint)) {
+            swimUpdates.add(ep, added);
+        }
 
-        int i = 0;
-        for (String delay : delays) {
-            broadcastAnnounce[i++] = Integer.parseInt(delay);
+        if (!sessions.isEmpty()) {
+            synchronized (sessionSync) {
+                sessionsDirty = true;
+                sessionSync.notifyAll();
+            }
         }
     }
 
-    public void setEndpointStaleTime(long time) {
-        endpointStaleTime = time;
+    private void shutdownPools() {
+        if (staticExchangePool != null) {
+            staticExchangePool.shutdownNow();
+            staticExchangePool = null;
+        }
+        if (staticServePool != null) {
+            staticServePool.shutdownNow();
+            staticServePool = null;
+        }
     }
 
     private void initializeRumorPorts() throws RumorsException {
@@ -201,12 +277,21 @@ public class RumorsImpl implements Rumors {
             messageSocket = new ServerSocket();
             messageSocket.bind(null);
 
+            broadcastAddress = InetAddress.getByName(broadcastEndpoint.getIp());
             broadcastSocket = new MulticastSocket(broadcastEndpoint.getPort());
-            broadcastSocket.joinGroup(InetAddress.getByName(broadcastEndpoint.getIp()));
+            if (receiveBufferSize > 0) {
+                broadcastSocket.setReceiveBufferSize(receiveBufferSize);
+            }
+            broadcastSocket.joinGroup(broadcastAddress);
 
             if (staticPort > 0) {
                 staticDiscoverySocket = new ServerSocket(staticPort);
             }
+
+            if (swimMode) {
+                // udp and tcp ports are separate, so probes go to the same port number as the endpoint itself
+                swimSocket = new DatagramSocket(messageSocket.getLocalPort());
+            }
         } catch (IOException ioe) {
             terminateRumorPorts();
             throw new RumorsException("Failed initializing rumor ports", ioe);
@@ -219,106 +304,196 @@ public class RumorsImpl implements Rumors {
             Closer.close(messageSocket);
 
             if (broadcastSocket != null) {
-                broadcastSocket.leaveGroup(InetAddress.getByName(broadcastEndpoint.getIp()));
+                broadcastSocket.leaveGroup(broadcastAddress);
                 Closer.close(broadcastSocket);
             }
 
             if (staticDiscoverySocket != null) {
                 Closer.close(staticDiscoverySocket);
             }
+
+            if (swimSocket != null) {
+                swimSocket.close();
+            }
         } catch (Exception e) {
         } finally {
             messageSocket = null;
             broadcastSocket = null;
             staticDiscoverySocket = null;
+            swimSocket = null;
         }
     }
 
-    private byte[] endpointsToBuffer(Collection<Endpoint> endpoints, boolean joining) throws RumorsException {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos);
+    @Override
+    void sendDynamic(ByteBuffer message) throws IOException {
+        metrics.packetSent(Channel.DYNAMIC, message.remaining());
+        DatagramPacket packet = new DatagramPacket(message.array(), message.arrayOffset() + message.position(), message.remaining(), broadcastAddress,
+                broadcastEndpoint.getPort());
+        broadcastSocket.send(packet);
+    }
 
-            dos.writeChar(joining ? 'J' : 'L');
-            int written = 0;
+    private class DynamicBroadcastRunnable implements Runnable {
+        @Override
+        public void run() {
+            int announces = 0;
+            AnnounceScheduler scheduler = announceScheduler;
+            DeltaTracker tracker = new DeltaTracker();
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            while (!Thread.interrupted()) {
+                try {
+                    // swim nodes only announce while warming up, after that membership travels on the probes
+                    if (swimMode && (announces++ >= broadcastAnnounce.length)) {
+                        return;
+                    }
 
-            for (Endpoint ep : endpoints) {
-                if (written >= MAX_BUFFERED_ENDPOINTS) {
-                    break;
-                }
+                    scheduler.awaitAnnounce();
+                    scheduler.announced(System.currentTimeMillis());
 
-                dos.writeUTF(ep.getIp());
-                dos.writeInt(ep.getPort());
+                    List<Endpoint> sent = tracker.takeDatagram(buffer);
+                    LOGGER.debug("Sending dynamic broadcast packet {}", sent);
+                    sendDynamic(buffer);
+                    announceMetadata(buffer);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    LOGGER.error("Failed performing broadcast", e);
+                }
             }
-
-            dos.writeUTF("");
-            dos.flush();
-
-            return baos.toByteArray();
-
-        } catch (IOException ioe) {
-            throw new RumorsException("Failed converting known endpoints to buffer", ioe);
         }
     }
 
-    private EndpointMessage bufferToEndPoints(InputStream is) throws RumorsException {
-        try {
-            DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+    /**
+     * receives broadcasts in bursts. The socket is handed in, rather than read from the field, which end clears, and closing it is what stops
+     * the receiver.
+     */
+    private class DynamicReceiveRunnable implements Runnable {
+        private final MulticastSocket socket;
 
-            List<Endpoint> endpoints = new ArrayList<>();
-            char action = dis.readChar();
-            String ip = dis.readUTF();
-            while (ip.length() > 0) {
-                int port = dis.readInt();
+        DynamicReceiveRunnable(MulticastSocket socket) {
+            this.socket = socket;
+        }
 
-                Endpoint ep = new Endpoint(ip, port);
-                endpoints.add(ep);
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_RECEIVE_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            DatagramBatch burst = new DatagramBatch(MAX_RECEIVE_BURST);
+            EndpointCodec codec = new EndpointCodec();
+            EndpointMessage v2Message = new EndpointMessage();
 
-                ip = dis.readUTF();
+            while (!Thread.interrupted() && !socket.isClosed()) {
+                try {
+                    burst.clear();
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    offer(packet, burst);
+                    drain(packet, burst);
+
+                    if (burst.getDuplicates() > 0) {
+                        LOGGER.debug("Dropped {} duplicate broadcast packets", burst.getDuplicates());
+                    }
+                    if (!burst.isEmpty()) {
+                        processDynamicBurst(burst.getDatagrams(), codec, v2Message);
+                    }
+                } catch (Exception e) {
+                    if (!socket.isClosed()) {
+                        LOGGER.error("Failed receiving broadcast", e);
+                    }
+                }
             }
-
-            return new EndpointMessage(action == 'J', endpoints);
-
-        } catch (IOException ioe) {
-            throw new RumorsException("Failed converting incoming buffer to endpoints", ioe);
         }
-    }
 
-    private void addEndPoints(List<Endpoint> endpoints) {
-        for (Endpoint ep : endpoints) {
-            if (!knownMessageSockets.containsKey(ep)) {
-                knownMessageSockets.put(ep, Instant.now());
+        /**
+         * receives whatever else has already arrived, up until the socket has been quiet for a moment, or the burst is full. The short timeout
+         * is only set while draining, so an idle receiver blocks without waking up.
+         */
+        private void drain(DatagramPacket packet, DatagramBatch burst) throws IOException {
+            if (burst.isFull()) {
+                return;
+            }
+            socket.setSoTimeout(BURST_DRAIN_TIMEOUT);
+            try {
+                while (!burst.isFull()) {
+                    packet.setLength(packet.getData().length);
+                    socket.receive(packet);
+                    offer(packet, burst);
+                }
+            } catch (SocketTimeoutException e) {
+                // the burst is over
+            } finally {
+                if (!socket.isClosed()) {
+                    socket.setSoTimeout(0);
+                }
             }
         }
-    }
 
-    private void removeEndPoints(List<Endpoint> endpoints) {
-        for (Endpoint ep : endpoints) {
-            knownMessageSockets.remove(ep);
+        private void offer(DatagramPacket packet, DatagramBatch burst) {
+            if (admission.admitDatagram(packet.getAddress(), packet.getLength(), clock.millis())) {
+                burst.add(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            }
         }
     }
 
+    /**
+     * in swim mode, a member hearing a new node's announce sends it the full membership, but only with probability fanout / members, so that a
+     * new node hears from a handful of members, rather than the whole cluster
+     */
     @Override
-    public String toString() {
-        return "[knownMessageSockets: " + knownMessageSockets + "]";
+    void processDynamicMessage(EndpointMessage message) throws IOException, RumorsException {
+        if (!swimMode || (message.getType() != MessageType.DELTA) || message.getEndpoints().isEmpty()) {
+            super.processDynamicMessage(message);
+            return;
+        }
+
+        Endpoint sender = message.getEndpoints().get(0);
+        boolean isNew = !sender.equals(myEndpoint) && !knownMessageSockets.containsKey(sender);
+        super.processDynamicMessage(message);
+        if (isNew && (ThreadLocalRandom.current().nextInt(Math.max(1, knownMessageSockets.size())) < swimFanout)) {
+            sendSwimSync(sender);
+        }
     }
 
-    private class DynamicBroadcastRunnable implements Runnable {
+    private class StaticBroadcastRunnable implements Runnable {
+
         @Override
         public void run() {
             int delayIndex = 0;
+            long nextExchange = 0;
+            DeltaTracker tracker = new DeltaTracker();
             while (!Thread.interrupted()) {
                 try {
-                    Thread.sleep(broadcastAnnounce[delayIndex++]);
-                    if (delayIndex >= broadcastAnnounce.length) {
+                    int delay = broadcastAnnounce[delayIndex] + 100;
+                    Thread.sleep(persistentSessions ? Math.min(delay, SESSION_HEARTBEAT_INTERVAL) : delay);
+
+                    if (persistentSessions) {
+                        openSessions();
+                        // peers that won't keep a session open are still exchanged with, one-shot, at the announce delay
+                        if (oneShotPeers.isEmpty() || (System.currentTimeMillis() < nextExchange)) {
+                            continue;
+                        }
+                    }
+                    nextExchange = System.currentTimeMillis() + delay;
+                    if (++delayIndex >= broadcastAnnounce.length) {
                         --delayIndex;
                     }
 
-                    byte[] message = endpointsToBuffer(knownMessageSockets.keySet(), true);
-                    DatagramPacket packet = new DatagramPacket(message, message.length, InetAddress.getByName(broadcastEndpoint.getIp()),
-                            broadcastEndpoint.getPort());
-                    LOGGER.info("Sending dynamic broadcast packet {}", knownMessageSockets.keySet());
-                    broadcastSocket.send(packet);
+                    List<Endpoint> changes = tracker.takeChanges();
+                    LOGGER.debug("Sending static broadcast packets {}", changes);
+                    byte[] delta = staticDelta(changes);
+
+                    // exchange with all peers at once, so a dead peer only costs its own timeouts, not everyone's
+                    List<Callable<Void>> exchanges = new ArrayList<>(staticEndpoints.size());
+                    for (Endpoint ep : staticEndpoints) {
+                        if (persistentSessions && !oneShotPeers.containsKey(ep)) {
+                            continue;
+                        }
+                        byte[] buffer = staticRequest(ep, changes, delta);
+                        exchanges.add(() -> {
+                            exchangeStatic(ep, buffer, false);
+                            return null;
+                        });
+                    }
+                    staticExchangePool.invokeAll(exchanges, staticConnectTimeout + (2L * staticReadTimeout), TimeUnit.MILLISECONDS);
                 } catch (InterruptedException e) {
                     return;
                 } catch (Exception e) {
@@ -328,93 +503,548 @@ public class RumorsImpl implements Rumors {
         }
     }
 
-    private class DynamicReceiveRunnable implements Runnable {
-        @Override
-        public void run() {
-            byte[] buffer = new byte[4096];
+    /**
+     * (re)connects a session to every point2point peer that doesn't currently have one, other than those that recently closed a session
+     * straight after answering it
+     */
+    private void openSessions() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<Callable<Void>> opens = new ArrayList<>(staticEndpoints.size());
+        for (Endpoint ep : staticEndpoints) {
+            Long retryAt = oneShotPeers.get(ep);
+            if ((retryAt != null) && (retryAt.longValue() > now)) {
+                continue;
+            }
+            if (!peerSessions.containsKey(ep)) {
+                opens.add(() -> {
+                    openSession(ep);
+                    return null;
+                });
+            }
+        }
 
-            while (!Thread.interrupted()) {
-                try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    broadcastSocket.receive(packet);
+        if (!opens.isEmpty()) {
+            staticExchangePool.invokeAll(opens, staticConnectTimeout + (2L * staticReadTimeout), TimeUnit.MILLISECONDS);
+        }
+    }
 
-                    EndpointMessage message = bufferToEndPoints(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
-                    LOGGER.info("Receiving dynamic broadcast packet {}", message);
-                    if (message.isAdding()) {
-                        addEndPoints(message.getEndpoints());
-                    } else {
-                        removeEndPoints(message.getEndpoints());
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("Failed receiving broadcast", e);
+    private void openSession(Endpoint ep) {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(ep.getIp(), ep.getPort()), staticConnectTimeout);
+            s.setSoTimeout(staticReadTimeout);
+            CountingInputStream counter = new CountingInputStream(s.getInputStream());
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(counter));
+            OutputStream os = s.getOutputStream();
+            byte[] request = endpointsToBuffer(MessageType.SESSION, knownMessageSockets.keySet());
+            os.write(request);
+            os.flush();
+            metrics.packetSent(Channel.STATIC, request.length);
+
+            EndpointMessage message = receiveStatic(dis, counter);
+            LOGGER.info("Opened static session with {}, receiving {}", ep, message);
+            processStaticReply(message);
+            startSession(new StaticSession(s, ep, dis, counter));
+        } catch (IOException | RumorsException e) {
+            LOGGER.error("Failed opening static session with {}", ep, e);
+            Closer.close(s);
+        }
+    }
+
+    private void startSession(StaticSession session) {
+        sessions.add(session);
+        if (session.peer != null) {
+            peerSessions.put(session.peer, session);
+        }
+
+        Thread t = new Thread(session);
+        t.setName("Rumor Static Session " + ((session.peer == null) ? session.socket.getRemoteSocketAddress() : session.peer));
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    void bootstrapFrom(Endpoint peer, byte[] request) {
+        Thread t = new Thread(() -> exchangeStatic(peer, request, true));
+        t.setName("Rumor Bootstrap");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void exchangeStatic(Endpoint ep, byte[] request, boolean bootstrap) {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(ep.getIp(), ep.getPort()), staticConnectTimeout);
+            s.setSoTimeout(staticReadTimeout);
+            try (OutputStream os = s.getOutputStream(); CountingInputStream counter = new CountingInputStream(s.getInputStream())) {
+                os.write(request);
+                os.flush();
+                metrics.packetSent(Channel.STATIC, request.length);
+                EndpointMessage message = receiveStatic(new DataInputStream(new BufferedInputStream(counter)), counter);
+                LOGGER.debug("Receiving static broadcast packet {}", message);
+                if (bootstrap) {
+                    processBootstrapReply(ep, message);
+                } else {
+                    processStaticReply(ep, message);
                 }
+                succeeded = true;
+            }
+        } catch (IOException | RumorsException e) {
+            LOGGER.error("Failed exchanging with static endpoint {}", ep, e);
+        } finally {
+            metrics.staticExchanged(ep, System.nanoTime() - start, succeeded);
+            if (bootstrap && !succeeded) {
+                bootstrapFailed(ep);
             }
         }
     }
 
-    private class StaticBroadcastRunnable implements Runnable {
+    private void serveStatic(Socket s) {
+        boolean keepOpen = false;
+        try {
+            CountingInputStream counter = new CountingInputStream(s.getInputStream());
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(counter));
+            OutputStream os = s.getOutputStream();
+
+            EndpointMessage message = receiveStatic(dis, counter);
+            LOGGER.debug("Receiving static broadcast packets {}", message);
+            byte[] reply = processStaticRequest(message);
+            os.write(reply);
+            os.flush();
+            metrics.packetSent(Channel.STATIC, reply.length);
+
+            if ((message.getType() == MessageType.SESSION) && (sessions.size() < MAX_SESSIONS)) {
+                startSession(new StaticSession(s, null, dis, counter));
+                keepOpen = true;
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed receiving static discovery request", e);
+        } finally {
+            if (!keepOpen) {
+                Closer.close(s);
+            }
+        }
+    }
+
+    /**
+     * accepts static connections and hands each one off to the serve pool, so one slow client can't hold up the others. When the pool is
+     * saturated, or the client is over its rate limit, the connection is reset without being read, and the client will try again next round.
+     */
+    private class StaticReceiveRunnable implements Runnable {
 
         @Override
         public void run() {
-            int delayIndex = 0;
             while (!Thread.interrupted()) {
+                Socket s = null;
                 try {
-                    Thread.sleep(broadcastAnnounce[delayIndex++] + 100);
-                    if (delayIndex >= broadcastAnnounce.length) {
-                        --delayIndex;
+                    s = staticDiscoverySocket.accept();
+                    if (!admission.admitSource(Channel.STATIC, s.getInetAddress(), clock.millis())) {
+                        Closer.abort(s);
+                        continue;
                     }
+                    s.setSoTimeout(staticReadTimeout);
+                    Socket accepted = s;
+                    staticServePool.execute(() -> serveStatic(accepted));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug("Static discovery is overloaded, refusing connection from {}", s.getRemoteSocketAddress());
+                    admission.refused(Channel.STATIC);
+                    Closer.abort(s);
+                } catch (Exception e) {
+                    LOGGER.error("Failed receiving static discovery request", e);
+                    Closer.close(s);
+                }
+            }
+        }
+    }
 
-                    LOGGER.info("Sending static broadcast packets {}", knownMessageSockets.keySet());
-                    byte[] buffer = endpointsToBuffer(knownMessageSockets.keySet(), true);
-                    for (Endpoint ep : staticEndpoints) {
-                        try (Socket s = new Socket(ep.getIp(), ep.getPort()); OutputStream os = s.getOutputStream(); InputStream is = s.getInputStream()) {
-                            os.write(buffer);
-                            os.flush();
-                            EndpointMessage message = bufferToEndPoints(is);
-                            LOGGER.info("Receiving static broadcast packet {}", message);
-                            if (message.isAdding()) {
-                                addEndPoints(message.getEndpoints());
-                            } else {
-                                removeEndPoints(message.getEndpoints());
-                            }
-                        } catch (IOException ioe) {
-                        }
+    /**
+     * a long lived static connection that both sides push membership changes over as they happen. Messages are self delimiting, so they are
+     * just written back to back. Idle links carry a heartbeat, and a link that stays silent for several heartbeats is dropped, to be
+     * reconnected by the side that opened it.
+     */
+    private class StaticSession extends GossipChannel implements Runnable {
+        private final Socket socket;
+        private final Endpoint peer;
+        private final DataInputStream input;
+        private final CountingInputStream counter;
+        private final OutputStream output;
+        private final DeltaTracker tracker = new DeltaTracker();
+        private volatile long lastSent;
+        private volatile boolean received;
+        private volatile boolean closed;
+
+        StaticSession(Socket socket, Endpoint peer, DataInputStream input, CountingInputStream counter) throws IOException {
+            this.socket = socket;
+            this.peer = peer;
+            this.input = input;
+            this.counter = counter;
+            socket.setSoTimeout(SESSION_HEARTBEAT_INTERVAL * 3);
+            socket.setKeepAlive(true);
+            output = new BufferedOutputStream(socket.getOutputStream());
+            lastSent = System.currentTimeMillis();
+            // the handshake already covered everything up to now
+            tracker.takeChanges();
+        }
+
+        @Override
+        synchronized void send(MessageType type, Collection<Endpoint> endpoints) throws IOException, RumorsException {
+            byte[] buffer = endpointsToBuffer(type, endpoints);
+            output.write(buffer);
+            output.flush();
+            metrics.packetSent(Channel.STATIC, buffer.length);
+            lastSent = System.currentTimeMillis();
+        }
+
+        /**
+         * pushes whatever changed since the last push, or a heartbeat if nothing has been sent for a while. Only called by the session writer,
+         * one push at a time.
+         */
+        void push(long now) {
+            try {
+                List<Endpoint> changes = tracker.takeChanges();
+                if ((changes.size() > 1) || ((now - lastSent) >= SESSION_HEARTBEAT_INTERVAL)) {
+                    send(MessageType.DELTA, changes);
+                }
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Failed pushing to static session {}", this, e);
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    EndpointMessage message = receiveStatic(input, counter);
+                    LOGGER.debug("Receiving static session packet {}", message);
+                    if (!received && (peer != null)) {
+                        oneShotPeers.remove(peer);
                     }
-                } catch (InterruptedException e) {
+                    received = true;
+                    processGossipMessage(message, this);
+                }
+            } catch (Exception e) {
+                if (closed) {
                     return;
-                } catch (Exception e) {
-                    LOGGER.error("Failed performing broadcast", e);
                 }
+                if ((peer != null) && !received && (e.getCause() instanceof EOFException)) {
+                    // the peer answered the handshake like a one-shot exchange, as engines without sessions, or one out of sessions, do
+                    LOGGER.info("Static peer {} doesn't keep sessions open, exchanging one-shot with it instead", peer);
+                    oneShotPeers.put(peer, System.currentTimeMillis() + SESSION_RETRY_DELAY);
+                } else {
+                    LOGGER.error("Static session {} failed", this, e);
+                }
+            } finally {
+                close();
             }
         }
+
+        void close() {
+            closed = true;
+            sessions.remove(this);
+            if (peer != null) {
+                peerSessions.remove(peer, this);
+            }
+            Closer.close(socket);
+        }
+
+        @Override
+        public String toString() {
+            return "[peer: " + ((peer == null) ? socket.getRemoteSocketAddress() : peer) + "]";
+        }
     }
 
-    private class StaticReceiveRunnable implements Runnable {
+    /**
+     * pushes to every session at once, on the push pool, as a write blocks for as long as the peer isn't reading. A session whose push hasn't
+     * drained within a heartbeat is closed, which fails the write, so a stalled peer holds up the next round of pushes by a heartbeat at most,
+     * and never the other sessions' writes.
+     */
+    private class SessionWriterRunnable implements Runnable {
+        private final ExecutorService pushPool = sessionWritePool;
 
         @Override
         public void run() {
-            while (!Thread.interrupted()) {
+            try {
+                while (!Thread.interrupted()) {
+                    synchronized (sessionSync) {
+                        if (!sessionsDirty) {
+                            sessionSync.wait(SESSION_HEARTBEAT_INTERVAL / 2);
+                        }
+                        sessionsDirty = false;
+                    }
+
+                    long now = System.currentTimeMillis();
+                    List<StaticSession> pushed = new ArrayList<>(sessions);
+                    List<Callable<Void>> pushes = new ArrayList<>(pushed.size());
+                    for (StaticSession session : pushed) {
+                        pushes.add(() -> {
+                            session.push(now);
+                            return null;
+                        });
+                    }
+
+                    List<Future<Void>> results = pushPool.invokeAll(pushes, SESSION_HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+                    for (int i = 0; i < results.size(); i++) {
+                        if (results.get(i).isCancelled()) {
+                            LOGGER.info("Static session {} didn't drain within {}ms, closing it", pushed.get(i), SESSION_HEARTBEAT_INTERVAL);
+                            pushed.get(i).close();
+                        }
+                    }
+                }
+            } catch (InterruptedException | RejectedExecutionException e) {
+            }
+        }
+    }
+
+    /**
+     * how many times an update is piggybacked, and how many probe intervals a suspect gets to answer, both of which grow with log2 of the
+     * membership, as swim needs to reach everyone with high probability
+     */
+    private int swimRounds() {
+        int members = knownMessageSockets.size();
+        return swimFanout * (32 - Integer.numberOfLeadingZeros(Math.max(1, members)));
+    }
+
+    private void sendSwim(Endpoint to, MessageType type, long sequence, Endpoint target) throws IOException, RumorsException {
+        SwimMessage message = new SwimMessage(type, sequence, myEndpoint, target);
+        swimUpdates.fill(message, MAX_SWIM_UPDATES, swimRounds());
+        sendSwim(to, message);
+    }
+
+    private int sendSwim(Endpoint to, SwimMessage message) throws IOException, RumorsException {
+        ByteBuffer buffer = swimBuffers.get();
+        buffer.clear();
+        buffer.limit(MAX_DATAGRAM_SIZE);
+        int written = message.encode(buffer);
+        buffer.flip();
+        sendSwim(to, buffer);
+        metrics.packetSent(Channel.SWIM, buffer.limit());
+        return written;
+    }
+
+    /**
+     * sends one already encoded swim datagram straight to a member
+     */
+    void sendSwim(Endpoint to, ByteBuffer datagram) throws IOException {
+        swimSocket.send(new DatagramPacket(datagram.array(), 0, datagram.limit(), InetAddress.getByName(to.getIp()), to.getPort()));
+    }
+
+    /**
+     * sends the full membership to a new node, as alive updates spread over as many datagrams as it takes
+     */
+    private void sendSwimSync(Endpoint to) {
+        try {
+            List<Endpoint> members = getEndpoints();
+            int start = 0;
+            while (start < members.size()) {
+                SwimMessage message = new SwimMessage(MessageType.JOIN, 0, myEndpoint, myEndpoint);
+                message.getAlive().addAll(members.subList(start, Math.min(members.size(), start + MAX_SWIM_SYNC_PAGE)));
+                start += sendSwim(to, message);
+            }
+        } catch (IOException | RumorsException e) {
+            LOGGER.error("Failed sending membership to new swim member {}", to, e);
+        }
+    }
 
-                try (Socket s = staticDiscoverySocket.accept();
-                        BufferedInputStream bis = new BufferedInputStream(s.getInputStream());
-                        OutputStream os = s.getOutputStream()) {
+    void processSwimMessage(SwimMessage message) throws IOException, RumorsException {
+        Endpoint sender = message.getSender();
+        if (!sender.equals(myEndpoint) && tombstones.revive(sender, 0L, clock.millis())) {
+            addEndPoint(sender);
+            swimSuspects.remove(sender);
+            unsuspect(sender);
+        }
+
+        addEndPoints(message.getAlive());
+        for (Endpoint ep : message.getDead()) {
+            if (ep.equals(myEndpoint)) {
+                // someone gave up on us too early, so say otherwise
+                swimUpdates.add(myEndpoint, true);
+            } else {
+                removeEndPoint(ep);
+            }
+        }
 
-                    EndpointMessage message = bufferToEndPoints(bis);
-                    LOGGER.info("Receiving static broadcast packets {}", message);
-                    int existingSize = knownMessageSockets.size();
-                    if (message.isAdding()) {
-                        addEndPoints(message.getEndpoints());
+        switch (message.getType()) {
+            case PING:
+                sendSwim(sender, MessageType.ACK, message.getSequence(), message.getTarget());
+                break;
+
+            case PING_REQ: {
+                long sequence = probeSequence.incrementAndGet();
+                probes.put(sequence, new Probe(message.getTarget(), sender, message.getSequence()));
+                sendSwim(message.getTarget(), MessageType.PING, sequence, message.getTarget());
+                break;
+            }
+
+            case ACK: {
+                Probe probe = probes.get(message.getSequence());
+                if (probe != null) {
+                    if (probe.requester == null) {
+                        probe.acked.countDown();
                     } else {
-                        removeEndPoints(message.getEndpoints());
+                        probes.remove(message.getSequence());
+                        sendSwim(probe.requester, MessageType.ACK, probe.requesterSequence, probe.target);
                     }
+                }
+                break;
+            }
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * an outstanding ping, either one of our own probes, or one sent on behalf of a requester, whose ack needs to be relayed back
+     */
+    private static class Probe {
+        final Endpoint target;
+        final Endpoint requester;
+        final long requesterSequence;
+        final long created = System.currentTimeMillis();
+        final CountDownLatch acked = new CountDownLatch(1);
+
+        Probe(Endpoint target, Endpoint requester, long requesterSequence) {
+            this.target = target;
+            this.requester = requester;
+            this.requesterSequence = requesterSequence;
+        }
+    }
+
+    /**
+     * probes one member per probe interval, walking the membership in a random order that is reshuffled on each pass. A member that doesn't
+     * ack directly is probed indirectly through a few others, and if that fails too it is suspected, and removed unless it is heard from within
+     * the suspicion timeout.
+     */
+    class SwimProbeRunnable implements Runnable {
+        private List<Endpoint> order = Collections.emptyList();
+        private int next;
 
-                    if (existingSize != knownMessageSockets.size()) {
-                        byte[] buffer = endpointsToBuffer(knownMessageSockets.keySet(), true);
-                        os.write(buffer);
-                        os.flush();
+        @Override
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        Endpoint target = nextTarget();
+                        if (target != null) {
+                            probe(target);
+                        }
+                    } catch (IOException | RumorsException e) {
+                        LOGGER.error("Failed performing swim probe", e);
                     }
+                    expireSuspects();
+                    expireRestoredEndPoints();
+                    checkpointMembership(false);
+
+                    Thread.sleep(Math.max(0, (start + swimProbeInterval) - System.currentTimeMillis()));
+                }
+            } catch (InterruptedException e) {
+            }
+        }
+
+        private Endpoint nextTarget() {
+            if (next >= order.size()) {
+                order = new ArrayList<>(getEndpoints());
+                order.remove(myEndpoint);
+                Collections.shuffle(order, ThreadLocalRandom.current());
+                next = 0;
+            }
+
+            while (next < order.size()) {
+                Endpoint ep = order.get(next++);
+                if (knownMessageSockets.containsKey(ep)) {
+                    return ep;
+                }
+            }
+            return null;
+        }
+
+        void probe(Endpoint target) throws IOException, RumorsException, InterruptedException {
+            long sequence = probeSequence.incrementAndGet();
+            Probe probe = new Probe(target, null, 0);
+            probes.put(sequence, probe);
+            try {
+                sendSwim(target, MessageType.PING, sequence, target);
+                if (probe.acked.await(swimProbeTimeout, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+
+                List<Endpoint> relays = new ArrayList<>(getEndpoints());
+                relays.remove(myEndpoint);
+                relays.remove(target);
+                Collections.shuffle(relays, ThreadLocalRandom.current());
+                for (Endpoint relay : relays.subList(0, Math.min(swimIndirectProbes, relays.size()))) {
+                    sendSwim(relay, MessageType.PING_REQ, sequence, target);
+                }
+
+                if (!probe.acked.await(Math.max(0, swimProbeInterval - swimProbeTimeout), TimeUnit.MILLISECONDS) && suspect(target)) {
+                    LOGGER.info("Swim probe of {} failed, suspecting it", target);
+                    swimSuspects.put(target, System.currentTimeMillis() + ((long) swimRounds() * swimProbeInterval));
+                }
+            } finally {
+                probes.remove(sequence);
+            }
+        }
+
+        void expireSuspects() {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Endpoint, Long>> it = swimSuspects.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Endpoint, Long> entry = it.next();
+                if (entry.getValue() <= now) {
+                    it.remove();
+                    LOGGER.info("Swim suspect {} never answered, removing it", entry.getKey());
+                    removeEndPoint(entry.getKey());
+                }
+            }
+
+            // relayed pings whose targets never answered
+            Iterator<Probe> probeIt = probes.values().iterator();
+            while (probeIt.hasNext()) {
+                Probe probe = probeIt.next();
+                if ((probe.requester != null) && ((now - probe.created) > swimProbeInterval)) {
+                    probeIt.remove();
+                }
+            }
+        }
+    }
+
+    private class SwimReceiveRunnable implements Runnable {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[MAX_RECEIVE_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            EndpointCodec codec = new EndpointCodec();
+            SwimMessage message = new SwimMessage();
+
+            DatagramSocket socket = swimSocket;
+            while (!Thread.interrupted() && !socket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+
+                    bb.clear();
+                    bb.limit(packet.getLength());
+                    metrics.packetReceived(Channel.SWIM, packet.getLength());
+                    if (!SwimMessage.isSwim(bb)) {
+                        metrics.decodeFailed(Channel.SWIM);
+                        LOGGER.warn("Ignoring non swim datagram from {}", packet.getSocketAddress());
+                        continue;
+                    }
+                    try {
+                        message.decode(bb, codec);
+                    } catch (RumorsException e) {
+                        metrics.decodeFailed(Channel.SWIM);
+                        throw e;
+                    }
+                    processSwimMessage(message);
                 } catch (Exception e) {
-                    LOGGER.error("Failed receiving static discovery request", e);
+                    if (!socket.isClosed()) {
+                        LOGGER.error("Failed receiving swim message", e);
+                    }
                 }
             }
         }
@@ -424,20 +1054,13 @@ public class RumorsImpl implements Rumors {
         @Override
         public void run() {
 
-            long sleepTime = endpointStaleTime / 5;
+            long sleepTime = getMaintenanceInterval();
             try {
                 while (!Thread.interrupted()) {
 
                     Thread.sleep(sleepTime);
 
-                    Instant now = Instant.now();
-                    for (Map.Entry<Endpoint, Instant> entry : knownMessageSockets.entrySet()) {
-                        if (Duration.between(entry.getValue(), now).toMillis() > endpointStaleTime) {
-
-                            knownMessageSockets.remove(entry.getKey());
-                            // broadcast it?
-                        }
-                    }
+                    expireStaleEndPoints();
                 }
             } catch (InterruptedException e) {
 
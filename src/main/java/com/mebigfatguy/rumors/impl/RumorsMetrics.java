@@ -0,0 +1,413 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.MetricsListener.Shed;
+import com.mebigfatguy.rumors.RumorsMetricsMXBean;
+
+/**
+ * keeps the counters behind RumorsMetricsMXBean, and forwards every measurement on to the metrics listener, if there is one. Recording is
+ * lock free, so it can be done on the send and receive paths.
+ */
+public class RumorsMetrics implements RumorsMetricsMXBean {
+
+    static final int HISTOGRAM_BUCKETS = 16;
+
+    private final IntSupplier membershipSize;
+    private final LongAdder[] packetsSent = newAdders(Channel.values().length);
+    private final LongAdder[] bytesSent = newAdders(Channel.values().length);
+    private final LongAdder[] packetsReceived = newAdders(Channel.values().length);
+    private final LongAdder[] bytesReceived = newAdders(Channel.values().length);
+    private final LongAdder decodeFailures = new LongAdder();
+    private final LongAdder[] shed = newAdders(Shed.values().length);
+    private final Meter joins = new Meter();
+    private final Meter leaves = new Meter();
+    private final Meter expiries = new Meter();
+    private final LongAdder encodes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final AtomicLong maxEncodeNanos = new AtomicLong();
+    private final LongAdder exchangeFailures = new LongAdder();
+    // bucket i holds exchanges that took less than 2^i ms, and the last one everything slower
+    private final LongAdder[] exchangeLatencies = newAdders(HISTOGRAM_BUCKETS);
+    private final AtomicLong bootstrapNanos = new AtomicLong(-1L);
+    private volatile MetricsListener listener;
+
+    public RumorsMetrics(IntSupplier membershipSize) {
+        this.membershipSize = membershipSize;
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public void setListener(MetricsListener metricsListener) {
+        listener = metricsListener;
+    }
+
+    void packetSent(Channel channel, int bytes) {
+        packetsSent[channel.ordinal()].increment();
+        bytesSent[channel.ordinal()].add(bytes);
+        MetricsListener l = listener;
+        if (l != null) {
+            l.packetSent(channel, bytes);
+        }
+    }
+
+    void packetReceived(Channel channel, int bytes) {
+        packetsReceived[channel.ordinal()].increment();
+        bytesReceived[channel.ordinal()].add(bytes);
+        MetricsListener l = listener;
+        if (l != null) {
+            l.packetReceived(channel, bytes);
+        }
+    }
+
+    void decodeFailed(Channel channel) {
+        decodeFailures.increment();
+        MetricsListener l = listener;
+        if (l != null) {
+            l.decodeFailed(channel);
+        }
+    }
+
+    void messageShed(Channel channel, Shed reason) {
+        shed[reason.ordinal()].increment();
+        MetricsListener l = listener;
+        if (l != null) {
+            l.messageShed(channel, reason);
+        }
+    }
+
+    void endpointJoined(Endpoint ep) {
+        joins.mark();
+        MetricsListener l = listener;
+        if (l != null) {
+            l.endpointJoined(ep, membershipSize.getAsInt());
+        }
+    }
+
+    void endpointLeft(Endpoint ep) {
+        leaves.mark();
+        MetricsListener l = listener;
+        if (l != null) {
+            l.endpointLeft(ep, membershipSize.getAsInt());
+        }
+    }
+
+    void endpointExpired(Endpoint ep) {
+        expiries.mark();
+        MetricsListener l = listener;
+        if (l != null) {
+            l.endpointExpired(ep, membershipSize.getAsInt());
+        }
+    }
+
+    void messageEncoded(long nanos) {
+        encodes.increment();
+        encodeNanos.add(nanos);
+        maxEncodeNanos.accumulateAndGet(nanos, Math::max);
+        MetricsListener l = listener;
+        if (l != null) {
+            l.messageEncoded(nanos);
+        }
+    }
+
+    void staticExchanged(Endpoint peer, long nanos, boolean succeeded) {
+        if (succeeded) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = (millis == 0) ? 0 : Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            exchangeLatencies[bucket].increment();
+        } else {
+            exchangeFailures.increment();
+        }
+        MetricsListener l = listener;
+        if (l != null) {
+            l.staticExchanged(peer, nanos, succeeded);
+        }
+    }
+
+    void bootstrapStarted() {
+        bootstrapNanos.set(-1L);
+    }
+
+    /**
+     * records the time to the first complete view, if there hasn't been one since the instance began
+     */
+    void bootstrapped(long nanos) {
+        if ((bootstrapNanos.get() < 0L) && bootstrapNanos.compareAndSet(-1L, nanos)) {
+            MetricsListener l = listener;
+            if (l != null) {
+                l.bootstrapped(nanos);
+            }
+        }
+    }
+
+    @Override
+    public int getMembershipSize() {
+        return membershipSize.getAsInt();
+    }
+
+    @Override
+    public long getDynamicPacketsSent() {
+        return packetsSent[Channel.DYNAMIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getDynamicBytesSent() {
+        return bytesSent[Channel.DYNAMIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getDynamicPacketsReceived() {
+        return packetsReceived[Channel.DYNAMIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getDynamicBytesReceived() {
+        return bytesReceived[Channel.DYNAMIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getStaticPacketsSent() {
+        return packetsSent[Channel.STATIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getStaticBytesSent() {
+        return bytesSent[Channel.STATIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getStaticPacketsReceived() {
+        return packetsReceived[Channel.STATIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getStaticBytesReceived() {
+        return bytesReceived[Channel.STATIC.ordinal()].sum();
+    }
+
+    @Override
+    public long getSwimPacketsSent() {
+        return packetsSent[Channel.SWIM.ordinal()].sum();
+    }
+
+    @Override
+    public long getSwimBytesSent() {
+        return bytesSent[Channel.SWIM.ordinal()].sum();
+    }
+
+    @Override
+    public long getSwimPacketsReceived() {
+        return packetsReceived[Channel.SWIM.ordinal()].sum();
+    }
+
+    @Override
+    public long getSwimBytesReceived() {
+        return bytesReceived[Channel.SWIM.ordinal()].sum();
+    }
+
+    @Override
+    public long getDecodeFailures() {
+        return decodeFailures.sum();
+    }
+
+    @Override
+    public long getOversizedMessages() {
+        return shed[Shed.OVERSIZED.ordinal()].sum();
+    }
+
+    @Override
+    public long getRateLimitedMessages() {
+        return shed[Shed.RATE_LIMITED.ordinal()].sum();
+    }
+
+    @Override
+    public long getRefusedConnections() {
+        return shed[Shed.OVERLOADED.ordinal()].sum();
+    }
+
+    @Override
+    public long getJoins() {
+        return joins.getCount();
+    }
+
+    @Override
+    public double getJoinsPerSecond() {
+        return joins.getRate();
+    }
+
+    @Override
+    public long getLeaves() {
+        return leaves.getCount();
+    }
+
+    @Override
+    public double getLeavesPerSecond() {
+        return leaves.getRate();
+    }
+
+    @Override
+    public long getExpiries() {
+        return expiries.getCount();
+    }
+
+    @Override
+    public double getExpiriesPerSecond() {
+        return expiries.getRate();
+    }
+
+    @Override
+    public long getMessagesEncoded() {
+        return encodes.sum();
+    }
+
+    @Override
+    public long getAverageEncodeNanos() {
+        long count = encodes.sum();
+        return (count == 0) ? 0 : (encodeNanos.sum() / count);
+    }
+
+    @Override
+    public long getMaxEncodeNanos() {
+        return maxEncodeNanos.get();
+    }
+
+    @Override
+    public long getStaticExchanges() {
+        long total = exchangeFailures.sum();
+        for (LongAdder bucket : exchangeLatencies) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getStaticExchangeFailures() {
+        return exchangeFailures.sum();
+    }
+
+    @Override
+    public long[] getStaticExchangeLatencyBounds() {
+        long[] bounds = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < (HISTOGRAM_BUCKETS - 1); i++) {
+            bounds[i] = 1L << i;
+        }
+        bounds[HISTOGRAM_BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    @Override
+    public long[] getStaticExchangeLatencyHistogram() {
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            counts[i] = exchangeLatencies[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public long getStaticExchangeLatencyP50() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public long getStaticExchangeLatencyP99() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getBootstrapMillis() {
+        long nanos = bootstrapNanos.get();
+        return (nanos < 0L) ? -1L : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * returns the upper bound of the bucket the percentile falls in, or 0 if nothing has been recorded
+     */
+    long percentile(double percentile) {
+        long[] counts = getStaticExchangeLatencyHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        long[] bounds = getStaticExchangeLatencyBounds();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bounds[i];
+            }
+        }
+        return bounds[HISTOGRAM_BUCKETS - 1];
+    }
+
+    /**
+     * counts events, and keeps a one minute exponentially weighted moving average of their rate, decayed lazily as events arrive or the rate
+     * is read
+     */
+    static class Meter {
+        private static final double WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+        private final LongAdder count = new LongAdder();
+        private double rate;
+        private long lastUpdate = System.nanoTime();
+
+        void mark() {
+            count.increment();
+            synchronized (this) {
+                decay(System.nanoTime());
+                rate += 1.0 / (WINDOW_NANOS / TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        synchronized double getRate() {
+            decay(System.nanoTime());
+            return rate;
+        }
+
+        private void decay(long now) {
+            long elapsed = now - lastUpdate;
+            if (elapsed > 0) {
+                rate *= Math.exp(-elapsed / WINDOW_NANOS);
+                lastUpdate = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.Transport;
+import com.mebigfatguy.rumors.TransportHandler;
+import com.mebigfatguy.rumors.aux.Closer;
+
+/**
+ * the default transport, using the same blocking sockets as the threaded engine: a multicast socket for the group, a server socket for
+ * point2point requests, and a new connection for every exchange. The endpoint is the address of an otherwise unused server socket, as it always
+ * has been.
+ */
+public class SocketTransport implements Transport {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SocketTransport.class);
+
+    private final Endpoint broadcastEndpoint;
+    private final int staticPort;
+    private final int readTimeout;
+    private TransportHandler handler;
+    private ServerSocket messageSocket;
+    private MulticastSocket broadcastSocket;
+    private InetAddress broadcastAddress;
+    private ServerSocket staticSocket;
+    private ExecutorService servePool;
+    private Thread receiveThread;
+    private Thread acceptThread;
+    private volatile boolean open;
+    private int receiveBufferSize;
+    private AdmissionControl admission;
+
+    /**
+     * creates a transport for the given multicast group, serving point2point requests on staticPort if it is positive, and giving up on silent
+     * requesters after readTimeout milliseconds
+     */
+    public SocketTransport(Endpoint broadcastEndpoint, int staticPort, int readTimeout) {
+        this.broadcastEndpoint = broadcastEndpoint;
+        this.staticPort = staticPort;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * sets the SO_RCVBUF of the broadcast socket, in bytes, or 0 to leave it to the operating system. Must be set before open.
+     */
+    public void setReceiveBufferSize(int size) {
+        receiveBufferSize = size;
+    }
+
+    /**
+     * sets what rate limits the sources of datagrams and point2point connections, or null for no limits. Must be set before open.
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        admission = admissionControl;
+    }
+
+    @Override
+    public Endpoint open(TransportHandler transportHandler) throws IOException {
+        handler = transportHandler;
+        try {
+            messageSocket = new ServerSocket();
+            messageSocket.bind(null);
+
+            broadcastAddress = InetAddress.getByName(broadcastEndpoint.getIp());
+            broadcastSocket = new MulticastSocket(broadcastEndpoint.getPort());
+            if (receiveBufferSize > 0) {
+                broadcastSocket.setReceiveBufferSize(receiveBufferSize);
+            }
+            broadcastSocket.joinGroup(broadcastAddress);
+
+            if (staticPort > 0) {
+                staticSocket = new ServerSocket(staticPort);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        open = true;
+        receiveThread = new Thread(new ReceiveRunnable(broadcastSocket));
+        receiveThread.setName("Rumor Transport Receive");
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+
+        if (staticSocket != null) {
+            servePool = new ThreadPoolExecutor(1, AbstractRumors.MAX_STATIC_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new NamedThreadFactory("Rumor Transport Serve"));
+            acceptThread = new Thread(new AcceptRunnable());
+            acceptThread.setName("Rumor Transport Accept");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        return new Endpoint(messageSocket.getInetAddress().getHostAddress(), messageSocket.getLocalPort());
+    }
+
+    @Override
+    public void send(ByteBuffer datagram) throws IOException {
+        broadcastSocket.send(new DatagramPacket(datagram.array(), datagram.arrayOffset() + datagram.position(), datagram.remaining(),
+                broadcastAddress, broadcastEndpoint.getPort()));
+    }
+
+    /**
+     * the reply is cut off once it grows past the admission cap on point2point messages, and the whole exchange has the same deadline as on the
+     * nio transport, so that a peer trickling bytes can't hold it open forever
+     */
+    @Override
+    public byte[] exchange(Endpoint peer, byte[] request, int connectTimeout, int exchangeReadTimeout) throws IOException {
+        long deadline = System.currentTimeMillis() + connectTimeout + (2L * exchangeReadTimeout);
+        int limit = (admission == null) ? Integer.MAX_VALUE : admission.getMaxStaticMessageSize();
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(peer.getIp(), peer.getPort()), connectTimeout);
+            s.setSoTimeout(exchangeReadTimeout);
+            OutputStream os = s.getOutputStream();
+            os.write(request);
+            os.flush();
+
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            InputStream is = s.getInputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            do {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Timed out exchanging with " + peer);
+                }
+                s.setSoTimeout((int) Math.min(remaining, exchangeReadTimeout));
+                len = is.read(buffer);
+                if (len > 0) {
+                    if (len > (limit - reply.size())) {
+                        admission.oversized(Channel.STATIC);
+                        throw new IOException("Reply from " + peer + " exceeds the limit of " + limit + " bytes");
+                    }
+                    reply.write(buffer, 0, len);
+                }
+            } while (len >= 0);
+            return reply.toByteArray();
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        Closer.close(messageSocket);
+        Closer.close(staticSocket);
+        if (broadcastSocket != null) {
+            try {
+                broadcastSocket.leaveGroup(broadcastAddress);
+            } catch (IOException e) {
+            }
+            broadcastSocket.close();
+        }
+        if (servePool != null) {
+            servePool.shutdownNow();
+        }
+
+        join(receiveThread);
+        join(acceptThread);
+        messageSocket = null;
+        staticSocket = null;
+        broadcastSocket = null;
+        servePool = null;
+        receiveThread = null;
+        acceptThread = null;
+    }
+
+    private static void join(Thread t) {
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try {
+            byte[] reply = handler.requestReceived(new DataInputStream(new BufferedInputStream(s.getInputStream())));
+            if (reply != null) {
+                OutputStream os = s.getOutputStream();
+                os.write(reply);
+                os.flush();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed serving point2point request from {}", s.getRemoteSocketAddress(), e);
+        } finally {
+            Closer.close(s);
+        }
+    }
+
+    private class ReceiveRunnable implements Runnable {
+        // close clears the field, so the receiver holds on to the socket it was started with
+        private final MulticastSocket socket;
+
+        ReceiveRunnable(MulticastSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[AbstractRumors.MAX_RECEIVE_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            DatagramBatch burst = new DatagramBatch(AbstractRumors.MAX_RECEIVE_BURST);
+            while (open && !socket.isClosed()) {
+                try {
+                    burst.clear();
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    offer(packet, burst);
+
+                    // then whatever else has already arrived, until the socket is quiet for a moment. The short timeout is only set while
+                    // draining, so an idle receiver blocks without waking up
+                    socket.setSoTimeout(AbstractRumors.BURST_DRAIN_TIMEOUT);
+                    try {
+                        while (!burst.isFull()) {
+                            packet.setLength(buffer.length);
+                            socket.receive(packet);
+                            offer(packet, burst);
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // the burst is over
+                    } finally {
+                        if (!socket.isClosed()) {
+                            socket.setSoTimeout(0);
+                        }
+                    }
+
+                    if (!burst.isEmpty()) {
+                        handler.datagramsReceived(burst.getDatagrams());
+                    }
+                } catch (Exception e) {
+                    if (open) {
+                        LOGGER.error("Failed receiving datagram", e);
+                    }
+                }
+            }
+        }
+
+        private void offer(DatagramPacket packet, DatagramBatch burst) {
+            if ((admission == null) || admission.admitSource(Channel.DYNAMIC, packet.getAddress(), System.currentTimeMillis())) {
+                burst.add(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            }
+        }
+    }
+
+    private class AcceptRunnable implements Runnable {
+        @Override
+        public void run() {
+            while (open) {
+                Socket s = null;
+                try {
+                    s = staticSocket.accept();
+                    if ((admission != null) && !admission.admitSource(Channel.STATIC, s.getInetAddress(), System.currentTimeMillis())) {
+                        Closer.abort(s);
+                        continue;
+                    }
+                    s.setSoTimeout(readTimeout);
+                    Socket accepted = s;
+                    servePool.execute(() -> serve(accepted));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug("Point2point transport is overloaded, refusing connection from {}", s.getRemoteSocketAddress());
+                    if (admission != null) {
+                        admission.refused(Channel.STATIC);
+                    }
+                    Closer.abort(s);
+                } catch (Exception e) {
+                    if (open) {
+                        LOGGER.error("Failed accepting point2point request", e);
+                    }
+                    Closer.close(s);
+                }
+            }
+        }
+    }
+}
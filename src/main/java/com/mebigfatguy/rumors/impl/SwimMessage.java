@@ -0,0 +1,174 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+/**
+ * a swim probe datagram, along with the membership updates piggybacked on it. The layout is
+ *
+ * <pre>
+ * 'R' 'S' version(1) type(1) sequence(8) sender target aliveCount(1) alive... deadCount(1) dead...
+ * </pre>
+ *
+ * where the endpoints are encoded as v2 entries. The target is the endpoint being probed, or the sender itself when there is none.
+ */
+public class SwimMessage {
+
+    static final int VERSION = 1;
+    static final int MAX_UPDATES = 0xFF;
+
+    private static final byte MAGIC_0 = 'R';
+    private static final byte MAGIC_1 = 'S';
+
+    private MessageType type;
+    private long sequence;
+    private Endpoint sender;
+    private Endpoint target;
+    private final List<Endpoint> alive = new ArrayList<>();
+    private final List<Endpoint> dead = new ArrayList<>();
+
+    public SwimMessage() {
+    }
+
+    public SwimMessage(MessageType type, long sequence, Endpoint sender, Endpoint target) {
+        this.type = type;
+        this.sequence = sequence;
+        this.sender = sender;
+        this.target = target;
+    }
+
+    public static boolean isSwim(ByteBuffer buffer) {
+        int pos = buffer.position();
+        return (buffer.remaining() >= 4) && (buffer.get(pos) == MAGIC_0) && (buffer.get(pos + 1) == MAGIC_1);
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Endpoint getSender() {
+        return sender;
+    }
+
+    public Endpoint getTarget() {
+        return target;
+    }
+
+    /**
+     * endpoints the sender wants spread as members
+     */
+    public List<Endpoint> getAlive() {
+        return alive;
+    }
+
+    /**
+     * endpoints the sender wants spread as gone
+     */
+    public List<Endpoint> getDead() {
+        return dead;
+    }
+
+    /**
+     * writes the message, with as many of its updates as fit, and returns how many of the alive updates were written
+     */
+    public int encode(ByteBuffer buffer) throws RumorsException {
+        buffer.put(MAGIC_0).put(MAGIC_1).put((byte) VERSION).put((byte) type.getCode()).putLong(sequence);
+        if (!EndpointCodec.encodeEntry(buffer, sender) || !EndpointCodec.encodeEntry(buffer, target)) {
+            throw new RumorsException("Buffer too small to hold a swim message header");
+        }
+
+        int written = encodeUpdates(buffer, alive);
+        encodeUpdates(buffer, dead);
+        return written;
+    }
+
+    private static int encodeUpdates(ByteBuffer buffer, List<Endpoint> updates) throws RumorsException {
+        int countPos = buffer.position();
+        if (buffer.remaining() < 1) {
+            throw new RumorsException("Buffer too small to hold swim updates");
+        }
+        buffer.put((byte) 0);
+
+        int count = 0;
+        while ((count < updates.size()) && (count < MAX_UPDATES)) {
+            int entryStart = buffer.position();
+            if (!EndpointCodec.encodeEntry(buffer, updates.get(count))) {
+                buffer.position(entryStart);
+                break;
+            }
+            ++count;
+        }
+
+        buffer.put(countPos, (byte) count);
+        return count;
+    }
+
+    /**
+     * decodes a message from the buffer's position to its limit, replacing this message's contents
+     */
+    public void decode(ByteBuffer buffer, EndpointCodec codec) throws RumorsException {
+        try {
+            if ((buffer.get() != MAGIC_0) || (buffer.get() != MAGIC_1)) {
+                throw new RumorsException("Message is not a swim message");
+            }
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new RumorsException("Unsupported swim message version " + version);
+            }
+
+            char code = (char) (buffer.get() & 0xFF);
+            type = MessageType.fromCode(code);
+            if (type == null) {
+                throw new RumorsException("Unknown message type '" + code + "'");
+            }
+
+            sequence = buffer.getLong();
+            sender = codec.decodeEntry(buffer);
+            target = codec.decodeEntry(buffer);
+            decodeUpdates(buffer, codec, alive);
+            decodeUpdates(buffer, codec, dead);
+        } catch (BufferUnderflowException e) {
+            throw new RumorsException("Truncated swim message", e);
+        }
+    }
+
+    private static void decodeUpdates(ByteBuffer buffer, EndpointCodec codec, List<Endpoint> updates) throws RumorsException {
+        updates.clear();
+        int count = buffer.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            updates.add(codec.decodeEntry(buffer));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[type: " + type + ", sequence: " + sequence + ", sender: " + sender + ", target: " + target + ", alive: " + alive + ", dead: "
+                + dead + "]";
+    }
+}
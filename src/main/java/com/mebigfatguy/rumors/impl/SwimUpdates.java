@@ -0,0 +1,80 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * the membership updates waiting to be piggybacked on swim probes. Updates that have been sent the fewest times go first, and each update is
+ * dropped once it has been sent retransmitLimit times, which is enough for it to reach the whole cluster with high probability. A newer update
+ * about an endpoint replaces an older one.
+ */
+public class SwimUpdates {
+
+    private final Map<Endpoint, Update> updates = new LinkedHashMap<>();
+
+    public synchronized void add(Endpoint endpoint, boolean alive) {
+        updates.put(endpoint, new Update(endpoint, alive));
+    }
+
+    public synchronized int size() {
+        return updates.size();
+    }
+
+    /**
+     * adds up to max updates to the message
+     */
+    public synchronized void fill(SwimMessage message, int max, int retransmitLimit) {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        List<Update> candidates = new ArrayList<>(updates.values());
+        candidates.sort(Comparator.comparingInt(u -> u.transmits));
+        for (int i = 0; (i < candidates.size()) && (i < max); i++) {
+            Update update = candidates.get(i);
+            (update.alive ? message.getAlive() : message.getDead()).add(update.endpoint);
+            ++update.transmits;
+        }
+
+        Iterator<Update> it = updates.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().transmits >= retransmitLimit) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Update {
+        final Endpoint endpoint;
+        final boolean alive;
+        int transmits;
+
+        Update(Endpoint endpoint, boolean alive) {
+            this.endpoint = endpoint;
+            this.alive = alive;
+        }
+    }
+}
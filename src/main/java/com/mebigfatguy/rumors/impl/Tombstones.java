@@ -0,0 +1,95 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+/**
+ * endpoints that have recently left or expired, which second hand gossip isn't allowed to add back until the tombstone runs out. Only hearing
+ * from the endpoint itself brings it back early, and when the endpoint left with a known incarnation, only from a later incarnation, so that its
+ * own announces that were still in flight when it left don't count.
+ */
+public class Tombstones {
+
+    private final Map<Endpoint, Tombstone> tombstones = new ConcurrentHashMap<>();
+
+    /**
+     * buries the endpoint until the given time. An incarnation of 0 means the endpoint is brought back by any announce of its own.
+     */
+    public void bury(Endpoint ep, long incarnation, long until) {
+        tombstones.merge(ep, new Tombstone(incarnation, until),
+                (old, tombstone) -> new Tombstone(Math.max(old.incarnation, tombstone.incarnation), Math.max(old.until, tombstone.until)));
+    }
+
+    /**
+     * returns whether the endpoint has a tombstone that hasn't run out
+     */
+    public boolean isBuried(Endpoint ep, long now) {
+        if (tombstones.isEmpty()) {
+            return false;
+        }
+
+        Tombstone tombstone = tombstones.get(ep);
+        return (tombstone != null) && (tombstone.until > now);
+    }
+
+    /**
+     * returns whether an announce from the endpoint itself, from the given incarnation, or 0 if it didn't say, is enough to bring it back,
+     * dropping its tombstone if so
+     */
+    public boolean revive(Endpoint ep, long incarnation, long now) {
+        if (tombstones.isEmpty()) {
+            return true;
+        }
+
+        Tombstone tombstone = tombstones.get(ep);
+        if ((tombstone == null) || (tombstone.until <= now) || (incarnation == 0L) || (incarnation > tombstone.incarnation)) {
+            if (tombstone != null) {
+                tombstones.remove(ep, tombstone);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * drops the tombstones that have run out
+     */
+    public void purge(long now) {
+        if (!tombstones.isEmpty()) {
+            tombstones.values().removeIf(tombstone -> tombstone.until <= now);
+        }
+    }
+
+    public int size() {
+        return tombstones.size();
+    }
+
+    private static class Tombstone {
+        final long incarnation;
+        final long until;
+
+        Tombstone(long incarnation, long until) {
+            this.incarnation = incarnation;
+            this.until = until;
+        }
+    }
+}
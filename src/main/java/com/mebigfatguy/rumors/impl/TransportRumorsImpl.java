@@ -0,0 +1,371 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+import com.mebigfatguy.rumors.RumorsException;
+import com.mebigfatguy.rumors.Transport;
+import com.mebigfatguy.rumors.TransportHandler;
+
+/**
+ * an engine that leaves all of its networking to a Transport, and runs its announces, point2point exchanges and maintenance as tasks on one
+ * scheduler thread. Received traffic is handled on whatever thread the transport delivers it on. Persistent sessions and swim mode need
+ * direct access to sockets, and so are only supported by the threaded engine.
+ */
+public class TransportRumorsImpl extends AbstractRumors implements TransportHandler {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(TransportRumorsImpl.class);
+
+    private final Object sync = new Object();
+    private final Object announceSync = new Object();
+    private final Transport suppliedTransport;
+    private final Set<Endpoint> exchanging = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<EndpointCodec> codecs = ThreadLocal.withInitial(EndpointCodec::new);
+    private final ThreadLocal<EndpointMessage> v2Messages = ThreadLocal.withInitial(EndpointMessage::new);
+    private Transport transport;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService exchangePool;
+    private DeltaTracker dynamicTracker;
+    private ScheduledFuture<?> announceFuture;
+    private long scheduledAnnounce;
+    private boolean running = false;
+
+    /**
+     * creates an engine that talks over plain sockets, configured from the broadcast and static settings when it begins
+     */
+    public TransportRumorsImpl() {
+        this(null);
+    }
+
+    public TransportRumorsImpl(Transport transport) {
+        suppliedTransport = transport;
+    }
+
+    /**
+     * creates the socket transport this engine uses when none is supplied, from its broadcast and static settings
+     */
+    public Transport newSocketTransport() {
+        SocketTransport socketTransport = new SocketTransport(broadcastEndpoint, staticPort, staticReadTimeout);
+        socketTransport.setReceiveBufferSize(receiveBufferSize);
+        socketTransport.setAdmissionControl(admission);
+        return socketTransport;
+    }
+
+    @Override
+    public void begin() throws RumorsException {
+        synchronized (sync) {
+            if (!running) {
+                LOGGER.info("Beginning rumors");
+                if (persistentSessions) {
+                    LOGGER.warn("Persistent static sessions are only supported by the threaded engine, exchanging per announce instead");
+                }
+                if (swimMode) {
+                    LOGGER.warn("Swim mode is only supported by the threaded engine, announcing to the whole group instead");
+                }
+
+                transport = (suppliedTransport != null) ? suppliedTransport : newSocketTransport();
+                try {
+                    myEndpoint = transport.open(this);
+                } catch (IOException e) {
+                    throw new RumorsException("Failed opening rumors transport", e);
+                }
+
+                announceScheduler = new AnnounceScheduler(broadcastAnnounce, System.currentTimeMillis());
+                dynamicTracker = new DeltaTracker();
+                scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Rumor Scheduler"));
+                addEndPoint(myEndpoint);
+                incarnate();
+                registerMetrics();
+                restoreMembership();
+
+                synchronized (announceSync) {
+                    scheduleAnnounce();
+                }
+
+                long maintenance = getMaintenanceInterval();
+                scheduler.scheduleWithFixedDelay(this::maintain, maintenance, maintenance, TimeUnit.MILLISECONDS);
+
+                if (!staticEndpoints.isEmpty()) {
+                    exchangePool = Executors.newFixedThreadPool(Math.min(staticEndpoints.size(), MAX_STATIC_THREADS),
+                            new NamedThreadFactory("Rumor Static Exchange"));
+                    scheduler.schedule(new StaticExchangeTask(), broadcastAnnounce[0] + 100, TimeUnit.MILLISECONDS);
+                }
+                running = true;
+                startBootstrap();
+            }
+        }
+    }
+
+    @Override
+    boolean isSwimming() {
+        return false;
+    }
+
+    @Override
+    public void end() {
+        synchronized (sync) {
+            if (running) {
+                try {
+                    synchronized (announceSync) {
+                        announceFuture = null;
+                    }
+                    scheduler.shutdownNow();
+                    scheduler.awaitTermination(staticConnectTimeout + (2L * staticReadTimeout), TimeUnit.MILLISECONDS);
+                    if (exchangePool != null) {
+                        exchangePool.shutdownNow();
+                    }
+
+                    LOGGER.info("Sending dynamic broadcast leave packet {}", myEndpoint);
+                    sendLeave();
+                } catch (IOException | RumorsException e) {
+                    LOGGER.error("Failure closing down rumors", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    transport.close();
+                    closeMembershipCache();
+                    unregisterMetrics();
+                    transport = null;
+                    scheduler = null;
+                    exchangePool = null;
+                    exchanging.clear();
+                    running = false;
+                    LOGGER.info("Ending Rumors");
+                }
+            }
+        }
+    }
+
+    @Override
+    void sendDynamic(ByteBuffer message) throws IOException {
+        metrics.packetSent(Channel.DYNAMIC, message.remaining());
+        transport.send(message);
+    }
+
+    /**
+     * brings the announce task forward when a change has moved the next announce earlier than it is currently scheduled for
+     */
+    @Override
+    void membershipChanged(Endpoint ep, boolean added) {
+        super.membershipChanged(ep, added);
+        synchronized (announceSync) {
+            if ((announceFuture != null) && (announceScheduler.getNextAnnounce() < scheduledAnnounce)) {
+                announceFuture.cancel(false);
+                scheduleAnnounce();
+            }
+        }
+    }
+
+    /**
+     * must be called holding announceSync
+     */
+    private void scheduleAnnounce() {
+        scheduledAnnounce = announceScheduler.getNextAnnounce();
+        try {
+            announceFuture = scheduler.schedule(this::announce, Math.max(0, scheduledAnnounce - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            announceFuture = null;
+        }
+    }
+
+    private void announce() {
+        try {
+            announceScheduler.announced(System.currentTimeMillis());
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            List<Endpoint> sent = dynamicTracker.takeDatagram(buffer);
+            LOGGER.debug("Sending dynamic broadcast packet {}", sent);
+            sendDynamic(buffer);
+            announceMetadata(buffer);
+        } catch (Exception e) {
+            LOGGER.error("Failed performing broadcast", e);
+        } finally {
+            synchronized (announceSync) {
+                if (announceFuture != null) {
+                    scheduleAnnounce();
+                }
+            }
+        }
+    }
+
+    private void maintain() {
+        try {
+            expireStaleEndPoints();
+        } catch (Exception e) {
+            LOGGER.error("Failed expiring stale endpoints", e);
+        }
+    }
+
+    @Override
+    public void datagramReceived(ByteBuffer datagram) {
+        if (!admission.admitDatagram(datagram.remaining())) {
+            return;
+        }
+        try {
+            EndpointMessage message = receiveDatagram(datagram, codecs.get(), v2Messages.get());
+            LOGGER.debug("Receiving dynamic broadcast packet {}", message);
+            processDynamicMessage(message);
+        } catch (Exception e) {
+            LOGGER.error("Failed receiving broadcast", e);
+        }
+    }
+
+    @Override
+    public void datagramsReceived(List<ByteBuffer> datagrams) {
+        List<ByteBuffer> admitted = datagrams;
+        for (ByteBuffer datagram : datagrams) {
+            if (datagram.remaining() > admission.getMaxDatagramSize()) {
+                admitted = new ArrayList<>(datagrams.size());
+                for (ByteBuffer candidate : datagrams) {
+                    if (admission.admitDatagram(candidate.remaining())) {
+                        admitted.add(candidate);
+                    }
+                }
+                break;
+            }
+        }
+        processDynamicBurst(admitted, codecs.get(), v2Messages.get());
+    }
+
+    @Override
+    public byte[] requestReceived(DataInputStream request) throws IOException {
+        EndpointMessage message;
+        try {
+            CountingInputStream counter = new CountingInputStream(request);
+            message = receiveStatic(new DataInputStream(counter), counter);
+        } catch (RumorsException e) {
+            // let the transport see an incomplete request for what it is
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed reading point2point request", e);
+        }
+
+        LOGGER.debug("Receiving static broadcast packets {}", message);
+        try {
+            byte[] reply = processStaticRequest(message);
+            metrics.packetSent(Channel.STATIC, reply.length);
+            return reply;
+        } catch (RumorsException e) {
+            throw new IOException("Failed building point2point reply", e);
+        }
+    }
+
+    @Override
+    void bootstrapFrom(Endpoint peer, byte[] request) {
+        if (exchanging.add(peer)) {
+            Thread t = new Thread(() -> exchangeStatic(peer, request, true));
+            t.setName("Rumor Bootstrap");
+            t.setDaemon(true);
+            t.start();
+        } else {
+            bootstrapFailed(peer);
+        }
+    }
+
+    /**
+     * a supplied transport may serve exchanges at the endpoint it opened with, even without a static port, as the loopback transport does
+     */
+    @Override
+    Endpoint getStaticEndpoint() {
+        Endpoint staticEndpoint = super.getStaticEndpoint();
+        return ((staticEndpoint == null) && (suppliedTransport != null)) ? myEndpoint : staticEndpoint;
+    }
+
+    private void exchangeStatic(Endpoint ep, byte[] request, boolean bootstrap) {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            metrics.packetSent(Channel.STATIC, request.length);
+            byte[] reply = transport.exchange(ep, request, staticConnectTimeout, staticReadTimeout);
+            CountingInputStream counter = new CountingInputStream(new ByteArrayInputStream(reply));
+            EndpointMessage message = receiveStatic(new DataInputStream(counter), counter);
+            LOGGER.debug("Receiving static broadcast packet {}", message);
+            if (bootstrap) {
+                processBootstrapReply(ep, message);
+            } else {
+                processStaticReply(ep, message);
+            }
+            succeeded = true;
+        } catch (IOException | RumorsException e) {
+            LOGGER.error("Failed exchanging with static endpoint {}", ep, e);
+        } finally {
+            metrics.staticExchanged(ep, System.nanoTime() - start, succeeded);
+            if (bootstrap && !succeeded) {
+                bootstrapFailed(ep);
+            }
+            exchanging.remove(ep);
+        }
+    }
+
+    /**
+     * sends the changes to every point2point peer, following the announce delays. Exchanges run on their own pool, so a dead peer never holds
+     * up the scheduler, and a peer whose last exchange is still outstanding is skipped this round.
+     */
+    private class StaticExchangeTask implements Runnable {
+        private final DeltaTracker tracker = new DeltaTracker();
+        private int delayIndex = 0;
+
+        @Override
+        public void run() {
+            try {
+                List<Endpoint> changes = tracker.takeChanges();
+                LOGGER.debug("Sending static broadcast packets {}", changes);
+                byte[] delta = staticDelta(changes);
+                for (Endpoint ep : staticEndpoints) {
+                    if (exchanging.add(ep)) {
+                        byte[] request = staticRequest(ep, changes, delta);
+                        exchangePool.execute(() -> exchangeStatic(ep, request, false));
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Failed performing broadcast", e);
+            }
+
+            if (delayIndex < (broadcastAnnounce.length - 1)) {
+                ++delayIndex;
+            }
+            try {
+                scheduler.schedule(this, broadcastAnnounce[delayIndex] + 100, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+    }
+}
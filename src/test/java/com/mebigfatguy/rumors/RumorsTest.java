@@ -12,11 +12,20 @@ public class RumorsTest {
 
     @Test
     public void test() throws IOException, InterruptedException {
+        runClients(RumorsEngine.THREADED);
+    }
+
+    @Test
+    public void testNio() throws IOException, InterruptedException {
+        runClients(RumorsEngine.NIO);
+    }
+
+    private void runClients(RumorsEngine engine) throws InterruptedException {
 
         Thread[] threads = new Thread[NUM_THREADS];
 
         for (int i = 0; i < NUM_THREADS; i++) {
-            RumorsClient client = new RumorsClient();
+            RumorsClient client = new RumorsClient(engine);
             threads[i] = new Thread(client);
             threads[i].start();
         }
@@ -37,10 +46,16 @@ public class RumorsTest {
 
         private static Logger LOGGER = LoggerFactory.getLogger(RumorsClient.class);
 
+        private final RumorsEngine engine;
+
+        RumorsClient(RumorsEngine engine) {
+            this.engine = engine;
+        }
+
         @Override
         public void run() {
 
-            Rumors rumor = RumorsFactory.createRumors();
+            Rumors rumor = RumorsFactory.createRumors(engine);
 
             try {
                 rumor.begin();
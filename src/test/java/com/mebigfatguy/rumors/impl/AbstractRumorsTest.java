@@ -0,0 +1,496 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MembershipSnapshot;
+
+public class AbstractRumorsTest {
+
+    // the datagram buffer of instances predating paged announces
+    private static final int BASELINE_RECEIVE_SIZE = 4096;
+
+    @Test
+    public void testSnapshotOnlyChangesWithMembership() {
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.addEndPoint(new Endpoint("10.0.0.1", 1));
+
+        MembershipSnapshot first = rumors.getMembership();
+        Assert.assertEquals(1, first.size());
+        Assert.assertSame(first, rumors.getMembership());
+        Assert.assertSame(first.getEndpoints(), rumors.getEndpoints());
+
+        rumors.addEndPoint(new Endpoint("10.0.0.1", 1));
+        Assert.assertSame(first, rumors.getMembership());
+
+        rumors.addEndPoint(new Endpoint("10.0.0.2", 2));
+        MembershipSnapshot second = rumors.getMembership();
+        Assert.assertTrue(second.isChangedSince(first.getVersion()));
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+        Assert.assertEquals(2, second.size());
+        Assert.assertEquals(1, first.size());
+
+        rumors.removeEndPoint(new Endpoint("10.0.0.1", 1));
+        Assert.assertEquals(1, rumors.getMembership().size());
+        Assert.assertTrue(rumors.getMembership().getVersion() > second.getVersion());
+    }
+
+    @Test
+    public void testRacingSnapshotsHoldEverythingUpToTheirVersion() throws Exception {
+        RumorsImpl rumors = new RumorsImpl();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                rumors.addEndPoint(new Endpoint("10.1." + (i / 250) + '.' + (i % 250), 1));
+            }
+        });
+        writer.start();
+        List<MembershipSnapshot> snapshots = new ArrayList<>();
+        while (writer.isAlive()) {
+            MembershipSnapshot snapshot = rumors.getMembership();
+            if ((snapshots.size() < 500) && (snapshots.isEmpty() || (snapshots.get(snapshots.size() - 1) != snapshot))) {
+                snapshots.add(snapshot);
+            }
+        }
+        writer.join();
+
+        for (MembershipSnapshot snapshot : snapshots) {
+            Set<Endpoint> endpoints = new HashSet<>(snapshot.getEndpoints());
+            for (EndpointInfo info : rumors.knownMessageSockets.values()) {
+                if (info.getVersion() <= snapshot.getVersion()) {
+                    Assert.assertTrue(endpoints.contains(info.getEndpoint()));
+                }
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.addEndPoint(new Endpoint("10.0.0.1", 1));
+        rumors.getEndpoints().clear();
+    }
+
+    @Test
+    public void testAntiEntropyOnlySendsDifferences() throws Exception {
+        RumorsImpl client = syncNode(new Endpoint("10.0.0.1", 1));
+        RumorsImpl server = syncNode(new Endpoint("10.0.0.2", 1));
+        for (int i = 0; i < 1000; i++) {
+            Endpoint ep = new Endpoint("10.1." + (i / 250) + '.' + (i % 250), 2);
+            client.addEndPoint(ep);
+            server.addEndPoint(ep);
+        }
+        client.addEndPoint(server.myEndpoint);
+        server.addEndPoint(client.myEndpoint);
+        Endpoint onlyClient = new Endpoint("10.2.0.1", 3);
+        Endpoint onlyServer = new Endpoint("10.2.0.2", 3);
+        client.addEndPoint(onlyClient);
+        server.addEndPoint(onlyServer);
+
+        // the client's request only carries its heartbeat, so the server learns nothing new from it
+        byte[] request = client.staticRequest(server.myEndpoint, Collections.singletonList(client.myEndpoint), null);
+        byte[] reply = server.processStaticRequest(client.bufferToEndPoints(new ByteArrayInputStream(request)));
+        Assert.assertTrue(reply.length < (server.endpointsToBuffer(MessageType.JOIN, server.knownMessageSockets.keySet()).length / 10));
+
+        client.processStaticReply(server.myEndpoint, client.bufferToEndPoints(new ByteArrayInputStream(reply)));
+        Assert.assertTrue(client.getEndpoints().contains(onlyServer));
+        Assert.assertNotNull(client.owedBuckets.get(server.myEndpoint));
+
+        // the next request carries what the server was seen to be missing
+        request = client.staticRequest(server.myEndpoint, Collections.singletonList(client.myEndpoint), null);
+        reply = server.processStaticRequest(client.bufferToEndPoints(new ByteArrayInputStream(request)));
+        Assert.assertTrue(server.getEndpoints().contains(onlyClient));
+        Assert.assertEquals(client.membershipDigest.get(), server.membershipDigest.get());
+
+        client.processStaticReply(server.myEndpoint, client.bufferToEndPoints(new ByteArrayInputStream(reply)));
+        Assert.assertNull(client.owedBuckets.get(server.myEndpoint));
+    }
+
+    @Test
+    public void testLeaveOutranksOlderGossip() throws Exception {
+        RumorsImpl leaver = new RumorsImpl();
+        leaver.myEndpoint = new Endpoint("10.0.0.9", 9);
+        leaver.incarnate();
+
+        for (int version : new int[] { EndpointCodec.V1, EndpointCodec.V2 }) {
+            leaver.setWireVersion(version);
+            RumorsImpl rumors = new RumorsImpl();
+            rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+            rumors.addEndPoint(rumors.myEndpoint);
+            EndpointCodec codec = new EndpointCodec();
+
+            ByteBuffer buffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+            leaver.endpointsToDatagram(MessageType.DELTA, Collections.singletonList(leaver.myEndpoint), 0, buffer);
+            EndpointMessage stale = rumors.decodeDatagram(buffer, codec, new EndpointMessage());
+            Assert.assertEquals(leaver.incarnation, stale.getIncarnation());
+            rumors.processDynamicMessage(stale);
+            Assert.assertTrue(rumors.getEndpoints().contains(leaver.myEndpoint));
+
+            leaver.endpointsToDatagram(MessageType.LEAVE, Collections.singletonList(leaver.myEndpoint), 0, buffer);
+            rumors.processDynamicMessage(rumors.decodeDatagram(buffer, codec, new EndpointMessage()));
+            Assert.assertFalse(rumors.getEndpoints().contains(leaver.myEndpoint));
+
+            // neither someone else's full view, nor an announce sent before the leave, brings it back
+            rumors.processDynamicMessage(new EndpointMessage(true, Arrays.asList(new Endpoint("10.0.0.2", 2), leaver.myEndpoint)));
+            rumors.processDynamicMessage(stale);
+            Assert.assertFalse(rumors.getEndpoints().contains(leaver.myEndpoint));
+            Assert.assertTrue(rumors.getEndpoints().contains(new Endpoint("10.0.0.2", 2)));
+
+            // but a restart does
+            leaver.incarnate();
+            leaver.endpointsToDatagram(MessageType.DELTA, Collections.singletonList(leaver.myEndpoint), 0, buffer);
+            rumors.processDynamicMessage(rumors.decodeDatagram(buffer, codec, new EndpointMessage()));
+            Assert.assertTrue(rumors.getEndpoints().contains(leaver.myEndpoint));
+        }
+    }
+
+    @Test
+    public void testLegacyPeersOnlySeeFullViewJoins() throws Exception {
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+        rumors.setWireVersion(EndpointCodec.V2);
+        rumors.setLegacyPeers(true);
+        Set<Endpoint> members = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            Endpoint ep = new Endpoint("10.1." + (i / 250) + '.' + (i % 250), 2);
+            rumors.addEndPoint(ep);
+            members.add(ep);
+        }
+
+        AbstractRumors.DeltaTracker tracker = rumors.new DeltaTracker();
+        ByteBuffer buffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+        Set<Endpoint> announced = new HashSet<>();
+        for (int round = 0; round < 40; round++) {
+            tracker.takeDatagram(buffer);
+            byte[] datagram = new byte[buffer.remaining()];
+            buffer.get(datagram);
+            // the format that instances predating deltas read
+            Assert.assertEquals('J', ByteBuffer.wrap(datagram).getChar());
+            EndpointMessage message = rumors.bufferToEndPoints(new ByteArrayInputStream(datagram));
+            Assert.assertEquals(rumors.myEndpoint, message.getEndpoints().get(0));
+            announced.addAll(message.getEndpoints());
+        }
+        // once the changes are out, the rest of the view keeps being rotated through
+        Assert.assertTrue(announced.containsAll(members));
+
+        byte[] request = rumors.staticDelta(Collections.singletonList(rumors.myEndpoint));
+        Assert.assertEquals(MessageType.JOIN, rumors.bufferToEndPoints(new ByteArrayInputStream(request)).getType());
+    }
+
+    @Test
+    public void testLegacyWireInteropsWithBaselineInstances() throws Exception {
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) {
+            }
+        };
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+        rumors.setWireVersion(EndpointCodec.V2);
+        rumors.setLegacyPeers(true);
+        Set<Endpoint> members = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            Endpoint ep = new Endpoint("10.1." + (i / 250) + '.' + (i % 250), 2);
+            rumors.addEndPoint(ep);
+            members.add(ep);
+        }
+
+        // every page of the announce is read by a baseline instance as a join, without being truncated by its receive buffer
+        AbstractRumors.DeltaTracker tracker = rumors.new DeltaTracker();
+        ByteBuffer buffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+        Set<Endpoint> announced = new HashSet<>();
+        for (int round = 0; round < 30; round++) {
+            tracker.takeDatagram(buffer);
+            byte[] datagram = new byte[buffer.remaining()];
+            buffer.get(datagram);
+            Assert.assertTrue(datagram.length <= BASELINE_RECEIVE_SIZE);
+            announced.addAll(baselineDecode('J', datagram));
+        }
+        Assert.assertTrue(announced.containsAll(members));
+        Assert.assertFalse(baselineDecode('J', rumors.staticDelta(Collections.singletonList(rumors.myEndpoint))).isEmpty());
+
+        // and what a baseline instance sends, whether announcing, leaving or replying point2point, is understood
+        Endpoint baseline = new Endpoint("10.2.0.1", 3);
+        Endpoint heardOf = new Endpoint("10.2.0.2", 3);
+        rumors.processDynamicMessage(rumors.bufferToEndPoints(new ByteArrayInputStream(baselineEncode('J', Arrays.asList(baseline, heardOf)))));
+        Assert.assertTrue(rumors.getEndpoints().contains(baseline));
+        Assert.assertTrue(rumors.getEndpoints().contains(heardOf));
+
+        rumors.processDynamicMessage(rumors.bufferToEndPoints(new ByteArrayInputStream(baselineEncode('L', Collections.singletonList(baseline)))));
+        Assert.assertFalse(rumors.getEndpoints().contains(baseline));
+
+        Endpoint replied = new Endpoint("10.2.0.3", 3);
+        rumors.processStaticReply(rumors.bufferToEndPoints(new ByteArrayInputStream(baselineEncode('J', Collections.singletonList(replied)))));
+        Assert.assertTrue(rumors.getEndpoints().contains(replied));
+    }
+
+    @Test
+    public void testV2NodesInteropWithV1Nodes() throws Exception {
+        List<ByteBuffer> v2Sent = new ArrayList<>();
+        List<ByteBuffer> v1Sent = new ArrayList<>();
+        RumorsImpl v2 = capturingNode(new Endpoint("10.0.0.1", 1), EndpointCodec.V2, v2Sent);
+        RumorsImpl v1 = capturingNode(new Endpoint("10.0.0.2", 1), EndpointCodec.V1, v1Sent);
+        for (int i = 0; i < 200; i++) {
+            v2.addEndPoint(new Endpoint("10.1.0." + i, 2));
+            v1.addEndPoint(new Endpoint("10.2.0." + i, 2));
+        }
+
+        // each pages its whole view out in its own format, and the other merges it
+        List<ByteBuffer> v2Pages = pages(v2);
+        Assert.assertTrue(EndpointCodec.isV2(v2Pages.get(0)));
+        EndpointMessage decoded = v1.decodeDatagram(v2Pages.get(0).duplicate(), new EndpointCodec(), new EndpointMessage());
+        Assert.assertEquals(v2.membershipDigest.get(), decoded.getDigest());
+        Assert.assertEquals(201, decoded.getMemberCount());
+        v1.processDynamicBurst(v2Pages, new EndpointCodec(), new EndpointMessage());
+
+        List<ByteBuffer> v1Pages = pages(v1);
+        Assert.assertFalse(EndpointCodec.isV2(v1Pages.get(0)));
+        decoded = v2.decodeDatagram(v1Pages.get(0).duplicate(), new EndpointCodec(), new EndpointMessage());
+        Assert.assertEquals(v1.membershipDigest.get(), decoded.getDigest());
+        Assert.assertEquals(402, decoded.getMemberCount());
+        v2.processDynamicBurst(v1Pages, new EndpointCodec(), new EndpointMessage());
+
+        Assert.assertEquals(new HashSet<>(v2.getEndpoints()), new HashSet<>(v1.getEndpoints()));
+        Assert.assertEquals(402, v2.getEndpoints().size());
+        // the digest carried in either format matches, so once converged, neither asks for a full view
+        Assert.assertEquals(v2.membershipDigest.get(), v1.membershipDigest.get());
+        v2Sent.clear();
+        v1Sent.clear();
+        v1.processDynamicBurst(pages(v2), new EndpointCodec(), new EndpointMessage());
+        v2.processDynamicBurst(pages(v1), new EndpointCodec(), new EndpointMessage());
+        Assert.assertEquals(0, pulls(v1, v1Sent));
+        Assert.assertEquals(0, pulls(v2, v2Sent));
+    }
+
+    @Test
+    public void testLargeLegacyJoinsAreAdmitted() throws Exception {
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) {
+            }
+        };
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+
+        // an instance predating the size cap announces its whole view in one JOIN
+        List<Endpoint> view = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            view.add(new Endpoint("10.1." + (i / 250) + '.' + (i % 250), 2));
+        }
+        byte[] join = rumors.endpointsToBuffer(MessageType.JOIN, view);
+        Assert.assertTrue(join.length > AbstractRumors.MAX_DATAGRAM_SIZE);
+        InetAddress source = InetAddress.getByName("10.1.0.0");
+
+        Assert.assertFalse(rumors.admission.admitDatagram(source, join.length, 0L));
+        rumors.setLegacyPeers(true);
+        Assert.assertTrue(rumors.admission.admitDatagram(source, join.length, 0L));
+        rumors.processDynamicMessage(rumors.bufferToEndPoints(new ByteArrayInputStream(join)));
+        Assert.assertTrue(rumors.getEndpoints().containsAll(view));
+
+        // a configured cap still wins
+        rumors.setMaxDatagramSize(AbstractRumors.MAX_DATAGRAM_SIZE);
+        Assert.assertFalse(rumors.admission.admitDatagram(source, join.length, 0L));
+    }
+
+    @Test
+    public void testOnlyBootstrapRepliesCompleteTheView() throws Exception {
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) {
+            }
+        };
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+        rumors.startBootstrap();
+
+        RumorsImpl peer = new RumorsImpl();
+        peer.myEndpoint = new Endpoint("10.0.0.2", 2);
+        peer.addEndPoint(peer.myEndpoint);
+        peer.addEndPoint(new Endpoint("10.0.0.3", 3));
+
+        // a delta only carries what changed, so it says nothing about whether the view is complete
+        byte[] delta = peer.endpointsToBuffer(MessageType.DELTA, Collections.singletonList(peer.myEndpoint));
+        rumors.processStaticReply(peer.myEndpoint, rumors.bufferToEndPoints(new ByteArrayInputStream(delta)));
+        Assert.assertEquals(-1L, rumors.metrics.getBootstrapMillis());
+
+        byte[] full = peer.endpointsToBuffer(MessageType.JOIN, peer.knownMessageSockets.keySet());
+        rumors.processBootstrapReply(peer.myEndpoint, rumors.bufferToEndPoints(new ByteArrayInputStream(full)));
+        Assert.assertTrue(rumors.metrics.getBootstrapMillis() >= 0L);
+        Assert.assertTrue(rumors.getEndpoints().contains(new Endpoint("10.0.0.3", 3)));
+    }
+
+    @Test
+    public void testBurstComparesDigestsAfterAddingEndpoints() throws Exception {
+        List<MessageType> sent = new ArrayList<>();
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) throws IOException {
+                sent.add(MessageType.fromCode(message.duplicate().getChar()));
+            }
+        };
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+
+        RumorsImpl peer = new RumorsImpl();
+        peer.myEndpoint = new Endpoint("10.0.0.2", 2);
+        peer.addEndPoint(peer.myEndpoint);
+        peer.addEndPoint(rumors.myEndpoint);
+        peer.addEndPoint(new Endpoint("10.0.0.3", 3));
+
+        ByteBuffer datagram = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+        peer.endpointsToDatagram(MessageType.DELTA, Arrays.asList(peer.myEndpoint, new Endpoint("10.0.0.3", 3)), 0, datagram);
+        rumors.processDynamicBurst(Collections.singletonList(datagram), new EndpointCodec(), new EndpointMessage());
+
+        // the delta brought everything that was missing, so there is nothing to pull
+        Assert.assertEquals(peer.membershipDigest.get(), rumors.membershipDigest.get());
+        Assert.assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testFailedPullTakesTheNextOffer() throws Exception {
+        List<Endpoint> pulled = new ArrayList<>();
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) {
+            }
+
+            @Override
+            void bootstrapFrom(Endpoint peer, byte[] request) {
+                pulled.add(peer);
+            }
+        };
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        rumors.addEndPoint(rumors.myEndpoint);
+        rumors.startBootstrap();
+
+        Endpoint first = new Endpoint("10.0.0.2", 13533);
+        Endpoint second = new Endpoint("10.0.0.3", 13533);
+        rumors.processDynamicMessage(new EndpointMessage(MessageType.OFFER, Arrays.asList(rumors.myEndpoint, first), 0L, 0));
+        rumors.processDynamicMessage(new EndpointMessage(MessageType.OFFER, Arrays.asList(rumors.myEndpoint, second), 0L, 0));
+        Assert.assertEquals(Collections.singletonList(first), pulled);
+
+        rumors.bootstrapFailed(first);
+        rumors.processDynamicMessage(new EndpointMessage(MessageType.OFFER, Arrays.asList(rumors.myEndpoint, second), 0L, 0));
+        Assert.assertEquals(Arrays.asList(first, second), pulled);
+    }
+
+    @Test
+    public void testOffersAdvertiseARoutableAddress() throws Exception {
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.myEndpoint = new Endpoint("0.0.0.0", 1);
+        rumors.setStaticPort(13533);
+        Endpoint offered = rumors.getStaticEndpoint();
+        if (offered != null) {
+            Assert.assertNotEquals("0.0.0.0", offered.getIp());
+            Assert.assertEquals(13533, offered.getPort());
+        }
+
+        rumors.setStaticAdvertiseAddress("192.168.1.7");
+        Assert.assertEquals(new Endpoint("192.168.1.7", 13533), rumors.getStaticEndpoint());
+
+        rumors.setStaticAdvertiseAddress(null);
+        rumors.myEndpoint = new Endpoint("10.0.0.1", 1);
+        Assert.assertEquals(new Endpoint("10.0.0.1", 13533), rumors.getStaticEndpoint());
+    }
+
+    private static RumorsImpl capturingNode(Endpoint endpoint, int wireVersion, List<ByteBuffer> sent) {
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendDynamic(ByteBuffer message) {
+                ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+                copy.put(message.duplicate()).flip();
+                sent.add(copy);
+            }
+        };
+        rumors.setWireVersion(wireVersion);
+        rumors.myEndpoint = endpoint;
+        rumors.addEndPoint(endpoint);
+        return rumors;
+    }
+
+    private static int pulls(RumorsImpl rumors, List<ByteBuffer> sent) throws Exception {
+        int pulls = 0;
+        for (ByteBuffer datagram : sent) {
+            if (rumors.decodeDatagram(datagram.duplicate(), new EndpointCodec(), new EndpointMessage()).getType() == MessageType.PULL) {
+                pulls++;
+            }
+        }
+        return pulls;
+    }
+
+    /**
+     * the node's whole view, led by itself, as the DELTA datagrams it would announce it in
+     */
+    private static List<ByteBuffer> pages(RumorsImpl rumors) throws Exception {
+        List<Endpoint> view = new ArrayList<>();
+        view.add(rumors.myEndpoint);
+        for (Endpoint ep : rumors.getEndpoints()) {
+            if (!ep.equals(rumors.myEndpoint)) {
+                view.add(ep);
+            }
+        }
+
+        List<ByteBuffer> pages = new ArrayList<>();
+        int start = 0;
+        while (start < view.size()) {
+            ByteBuffer buffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+            start = rumors.endpointsToDatagram(MessageType.DELTA, view, start, buffer);
+            pages.add(buffer);
+        }
+        return pages;
+    }
+
+    /**
+     * encodes a message as instances predating the DELTA message did
+     */
+    private static byte[] baselineEncode(char action, List<Endpoint> endpoints) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeChar(action);
+        for (Endpoint ep : endpoints) {
+            dos.writeUTF(ep.getIp());
+            dos.writeInt(ep.getPort());
+        }
+        dos.writeUTF("");
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * decodes a message as instances predating the DELTA message did, which read anything but a join as a leave
+     */
+    private static List<Endpoint> baselineDecode(char expectedAction, byte[] message) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(message));
+        Assert.assertEquals(expectedAction, dis.readChar());
+        List<Endpoint> endpoints = new ArrayList<>();
+        String ip = dis.readUTF();
+        while (ip.length() > 0) {
+            endpoints.add(new Endpoint(ip, dis.readInt()));
+            ip = dis.readUTF();
+        }
+        return endpoints;
+    }
+
+    private static RumorsImpl syncNode(Endpoint endpoint) {
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.setAntiEntropy(true);
+        rumors.myEndpoint = endpoint;
+        rumors.addEndPoint(endpoint);
+        return rumors;
+    }
+}
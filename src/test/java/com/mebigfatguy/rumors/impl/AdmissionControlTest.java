@@ -0,0 +1,67 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.net.InetAddress;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void testOversizedDatagramsAreShed() throws Exception {
+        RumorsMetrics metrics = new RumorsMetrics(() -> 0);
+        AdmissionControl admission = new AdmissionControl(metrics);
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+
+        Assert.assertTrue(admission.admitDatagram(source, AbstractRumors.MAX_DATAGRAM_SIZE, 0L));
+        Assert.assertFalse(admission.admitDatagram(source, AbstractRumors.MAX_DATAGRAM_SIZE + 1, 0L));
+        Assert.assertEquals(1, metrics.getOversizedMessages());
+        Assert.assertEquals(0, metrics.getRateLimitedMessages());
+    }
+
+    @Test
+    public void testSourcesAreLimitedSeparately() throws Exception {
+        RumorsMetrics metrics = new RumorsMetrics(() -> 0);
+        AdmissionControl admission = new AdmissionControl(metrics);
+        admission.setRateLimit(10, 5);
+        InetAddress noisy = InetAddress.getByName("10.0.0.1");
+        InetAddress quiet = InetAddress.getByName("10.0.0.2");
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(admission.admitSource(Channel.DYNAMIC, noisy, 1000L));
+        }
+        Assert.assertFalse(admission.admitSource(Channel.DYNAMIC, noisy, 1000L));
+        Assert.assertFalse(admission.admitSource(Channel.STATIC, noisy, 1050L));
+        Assert.assertTrue(admission.admitSource(Channel.DYNAMIC, quiet, 1050L));
+        Assert.assertEquals(2, metrics.getRateLimitedMessages());
+
+        // a token every 100ms
+        Assert.assertTrue(admission.admitSource(Channel.DYNAMIC, noisy, 1100L));
+        Assert.assertFalse(admission.admitSource(Channel.DYNAMIC, noisy, 1100L));
+    }
+
+    @Test
+    public void testRefilledSourcesArePurged() throws Exception {
+        AdmissionControl admission = new AdmissionControl(new RumorsMetrics(() -> 0));
+        admission.setRateLimit(10, 5);
+        admission.admitSource(Channel.DYNAMIC, InetAddress.getByName("10.0.0.1"), 1000L);
+        Assert.assertEquals(1, admission.trackedSources());
+
+        admission.purge(1050L);
+        Assert.assertEquals(1, admission.trackedSources());
+        admission.purge(1100L);
+        Assert.assertEquals(0, admission.trackedSources());
+    }
+
+    @Test
+    public void testZeroRateDisablesLimit() throws Exception {
+        AdmissionControl admission = new AdmissionControl(new RumorsMetrics(() -> 0));
+        admission.setRateLimit(0, 1);
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(admission.admitSource(Channel.STATIC, source, 0L));
+        }
+    }
+}
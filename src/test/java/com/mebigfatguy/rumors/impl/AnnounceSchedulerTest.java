@@ -0,0 +1,46 @@
+package com.mebigfatguy.rumors.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AnnounceSchedulerTest {
+
+    @Test
+    public void testBacksOffWhenQuiet() {
+        AnnounceScheduler scheduler = new AnnounceScheduler(new int[] { 100, 1000, 8000 }, 0);
+        Assert.assertEquals(100, scheduler.getNextAnnounce());
+
+        long now = 100;
+        long[] expected = { 1000, 2000, 4000, 8000, 8000 };
+        for (long interval : expected) {
+            scheduler.announced(now);
+            assertJittered(interval, scheduler.getNextAnnounce() - now);
+            now = scheduler.getNextAnnounce();
+        }
+    }
+
+    @Test
+    public void testChangeBringsAnnounceForward() {
+        AnnounceScheduler scheduler = new AnnounceScheduler(new int[] { 100, 1000, 8000 }, 0);
+        long now = 100;
+        for (int i = 0; i < 5; i++) {
+            scheduler.announced(now);
+            now = scheduler.getNextAnnounce();
+        }
+
+        long changeTime = now - 5000;
+        Assert.assertTrue(scheduler.changed(changeTime));
+        assertJittered(AnnounceScheduler.MAX_DEBOUNCE, scheduler.getNextAnnounce() - changeTime);
+
+        Assert.assertFalse(scheduler.changed(changeTime + 1));
+
+        now = scheduler.getNextAnnounce();
+        scheduler.announced(now);
+        assertJittered(1000, scheduler.getNextAnnounce() - now);
+    }
+
+    private static void assertJittered(long interval, long actual) {
+        Assert.assertTrue("expected about " + interval + " but was " + actual, actual >= (long) (interval * (1.0 - AnnounceScheduler.JITTER)));
+        Assert.assertTrue("expected about " + interval + " but was " + actual, actual <= (long) (interval * (1.0 + AnnounceScheduler.JITTER)));
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.Rumors;
+import com.mebigfatguy.rumors.RumorsException;
+
+/**
+ * runs a whole cluster of rumors nodes in one thread, on a simulated clock and an in memory broadcast network with configurable latency, loss
+ * and partitions. Nodes share all of their membership logic with the real engines, but their announces and maintenance are events on the
+ * simulator's queue, so thousands of nodes cost no threads or sockets, and minutes of cluster time run in seconds. Everything random is drawn
+ * from one seeded generator, so a run with the same seed and the same calls replays exactly.
+ */
+public class ClusterSimulator {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ClusterSimulator.class);
+
+    static final String SIM_HOST = "sim";
+    static final long START_TIME = 1000000000000L;
+    static final long CHECK_INTERVAL = 10;
+
+    private final SimulatedClock clock = new SimulatedClock();
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<SimulatedNode> nodes = new ArrayList<>();
+    private final EndpointCodec codec = new EndpointCodec();
+    private final ByteBuffer announceBuffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+    private long eventSequence;
+
+    private String announceDelay;
+    private long staleTime = AbstractRumors.DEFAULT_MAINTENANCE_STALE_TIME;
+    private int wireVersion = EndpointCodec.V1;
+    private double suspectPhi = AbstractRumors.DEFAULT_SUSPECT_PHI;
+    private double deadPhi = AbstractRumors.DEFAULT_DEAD_PHI;
+    private long minLatency = 1;
+    private long maxLatency = 5;
+    private double loss = 0.0;
+
+    private long bytesSent;
+    private long datagramsSent;
+    private long datagramsDropped;
+    private long falseEvictions;
+    private long disturbedAt = START_TIME;
+    private long convergedAt = -1;
+
+    public ClusterSimulator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * sets the announce delays nodes added from now on will use, as for Rumors.setBroadcastAnnounceDelay
+     */
+    public void setAnnounceDelay(String delay) {
+        announceDelay = delay;
+    }
+
+    public void setEndpointStaleTime(long time) {
+        staleTime = time;
+    }
+
+    public void setWireVersion(int version) {
+        wireVersion = version;
+    }
+
+    public void setFailureThresholds(double suspect, double dead) {
+        suspectPhi = suspect;
+        deadPhi = dead;
+    }
+
+    /**
+     * sets the range each datagram's delivery delay is drawn from, uniformly and independently for every receiver
+     */
+    public void setLatency(long min, long max) {
+        if ((min < 0) || (max < min)) {
+            throw new IllegalArgumentException("Invalid latency range " + min + " - " + max);
+        }
+        minLatency = min;
+        maxLatency = max;
+    }
+
+    /**
+     * sets the chance that any one delivery of a datagram is lost
+     */
+    public void setLoss(double lossRate) {
+        if ((lossRate < 0.0) || (lossRate >= 1.0)) {
+            throw new IllegalArgumentException("Invalid loss rate " + lossRate);
+        }
+        loss = lossRate;
+    }
+
+    /**
+     * starts a new node now, and returns its index
+     */
+    public int addNode() {
+        SimulatedNode node = new SimulatedNode(nodes.size());
+        if (announceDelay != null) {
+            node.setBroadcastAnnounceDelay(announceDelay);
+        }
+        node.setEndpointStaleTime(staleTime);
+        node.setWireVersion(wireVersion);
+        node.setFailureThresholds(suspectPhi, deadPhi);
+        nodes.add(node);
+        node.begin();
+        disturbed();
+        return node.index;
+    }
+
+    /**
+     * starts count new nodes, spaced interval apart
+     */
+    public void addNodes(int count, long interval) {
+        for (int i = 0; i < count; i++) {
+            if ((i > 0) && (interval > 0)) {
+                runFor(interval);
+            }
+            addNode();
+        }
+    }
+
+    /**
+     * returns a node, so that its view of the membership can be inspected
+     */
+    public Rumors getNode(int index) {
+        return nodes.get(index);
+    }
+
+    /**
+     * stops a node cleanly, so that it announces that it is leaving
+     */
+    public void stop(int index) {
+        nodes.get(index).end();
+        disturbed();
+    }
+
+    /**
+     * stops a node without a word, so that the others have to notice it is gone
+     */
+    public void crash(int index) {
+        nodes.get(index).running = false;
+        disturbed();
+    }
+
+    /**
+     * cuts the given nodes off from the rest, although they can still reach each other
+     */
+    public void partition(int... indexes) {
+        for (int index : indexes) {
+            nodes.get(index).side = 1;
+        }
+        disturbed();
+    }
+
+    public void heal() {
+        for (SimulatedNode node : nodes) {
+            node.side = 0;
+        }
+        disturbed();
+    }
+
+    public long currentTimeMillis() {
+        return clock.now;
+    }
+
+    /**
+     * runs the cluster for the given amount of simulated time
+     */
+    public void runFor(long millis) {
+        run(clock.now + millis, false);
+    }
+
+    /**
+     * runs the cluster until it agrees on its membership, or the timeout passes, and returns whether it agreed
+     */
+    public boolean runUntilConverged(long timeoutMillis) {
+        return run(clock.now + timeoutMillis, true);
+    }
+
+    /**
+     * returns whether every running node knows exactly the running nodes it can reach
+     */
+    public boolean isConverged() {
+        Map<Integer, long[]> sides = new HashMap<>();
+        for (SimulatedNode node : nodes) {
+            if (node.running) {
+                long[] side = sides.computeIfAbsent(node.side, s -> new long[2]);
+                side[0] ^= AbstractRumors.digestOf(node.myEndpoint);
+                ++side[1];
+            }
+        }
+
+        for (SimulatedNode node : nodes) {
+            if (node.running) {
+                long[] side = sides.get(node.side);
+                if ((node.membershipDigest.get() != side[0]) || (node.knownMessageSockets.size() != side[1])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public SimulationReport getReport() {
+        int running = 0;
+        for (SimulatedNode node : nodes) {
+            if (node.running) {
+                ++running;
+            }
+        }
+
+        return new SimulationReport(running, clock.now - START_TIME, (convergedAt < 0) ? -1 : (convergedAt - disturbedAt), bytesSent, datagramsSent,
+                datagramsDropped, falseEvictions);
+    }
+
+    private boolean run(long until, boolean stopOnConvergence) {
+        long nextCheck = clock.now;
+        while (true) {
+            if (clock.now >= nextCheck) {
+                if ((convergedAt < 0) && isConverged()) {
+                    convergedAt = clock.now;
+                }
+                if (stopOnConvergence && (convergedAt >= 0)) {
+                    return true;
+                }
+                nextCheck = clock.now + CHECK_INTERVAL;
+            }
+
+            Event event = events.peek();
+            long next = (event == null) ? nextCheck : Math.min(event.time, nextCheck);
+            if (next > until) {
+                clock.now = until;
+                return convergedAt >= 0;
+            }
+
+            clock.now = next;
+            if ((event != null) && (event.time == next)) {
+                events.poll();
+                event.action.run();
+            }
+        }
+    }
+
+    private void disturbed() {
+        disturbedAt = clock.now;
+        convergedAt = -1;
+    }
+
+    private void schedule(long time, Runnable action) {
+        events.add(new Event(time, eventSequence++, action));
+    }
+
+    /**
+     * decodes the datagram once, and queues its delivery to every running node on the sender's side of any partition. The decoded message is
+     * shared by all of the receivers, as processing never modifies it, and receivers that drew the same latency get it in one event, in node
+     * order.
+     */
+    private void broadcast(SimulatedNode sender, ByteBuffer datagram) throws IOException {
+        bytesSent += datagram.remaining();
+        ++datagramsSent;
+
+        EndpointMessage message;
+        try {
+            message = sender.decodeDatagram(datagram, codec, new EndpointMessage());
+        } catch (RumorsException e) {
+            throw new IOException("Failed decoding simulated datagram", e);
+        }
+
+        int latencies = (int) (maxLatency - minLatency) + 1;
+        List<List<SimulatedNode>> byLatency = new ArrayList<>(latencies);
+        for (int i = 0; i < latencies; i++) {
+            byLatency.add(null);
+        }
+        for (SimulatedNode receiver : nodes) {
+            if ((receiver == sender) || !receiver.running) {
+                continue;
+            }
+            if ((receiver.side != sender.side) || ((loss > 0.0) && (random.nextDouble() < loss))) {
+                ++datagramsDropped;
+                continue;
+            }
+
+            int latency = (int) (random.nextDouble() * byLatency.size());
+            if (byLatency.get(latency) == null) {
+                byLatency.set(latency, new ArrayList<>());
+            }
+            byLatency.get(latency).add(receiver);
+        }
+
+        for (int latency = 0; latency < byLatency.size(); latency++) {
+            List<SimulatedNode> receivers = byLatency.get(latency);
+            if (receivers != null) {
+                schedule(clock.now + minLatency + latency, () -> {
+                    for (SimulatedNode receiver : receivers) {
+                        receiver.receive(message);
+                    }
+                });
+            }
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int cmp = Long.compare(time, o.time);
+            return (cmp != 0) ? cmp : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static class SimulatedClock extends Clock {
+        long now = START_TIME;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return now;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now);
+        }
+    }
+
+    /**
+     * a node whose announces and maintenance run as simulator events
+     */
+    private class SimulatedNode extends AbstractRumors {
+        final int index;
+        int side;
+        boolean running;
+        private DeltaTracker tracker;
+        private long announceAt = Long.MAX_VALUE;
+
+        SimulatedNode(int index) {
+            this.index = index;
+            setClock(ClusterSimulator.this.clock);
+        }
+
+        @Override
+        public void begin() {
+            myEndpoint = new Endpoint(SIM_HOST, index + 1);
+            incarnate();
+            announceScheduler = new AnnounceScheduler(broadcastAnnounce, clock.millis(), random);
+            tracker = new DeltaTracker();
+            addEndPoint(myEndpoint);
+            running = true;
+            scheduleAnnounce();
+            scheduleMaintenance(clock.millis() + getMaintenanceInterval());
+        }
+
+        @Override
+        public void end() {
+            if (running) {
+                sendLeave(0);
+                running = false;
+            }
+        }
+
+        @Override
+        void sendDynamic(ByteBuffer message) throws IOException {
+            broadcast(this, message);
+        }
+
+        @Override
+        void membershipChanged(Endpoint ep, boolean added) {
+            super.membershipChanged(ep, added);
+            if (running && (announceScheduler.getNextAnnounce() < announceAt)) {
+                scheduleAnnounce();
+            }
+        }
+
+        @Override
+        void expireEndPoint(Endpoint ep, EndpointInfo info) {
+            boolean known = knownMessageSockets.get(ep) == info;
+            super.expireEndPoint(ep, info);
+            if (known && (ep.getPort() > 0) && (ep.getPort() <= nodes.size())) {
+                SimulatedNode evicted = nodes.get(ep.getPort() - 1);
+                if (evicted.running && (evicted.side == side)) {
+                    ++falseEvictions;
+                }
+            }
+        }
+
+        void receive(EndpointMessage message) {
+            if (running) {
+                try {
+                    processDynamicMessage(message);
+                } catch (Exception e) {
+                    LOGGER.error("Simulated node {} failed processing {}", myEndpoint, message, e);
+                }
+            }
+        }
+
+        /**
+         * sends the leave, and schedules its retransmits, as simulator events rather than sleeps
+         */
+        private void sendLeave(int transmit) {
+            try {
+                sendDynamic(MessageType.LEAVE, Arrays.asList(myEndpoint));
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Failed sending leave for simulated node {}", myEndpoint, e);
+            }
+            if ((transmit + 1) < LEAVE_RETRANSMITS) {
+                schedule(clock.millis() + LEAVE_RETRANSMIT_INTERVAL, () -> sendLeave(transmit + 1));
+            }
+        }
+
+        private void scheduleAnnounce() {
+            long at = announceScheduler.getNextAnnounce();
+            announceAt = at;
+            schedule(at, () -> announce(at));
+        }
+
+        /**
+         * sends the announce due at the given time, unless it has since been brought forward
+         */
+        private void announce(long at) {
+            if (!running || (at != announceAt)) {
+                return;
+            }
+
+            try {
+                announceScheduler.announced(clock.millis());
+                tracker.takeDatagram(announceBuffer);
+                sendDynamic(announceBuffer);
+                announceMetadata(announceBuffer);
+            } catch (IOException | RumorsException e) {
+                LOGGER.error("Simulated node {} failed announcing", myEndpoint, e);
+            }
+            scheduleAnnounce();
+        }
+
+        private void scheduleMaintenance(long at) {
+            schedule(at, () -> {
+                if (running) {
+                    expireStaleEndPoints();
+                    scheduleMaintenance(clock.millis() + getMaintenanceInterval());
+                }
+            });
+        }
+    }
+}
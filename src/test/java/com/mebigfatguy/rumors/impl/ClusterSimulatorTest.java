@@ -0,0 +1,113 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
+import com.mebigfatguy.rumors.Rumors;
+
+public class ClusterSimulatorTest {
+
+    @Test
+    public void testLargeClusterConverges() {
+        ClusterSimulator sim = new ClusterSimulator(1);
+        sim.setLatency(1, 20);
+        sim.setLoss(0.01);
+        sim.addNodes(200, 10);
+
+        Assert.assertTrue(sim.runUntilConverged(60000));
+        SimulationReport report = sim.getReport();
+        Assert.assertEquals(200, report.getNodes());
+        Assert.assertEquals(0, report.getFalseEvictions());
+        Assert.assertTrue(report.getBytesPerNodePerSecond() > 0.0);
+    }
+
+    @Test
+    public void testCrashedNodeIsEvicted() {
+        ClusterSimulator sim = new ClusterSimulator(2);
+        sim.setAnnounceDelay("100,500,1000,2000");
+        // full view pulls can gossip an expired endpoint back in, and then only the stale time gets rid of it
+        sim.setEndpointStaleTime(15000);
+        sim.addNodes(20, 5);
+        Assert.assertTrue(sim.runUntilConverged(10000));
+        // let the failure detectors learn the announce intervals
+        sim.runFor(20000);
+
+        sim.crash(7);
+        Assert.assertTrue(sim.runUntilConverged(120000));
+        Assert.assertEquals(19, sim.getNode(0).getEndpoints().size());
+        Assert.assertFalse(sim.getNode(0).getEndpoints().contains(new Endpoint(ClusterSimulator.SIM_HOST, 8)));
+        Assert.assertEquals(0, sim.getReport().getFalseEvictions());
+    }
+
+    @Test
+    public void testPartitionHeals() {
+        ClusterSimulator sim = new ClusterSimulator(3);
+        sim.setAnnounceDelay("100,500,1000,2000");
+        sim.addNodes(20, 5);
+        Assert.assertTrue(sim.runUntilConverged(10000));
+        sim.runFor(20000);
+
+        sim.partition(0, 1, 2, 3, 4);
+        Assert.assertTrue(sim.runUntilConverged(60000));
+        Assert.assertEquals(5, sim.getNode(0).getEndpoints().size());
+        Assert.assertEquals(15, sim.getNode(10).getEndpoints().size());
+
+        sim.heal();
+        Assert.assertTrue(sim.runUntilConverged(60000));
+        Assert.assertEquals(20, sim.getNode(0).getEndpoints().size());
+    }
+
+    @Test
+    public void testMetadataSpreads() {
+        ClusterSimulator sim = new ClusterSimulator(5);
+        sim.setAnnounceDelay("100,500,1000,2000");
+        sim.addNodes(10, 5);
+        for (int i = 0; i < 10; i++) {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put("service", ((i % 2) == 0) ? "orders" : "billing");
+            metadata.put(EndpointMetadata.LOAD, String.valueOf(i));
+            sim.getNode(i).setMetadata(metadata);
+        }
+        sim.runFor(5000);
+
+        Rumors node = sim.getNode(3);
+        List<Endpoint> orders = node.selectByTag("service", "orders");
+        Assert.assertEquals(5, orders.size());
+        for (Endpoint ep : orders) {
+            Assert.assertEquals("orders", node.getMetadata(ep).get("service"));
+        }
+
+        // with only two candidates, the less loaded one always wins
+        Map<String, String> busy = new HashMap<>();
+        busy.put("service", "payments");
+        busy.put(EndpointMetadata.LOAD, "0.9");
+        sim.getNode(1).setMetadata(busy);
+        sim.getNode(9).setMetadata(Collections.singletonMap("service", "payments"));
+        sim.runFor(5000);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(new Endpoint(ClusterSimulator.SIM_HOST, 10), node.selectLeastLoaded("service", "payments"));
+        }
+        Assert.assertEquals(3, node.selectByTag("service", "billing").size());
+    }
+
+    @Test
+    public void testSameSeedReplaysExactly() {
+        Assert.assertEquals(simulate(4), simulate(4));
+    }
+
+    private static String simulate(long seed) {
+        ClusterSimulator sim = new ClusterSimulator(seed);
+        sim.setLatency(1, 50);
+        sim.setLoss(0.05);
+        sim.addNodes(50, 3);
+        sim.runFor(20000);
+        return sim.getReport().toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+public class CompactEndpointMapTest {
+
+    @Test
+    public void testMatchesHashMap() {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            endpoints.add(new Endpoint("10.0." + (i % 7) + "." + (i % 13), 13531 + (i % 40)));
+        }
+        endpoints.add(new Endpoint("fe80::1", 13531));
+        endpoints.add(new Endpoint("node.example.com", 13531));
+        endpoints.add(new Endpoint("010.0.0.1", 13531));
+
+        CompactEndpointMap compact = new CompactEndpointMap();
+        Map<Endpoint, EndpointInfo> expected = new HashMap<>();
+        Random random = new Random(17);
+        for (int op = 0; op < 20000; op++) {
+            Endpoint ep = endpoints.get(random.nextInt(endpoints.size()));
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(ep), compact.remove(ep));
+            } else {
+                EndpointInfo info = new EndpointInfo(ep, op, 0L);
+                Assert.assertEquals(expected.putIfAbsent(ep, info), compact.putIfAbsent(ep, info));
+            }
+            Assert.assertEquals(expected.size(), compact.size());
+        }
+
+        for (Endpoint ep : endpoints) {
+            Assert.assertSame(expected.get(ep), compact.get(ep));
+        }
+        Assert.assertEquals(expected.keySet(), new HashSet<>(compact.keySet()));
+        Assert.assertEquals(expected, compact);
+    }
+
+    @Test
+    public void testNonCanonicalIpsAreDistinct() {
+        CompactEndpointMap compact = new CompactEndpointMap();
+        Endpoint canonical = new Endpoint("10.0.0.1", 80);
+        Endpoint padded = new Endpoint("10.0.0.01", 80);
+        Assert.assertNotEquals(0L, CompactEndpointMap.keyOf(canonical));
+        Assert.assertEquals(0L, CompactEndpointMap.keyOf(padded));
+
+        compact.put(canonical, new EndpointInfo(canonical, 1, 0L));
+        Assert.assertNull(compact.get(padded));
+        compact.put(padded, new EndpointInfo(padded, 2, 0L));
+        Assert.assertEquals(2, compact.size());
+        Assert.assertEquals(1, compact.get(canonical).getVersion());
+    }
+
+    @Test
+    public void testRemoveOnlyMatchingValue() {
+        CompactEndpointMap compact = new CompactEndpointMap();
+        Endpoint ep = new Endpoint("192.168.1.20", 13531);
+        EndpointInfo first = new EndpointInfo(ep, 1, 0L);
+        compact.put(ep, first);
+
+        Assert.assertFalse(compact.remove(ep, new EndpointInfo(ep, 2, 0L)));
+        Assert.assertTrue(compact.containsKey(ep));
+        Assert.assertTrue(compact.remove(ep, first));
+        Assert.assertTrue(compact.isEmpty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        CompactEndpointMap compact = new CompactEndpointMap();
+        for (int port = 1; port <= 100; port++) {
+            Endpoint ep = new Endpoint("172.16.0.1", port);
+            compact.put(ep, new EndpointInfo(ep, port, 0L));
+        }
+
+        Iterator<Endpoint> it = compact.keySet().iterator();
+        while (it.hasNext()) {
+            if ((it.next().getPort() % 2) == 0) {
+                it.remove();
+            }
+        }
+
+        Assert.assertEquals(50, compact.size());
+        for (int port = 1; port <= 100; port++) {
+            Assert.assertEquals((port % 2) != 0, compact.containsKey(new Endpoint("172.16.0.1", port)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfoMustMatchEndpoint() {
+        CompactEndpointMap compact = new CompactEndpointMap();
+        compact.put(new Endpoint("10.0.0.1", 1), new EndpointInfo(new Endpoint("10.0.0.2", 1), 1, 0L));
+    }
+}
@@ -0,0 +1,53 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatagramBatchTest {
+
+    @Test
+    public void testDuplicatesAreDropped() {
+        DatagramBatch batch = new DatagramBatch(4);
+        ByteBuffer receive = ByteBuffer.allocate(64);
+
+        for (String payload : new String[] { "alpha", "beta", "alpha", "beta", "gamma" }) {
+            receive.clear();
+            receive.put(payload.getBytes(StandardCharsets.UTF_8));
+            receive.flip();
+            batch.add(receive);
+        }
+
+        Assert.assertEquals(2, batch.getDuplicates());
+        List<ByteBuffer> datagrams = batch.getDatagrams();
+        Assert.assertEquals(3, datagrams.size());
+        Assert.assertEquals("alpha", StandardCharsets.UTF_8.decode(datagrams.get(0)).toString());
+        Assert.assertEquals("beta", StandardCharsets.UTF_8.decode(datagrams.get(1)).toString());
+        Assert.assertEquals("gamma", StandardCharsets.UTF_8.decode(datagrams.get(2)).toString());
+        Assert.assertEquals("alpha", StandardCharsets.UTF_8.decode(datagrams.get(0)).toString());
+    }
+
+    @Test
+    public void testFillAndClear() {
+        DatagramBatch batch = new DatagramBatch(2);
+        Assert.assertTrue(batch.isEmpty());
+        Assert.assertTrue(batch.add(ByteBuffer.wrap(new byte[] { 1 })));
+        Assert.assertTrue(batch.add(ByteBuffer.wrap(new byte[] { 2 })));
+        Assert.assertTrue(batch.isFull());
+
+        batch.clear();
+        Assert.assertTrue(batch.isEmpty());
+        Assert.assertEquals(0, batch.getDatagrams().size());
+        Assert.assertTrue(batch.add(ByteBuffer.wrap(new byte[] { 1 })));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddToFullBatch() {
+        DatagramBatch batch = new DatagramBatch(1);
+        batch.add(ByteBuffer.wrap(new byte[] { 1 }));
+        batch.add(ByteBuffer.wrap(new byte[] { 2 }));
+    }
+}
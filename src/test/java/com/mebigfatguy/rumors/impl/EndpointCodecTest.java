@@ -0,0 +1,107 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointMetadata;
+import com.mebigfatguy.rumors.RumorsException;
+
+public class EndpointCodecTest {
+
+    @Test
+    public void testRoundTrip() throws RumorsException {
+        List<Endpoint> endpoints = Arrays.asList(new Endpoint("192.168.1.100", 13533), new Endpoint("0.0.0.0", 65535), new Endpoint("::1", 80),
+                new Endpoint("localhost", 1234));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1400);
+        int next = EndpointCodec.encode(buffer, MessageType.DELTA, 0x1234567890L, 42, endpoints, 0);
+        Assert.assertEquals(endpoints.size(), next);
+        buffer.flip();
+
+        Assert.assertTrue(EndpointCodec.isV2(buffer));
+        EndpointMessage message = new EndpointMessage();
+        new EndpointCodec().decode(buffer, message);
+
+        Assert.assertEquals(MessageType.DELTA, message.getType());
+        Assert.assertEquals(0x1234567890L, message.getDigest());
+        Assert.assertEquals(42, message.getMemberCount());
+        Assert.assertEquals(new Endpoint("192.168.1.100", 13533), message.getEndpoints().get(0));
+        Assert.assertEquals(new Endpoint("0.0.0.0", 65535), message.getEndpoints().get(1));
+        Assert.assertEquals(80, message.getEndpoints().get(2).getPort());
+        Assert.assertEquals(new Endpoint("localhost", 1234), message.getEndpoints().get(3));
+    }
+
+    @Test
+    public void testMetadataRoundTrip() throws RumorsException {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("service", "orders");
+        values.put("zone", "eu-west-1a");
+        values.put(EndpointMetadata.LOAD, "0.75");
+        EndpointMetadata metadata = new EndpointMetadata(new Endpoint("10.0.0.7", 13531), 1234567L, values);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1400);
+        EndpointCodec.encodeMetadata(buffer, metadata);
+        buffer.flip();
+
+        EndpointMessage message = new EndpointMessage();
+        new EndpointCodec().decode(buffer, message);
+        Assert.assertEquals(MessageType.METADATA, message.getType());
+        Assert.assertTrue(message.getEndpoints().isEmpty());
+        Assert.assertEquals(Collections.singletonList(metadata), message.getMetadata());
+        Assert.assertEquals(0.75, message.getMetadata().get(0).getLoad(), 0.0);
+    }
+
+    @Test
+    public void testPaging() throws RumorsException {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            endpoints.add(new Endpoint("10.0." + (i / 256) + "." + (i % 256), 13531));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        EndpointCodec codec = new EndpointCodec();
+        EndpointMessage message = new EndpointMessage();
+        List<Endpoint> decoded = new ArrayList<>();
+        int start = 0;
+        while (start < endpoints.size()) {
+            buffer.clear();
+            start = EndpointCodec.encode(buffer, MessageType.JOIN, 0L, 0, endpoints, start);
+            buffer.flip();
+            codec.decode(buffer, message);
+            decoded.addAll(message.getEndpoints());
+        }
+
+        Assert.assertEquals(endpoints, decoded);
+    }
+
+    @Test
+    public void testNonCanonicalLiteralsRoundTrip() throws RumorsException {
+        List<Endpoint> endpoints = Arrays.asList(new Endpoint("010.0.0.1", 1), new Endpoint("::ffff:10.0.0.1", 2), new Endpoint("fe80::1%1", 3),
+                new Endpoint("::1", 4), new Endpoint("0:0:0:0:0:0:0:1", 5));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1400);
+        EndpointCodec.encode(buffer, MessageType.JOIN, 0L, 0, endpoints, 0);
+        buffer.flip();
+        EndpointMessage message = new EndpointMessage();
+        new EndpointCodec().decode(buffer, message);
+
+        Assert.assertEquals(endpoints, message.getEndpoints());
+    }
+
+    @Test
+    public void testParseIPv4() {
+        Assert.assertEquals(0xC0A80164L, EndpointCodec.parseIPv4("192.168.1.100"));
+        Assert.assertEquals(-1L, EndpointCodec.parseIPv4("192.168.1"));
+        Assert.assertEquals(-1L, EndpointCodec.parseIPv4("192.168.1.256"));
+        Assert.assertEquals(-1L, EndpointCodec.parseIPv4("::1"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+public class ExpiryWheelTest {
+
+    @Test
+    public void testOnlyDueEntriesAreReturned() {
+        long start = System.currentTimeMillis();
+        ExpiryWheel wheel = new ExpiryWheel(10, 1000);
+
+        EndpointInfo early = new EndpointInfo(new Endpoint("10.0.0.1", 1), 1);
+        EndpointInfo late = new EndpointInfo(new Endpoint("10.0.0.2", 2), 2);
+        wheel.schedule(early, start + 100);
+        wheel.schedule(late, start + 500);
+
+        Assert.assertTrue(wheel.advance(start + 50).isEmpty());
+
+        List<EndpointInfo> due = wheel.advance(start + 200);
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(early, due.get(0));
+
+        due = wheel.advance(start + 600);
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(late, due.get(0));
+
+        Assert.assertTrue(wheel.advance(start + 5000).isEmpty());
+    }
+
+    @Test
+    public void testEntryDueLaterInTheCurrentTick() {
+        long start = 1000000;
+        ExpiryWheel wheel = new ExpiryWheel(1000, 10000, start);
+
+        EndpointInfo info = new EndpointInfo(new Endpoint("10.0.0.1", 1), 1, start);
+        wheel.schedule(info, start + 1800);
+
+        Assert.assertTrue(wheel.advance(start + 1500).isEmpty());
+        Assert.assertTrue(wheel.advance(start + 1700).isEmpty());
+        List<EndpointInfo> due = wheel.advance(start + 2500);
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(info, due.get(0));
+    }
+
+    @Test
+    public void testLongStallCatchesUp() {
+        long start = System.currentTimeMillis();
+        ExpiryWheel wheel = new ExpiryWheel(10, 100);
+
+        for (int i = 0; i < 50; i++) {
+            wheel.schedule(new EndpointInfo(new Endpoint("10.0.0." + i, i), i), start + (i * 2));
+        }
+
+        Assert.assertEquals(50, wheel.advance(start + 100000).size());
+    }
+}
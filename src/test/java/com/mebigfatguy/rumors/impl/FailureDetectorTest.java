@@ -0,0 +1,46 @@
+package com.mebigfatguy.rumors.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FailureDetectorTest {
+
+    @Test
+    public void testPhiGrowsWhenOverdue() {
+        FailureDetector detector = new FailureDetector();
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 1000 + ((i % 3) * 50);
+            detector.heartbeat(now);
+        }
+
+        Assert.assertTrue(detector.isReady());
+        Assert.assertTrue(detector.phi(now + 1000) < 1.0);
+        Assert.assertTrue(detector.phi(now + 5000) > 10.0);
+        Assert.assertTrue(detector.phi(now + 2000) < detector.phi(now + 3000));
+    }
+
+    @Test
+    public void testTimeAtMatchesPhi() {
+        FailureDetector detector = new FailureDetector();
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            now += 1000;
+            detector.heartbeat(now);
+        }
+
+        long deadline = detector.timeAt(FailureDetector.scoreFor(8.0));
+        Assert.assertTrue(deadline > now + 1000);
+        Assert.assertTrue(detector.phi(deadline - 10) < 8.0);
+        Assert.assertTrue(detector.phi(deadline + 10) >= 8.0);
+    }
+
+    @Test
+    public void testNotReadyWithoutHistory() {
+        FailureDetector detector = new FailureDetector();
+        detector.heartbeat(1000);
+        Assert.assertFalse(detector.isReady());
+        Assert.assertEquals(0.0, detector.phi(100000), 0.0);
+        Assert.assertEquals(Long.MAX_VALUE, detector.timeAt(FailureDetector.scoreFor(8.0)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+public class GroupTransportTest {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final List<TransportRumorsImpl> nodes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (TransportRumorsImpl node : nodes) {
+            node.end();
+        }
+    }
+
+    @Test
+    public void testGroupsHaveSeparateMemberships() throws Exception {
+        GroupTransport first = new GroupTransport(new LoopbackTransport(network));
+        GroupTransport second = new GroupTransport(new LoopbackTransport(network));
+        GroupTransport third = new GroupTransport(new LoopbackTransport(network));
+
+        TransportRumorsImpl firstA = startNode(first, "a");
+        TransportRumorsImpl firstB = startNode(first, "b");
+        TransportRumorsImpl secondA = startNode(second, "a");
+        TransportRumorsImpl secondB = startNode(second, "b");
+        TransportRumorsImpl thirdA = startNode(third, "a");
+
+        Assert.assertEquals(firstA.myEndpoint, firstB.myEndpoint);
+
+        awaitSize(firstA, 3);
+        awaitSize(secondA, 3);
+        awaitSize(thirdA, 3);
+        awaitSize(firstB, 2);
+        awaitSize(secondB, 2);
+        Assert.assertFalse(firstB.getEndpoints().contains(thirdA.myEndpoint));
+
+        // the third node never opened group b, so it drops that traffic unread, once group b next announces
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((third.getDroppedDatagrams() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(third.getDroppedDatagrams() > 0);
+        Assert.assertEquals(0, firstA.getMetrics().getDecodeFailures());
+    }
+
+    @Test
+    public void testTransportClosesWithLastGroup() throws Exception {
+        GroupTransport shared = new GroupTransport(new LoopbackTransport(network));
+        TransportRumorsImpl a = startNode(shared, "a");
+        TransportRumorsImpl b = startNode(shared, "b");
+        Endpoint endpoint = a.myEndpoint;
+
+        nodes.remove(a);
+        a.end();
+        TransportRumorsImpl c = startNode(shared, "c");
+        Assert.assertEquals(endpoint, c.myEndpoint);
+        Assert.assertNotNull(network.find(endpoint));
+
+        nodes.clear();
+        b.end();
+        Assert.assertNotNull(network.find(endpoint));
+        c.end();
+        Assert.assertNull(network.find(endpoint));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyGroupName() {
+        new GroupTransport(new LoopbackTransport(network)).getGroup("");
+    }
+
+    private TransportRumorsImpl startNode(GroupTransport groupTransport, String group) throws RumorsException {
+        TransportRumorsImpl node = new TransportRumorsImpl(groupTransport.getGroup(group));
+        node.setGroupName(group);
+        node.setBroadcastAnnounceDelay("50,100,200");
+        node.begin();
+        nodes.add(node);
+        return node;
+    }
+
+    private static void awaitSize(TransportRumorsImpl node, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((node.getEndpoints().size() != size) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(size, node.getEndpoints().size());
+    }
+}
@@ -0,0 +1,95 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointState;
+
+public class MembershipCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("rumors.cache");
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            endpoints.add(new Endpoint("10.1." + (i / 250) + "." + (i % 250), 13531 + i));
+        }
+        endpoints.add(new Endpoint("fe80:0:0:0:0:0:0:1", 80));
+        endpoints.add(new Endpoint("node.example.com", 8080));
+
+        MembershipCache cache = new MembershipCache(path);
+        cache.save(Arrays.asList(new Endpoint("10.0.0.1", 1)), 1000L);
+        cache.save(endpoints, 2000L);
+        cache.close();
+
+        MembershipCache reopened = new MembershipCache(path);
+        Assert.assertEquals(endpoints, reopened.load(2000L));
+        Assert.assertTrue(reopened.load(2001L).isEmpty());
+        Assert.assertTrue(new MembershipCache(folder.getRoot().toPath().resolve("missing")).load(0L).isEmpty());
+    }
+
+    @Test
+    public void testDamagedCacheIsIgnored() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("rumors.cache");
+        MembershipCache cache = new MembershipCache(path);
+        cache.save(Arrays.asList(new Endpoint("10.0.0.1", 1), new Endpoint("10.0.0.2", 2)), 1000L);
+        cache.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.seek(30);
+            raf.write(0xFF);
+        }
+        Assert.assertTrue(new MembershipCache(path).load(0L).isEmpty());
+    }
+
+    @Test
+    public void testRestoredEndpointsAreSuspectUntilHeardFrom() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("rumors.cache");
+        Endpoint alive = new Endpoint("10.0.0.1", 1);
+        Endpoint gone = new Endpoint("10.0.0.2", 2);
+
+        RumorsImpl before = new RumorsImpl();
+        before.setMembershipCache(path);
+        before.myEndpoint = new Endpoint("10.0.0.9", 9);
+        before.addEndPoint(before.myEndpoint);
+        before.addEndPoint(alive);
+        before.addEndPoint(gone);
+        before.closeMembershipCache();
+
+        RumorsImpl after = new RumorsImpl();
+        after.setMembershipCache(path);
+        after.setClock(Clock.fixed(Instant.now(), ZoneOffset.UTC));
+        after.myEndpoint = new Endpoint("10.0.0.9", 10);
+        after.addEndPoint(after.myEndpoint);
+        after.restoreMembership();
+
+        Assert.assertEquals(3, after.getEndpoints().size());
+        Assert.assertEquals(EndpointState.SUSPECT, after.getEndpointState(alive));
+
+        after.addEndPoint(alive);
+        Assert.assertEquals(EndpointState.ALIVE, after.getEndpointState(alive));
+        Assert.assertFalse(after.changesSince(0).contains(gone));
+
+        after.setClock(Clock.offset(after.clock, Duration.ofMinutes(3)));
+        after.expireRestoredEndPoints();
+        Assert.assertEquals(EndpointState.DEAD, after.getEndpointState(gone));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(after.myEndpoint, alive)), new HashSet<>(after.getEndpoints()));
+    }
+}
@@ -0,0 +1,61 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.EndpointState;
+
+public class MembershipDispatcherTest {
+
+    @Test
+    public void testEventsAreDeliveredInOrder() throws InterruptedException {
+        MembershipDispatcher dispatcher = new MembershipDispatcher();
+        List<EndpointState> states = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        dispatcher.addListener((endpoint, state) -> {
+            throw new IllegalStateException("listener failure");
+        });
+        dispatcher.addListener((endpoint, state) -> {
+            states.add(state);
+            latch.countDown();
+        });
+
+        Endpoint ep = new Endpoint("10.0.0.1", 1);
+        dispatcher.fire(ep, EndpointState.ALIVE);
+        dispatcher.fire(ep, EndpointState.SUSPECT);
+        dispatcher.fire(ep, EndpointState.DEAD);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, states.size());
+        Assert.assertEquals(EndpointState.ALIVE, states.get(0));
+        Assert.assertEquals(EndpointState.SUSPECT, states.get(1));
+        Assert.assertEquals(EndpointState.DEAD, states.get(2));
+    }
+
+    @Test
+    public void testSlowListenerDropsRatherThanBlocks() throws InterruptedException {
+        MembershipDispatcher dispatcher = new MembershipDispatcher();
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.addListener((endpoint, state) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+        });
+
+        Endpoint ep = new Endpoint("10.0.0.1", 1);
+        for (int i = 0; i < MembershipDispatcher.MAX_PENDING_EVENTS + 10; i++) {
+            dispatcher.fire(ep, EndpointState.ALIVE);
+        }
+        release.countDown();
+
+        Assert.assertTrue(dispatcher.getDroppedEvents() > 0);
+    }
+}
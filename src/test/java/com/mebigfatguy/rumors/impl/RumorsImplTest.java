@@ -0,0 +1,212 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+public class RumorsImplTest {
+
+    private final List<RumorsImpl> nodes = new CopyOnWriteArrayList<>();
+    private ServerSocket peerSocket;
+    private Thread peerThread;
+
+    @After
+    public void tearDown() throws Exception {
+        for (RumorsImpl node : nodes) {
+            node.end();
+        }
+        if (peerSocket != null) {
+            peerSocket.close();
+            peerThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testPeersThatCloseSessionsAreExchangedWithOneShot() throws Exception {
+        // a peer that, like engines without sessions, answers every request and closes
+        List<MessageType> requests = new CopyOnWriteArrayList<>();
+        Endpoint peerMember = new Endpoint("10.9.9.9", 9);
+        RumorsImpl codec = new RumorsImpl();
+        byte[] reply = codec.endpointsToBuffer(MessageType.JOIN, Collections.singletonList(peerMember));
+        peerSocket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        peerThread = new Thread(() -> {
+            while (!peerSocket.isClosed()) {
+                try (Socket s = peerSocket.accept()) {
+                    requests.add(codec.bufferToEndPoints(new DataInputStream(s.getInputStream())).getType());
+                    s.getOutputStream().write(reply);
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        });
+        peerThread.start();
+
+        RumorsImpl rumors = new RumorsImpl();
+        rumors.setBroadcastEndpoint(new Endpoint(AbstractRumors.DEFAULT_BROADCAST_IP, 23533));
+        rumors.setBroadcastAnnounceDelay("100,200");
+        rumors.setPersistentSessions(true);
+        Endpoint peer = new Endpoint(peerSocket.getInetAddress().getHostAddress(), peerSocket.getLocalPort());
+        rumors.setPoint2PointEndpoints(Collections.singletonList(peer));
+        nodes.add(rumors);
+        rumors.begin();
+
+        // after the bootstrap pull, the session is tried once, and then the peer is exchanged with one-shot, rather than the session retried
+        long deadline = System.currentTimeMillis() + 10000;
+        while (((requests.lastIndexOf(MessageType.SESSION) < 0) || (requests.lastIndexOf(MessageType.SESSION) > (requests.size() - 3)))
+                && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(1, Collections.frequency(requests, MessageType.SESSION));
+        Assert.assertTrue(requests.toString(), requests.indexOf(MessageType.SESSION) < (requests.size() - 2));
+        Assert.assertTrue(rumors.getEndpoints().contains(peerMember));
+    }
+
+    @Test
+    public void testUnansweredProbeIsSuspectedThenRemoved() throws Exception {
+        List<SentSwim> sent = new CopyOnWriteArrayList<>();
+        RumorsImpl rumors = swimNode(new Endpoint("10.0.0.1", 1), sent);
+        Endpoint target = new Endpoint("10.0.0.2", 1);
+        Endpoint firstRelay = new Endpoint("10.0.0.3", 1);
+        Endpoint secondRelay = new Endpoint("10.0.0.4", 1);
+        rumors.addEndPoints(Arrays.asList(target, firstRelay, secondRelay));
+
+        RumorsImpl.SwimProbeRunnable prober = rumors.new SwimProbeRunnable();
+        prober.probe(target);
+
+        // a direct ping, and once that times out, every other member is asked to ping on our behalf
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals(MessageType.PING, sent.get(0).message.getType());
+        Assert.assertEquals(target, sent.get(0).to);
+        long sequence = sent.get(0).message.getSequence();
+        Set<Endpoint> relays = new HashSet<>();
+        for (SentSwim request : sent.subList(1, 3)) {
+            Assert.assertEquals(MessageType.PING_REQ, request.message.getType());
+            Assert.assertEquals(target, request.message.getTarget());
+            Assert.assertEquals(sequence, request.message.getSequence());
+            relays.add(request.to);
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(firstRelay, secondRelay)), relays);
+
+        // nobody acked, so the target is suspected, but still a member until its suspicion runs out
+        Assert.assertTrue(rumors.knownMessageSockets.get(target).isSuspected());
+        prober.expireSuspects();
+        Assert.assertTrue(rumors.getEndpoints().contains(target));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rumors.getEndpoints().contains(target) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+            prober.expireSuspects();
+        }
+        Assert.assertFalse(rumors.getEndpoints().contains(target));
+
+        // and its death is piggybacked on the next probe
+        sent.clear();
+        prober.probe(firstRelay);
+        Assert.assertTrue(sent.get(0).message.getDead().contains(target));
+    }
+
+    @Test
+    public void testIndirectAckClearsTheProbe() throws Exception {
+        Endpoint target = new Endpoint("10.0.0.2", 1);
+        Endpoint relay = new Endpoint("10.0.0.3", 1);
+        List<SentSwim> sent = new CopyOnWriteArrayList<>();
+        RumorsImpl rumors = new RumorsImpl() {
+            @Override
+            void sendSwim(Endpoint to, ByteBuffer datagram) throws IOException {
+                SentSwim s = SentSwim.decode(to, datagram);
+                sent.add(s);
+                if (s.message.getType() == MessageType.PING_REQ) {
+                    // the relay reached the target, and relays its ack back
+                    try {
+                        processSwimMessage(new SwimMessage(MessageType.ACK, s.message.getSequence(), relay, target));
+                    } catch (RumorsException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+        swimSetUp(rumors, new Endpoint("10.0.0.1", 1));
+        rumors.addEndPoints(Arrays.asList(target, relay));
+
+        rumors.new SwimProbeRunnable().probe(target);
+        Assert.assertEquals(MessageType.PING_REQ, sent.get(sent.size() - 1).message.getType());
+        Assert.assertFalse(rumors.knownMessageSockets.get(target).isSuspected());
+    }
+
+    @Test
+    public void testPingRequestsAreRelayed() throws Exception {
+        List<SentSwim> sent = new CopyOnWriteArrayList<>();
+        RumorsImpl relay = swimNode(new Endpoint("10.0.0.3", 1), sent);
+        Endpoint requester = new Endpoint("10.0.0.1", 1);
+        Endpoint target = new Endpoint("10.0.0.2", 1);
+        relay.addEndPoints(Arrays.asList(requester, target));
+
+        relay.processSwimMessage(new SwimMessage(MessageType.PING_REQ, 42L, requester, target));
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(MessageType.PING, sent.get(0).message.getType());
+        Assert.assertEquals(target, sent.get(0).to);
+
+        // the target's ack goes back to the requester, under the requester's own sequence
+        relay.processSwimMessage(new SwimMessage(MessageType.ACK, sent.get(0).message.getSequence(), target, target));
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals(MessageType.ACK, sent.get(1).message.getType());
+        Assert.assertEquals(requester, sent.get(1).to);
+        Assert.assertEquals(42L, sent.get(1).message.getSequence());
+        Assert.assertEquals(target, sent.get(1).message.getTarget());
+    }
+
+    private static RumorsImpl swimNode(Endpoint endpoint, List<SentSwim> sent) {
+        return swimSetUp(new RumorsImpl() {
+            @Override
+            void sendSwim(Endpoint to, ByteBuffer datagram) throws IOException {
+                sent.add(SentSwim.decode(to, datagram));
+            }
+        }, endpoint);
+    }
+
+    private static RumorsImpl swimSetUp(RumorsImpl rumors, Endpoint endpoint) {
+        rumors.setSwimMode(true);
+        rumors.setSwimProbeInterval(100);
+        rumors.setSwimProbeTimeout(20);
+        rumors.setSwimFanout(1);
+        rumors.myEndpoint = endpoint;
+        rumors.addEndPoint(endpoint);
+        return rumors;
+    }
+
+    private static class SentSwim {
+        final Endpoint to;
+        final SwimMessage message;
+
+        SentSwim(Endpoint to, SwimMessage message) {
+            this.to = to;
+            this.message = message;
+        }
+
+        static SentSwim decode(Endpoint to, ByteBuffer datagram) throws IOException {
+            SwimMessage message = new SwimMessage();
+            try {
+                message.decode(datagram.duplicate(), new EndpointCodec());
+            } catch (RumorsException e) {
+                throw new IOException(e);
+            }
+            return new SentSwim(to, message);
+        }
+    }
+}
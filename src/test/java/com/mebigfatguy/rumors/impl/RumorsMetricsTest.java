@@ -0,0 +1,90 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.MetricsListener;
+import com.mebigfatguy.rumors.MetricsListener.Channel;
+
+public class RumorsMetricsTest {
+
+    private static final Endpoint PEER = new Endpoint("10.0.0.1", 9000);
+
+    @Test
+    public void testCountsPerChannel() {
+        RumorsMetrics metrics = new RumorsMetrics(() -> 3);
+        metrics.packetSent(Channel.DYNAMIC, 100);
+        metrics.packetSent(Channel.DYNAMIC, 50);
+        metrics.packetReceived(Channel.STATIC, 70);
+        metrics.packetSent(Channel.SWIM, 20);
+        metrics.decodeFailed(Channel.DYNAMIC);
+
+        Assert.assertEquals(3, metrics.getMembershipSize());
+        Assert.assertEquals(2, metrics.getDynamicPacketsSent());
+        Assert.assertEquals(150, metrics.getDynamicBytesSent());
+        Assert.assertEquals(0, metrics.getDynamicPacketsReceived());
+        Assert.assertEquals(1, metrics.getStaticPacketsReceived());
+        Assert.assertEquals(70, metrics.getStaticBytesReceived());
+        Assert.assertEquals(1, metrics.getSwimPacketsSent());
+        Assert.assertEquals(1, metrics.getDecodeFailures());
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        RumorsMetrics metrics = new RumorsMetrics(() -> 0);
+        Assert.assertEquals(0, metrics.getStaticExchangeLatencyP50());
+
+        for (int i = 0; i < 98; i++) {
+            metrics.staticExchanged(PEER, TimeUnit.MILLISECONDS.toNanos(3), true);
+        }
+        metrics.staticExchanged(PEER, TimeUnit.MILLISECONDS.toNanos(300), true);
+        metrics.staticExchanged(PEER, TimeUnit.SECONDS.toNanos(100), true);
+        metrics.staticExchanged(PEER, TimeUnit.MILLISECONDS.toNanos(1), false);
+
+        long[] histogram = metrics.getStaticExchangeLatencyHistogram();
+        Assert.assertEquals(98, histogram[2]);
+        Assert.assertEquals(1, histogram[9]);
+        Assert.assertEquals(1, histogram[RumorsMetrics.HISTOGRAM_BUCKETS - 1]);
+        Assert.assertEquals(101, metrics.getStaticExchanges());
+        Assert.assertEquals(1, metrics.getStaticExchangeFailures());
+        Assert.assertEquals(4, metrics.getStaticExchangeLatencyP50());
+        Assert.assertEquals(4, metrics.percentile(0.98));
+        Assert.assertEquals(512, metrics.getStaticExchangeLatencyP99());
+        Assert.assertEquals(Long.MAX_VALUE, metrics.percentile(1.0));
+    }
+
+    @Test
+    public void testListenerSeesMeasurements() {
+        List<String> seen = new ArrayList<>();
+        RumorsMetrics metrics = new RumorsMetrics(() -> 7);
+        metrics.setListener(new MetricsListener() {
+            @Override
+            public void packetSent(Channel channel, int bytes) {
+                seen.add("sent " + channel + " " + bytes);
+            }
+
+            @Override
+            public void endpointJoined(Endpoint endpoint, int membershipSize) {
+                seen.add("joined " + endpoint + " " + membershipSize);
+            }
+        });
+
+        metrics.packetSent(Channel.STATIC, 12);
+        metrics.endpointJoined(PEER);
+        metrics.endpointLeft(PEER);
+        metrics.messageEncoded(1000);
+
+        Assert.assertEquals(2, seen.size());
+        Assert.assertEquals("sent STATIC 12", seen.get(0));
+        Assert.assertEquals("joined " + PEER + " 7", seen.get(1));
+        Assert.assertEquals(1, metrics.getJoins());
+        Assert.assertEquals(1, metrics.getLeaves());
+        Assert.assertTrue(metrics.getJoinsPerSecond() > 0.0);
+        Assert.assertEquals(1000, metrics.getMaxEncodeNanos());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * rumors - a simple discovery/connection protocol
+ * Copyright 2011-2019 MeBigFatGuy.com
+ * Copyright 2011-2019 Dave Brosius
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.mebigfatguy.rumors.impl;
+
+/**
+ * what a ClusterSimulator measured, all in simulated time
+ */
+public final class SimulationReport {
+
+    private final int nodes;
+    private final long elapsed;
+    private final long convergence;
+    private final long bytesSent;
+    private final long datagramsSent;
+    private final long datagramsDropped;
+    private final long falseEvictions;
+
+    SimulationReport(int nodes, long elapsed, long convergence, long bytesSent, long datagramsSent, long datagramsDropped, long falseEvictions) {
+        this.nodes = nodes;
+        this.elapsed = elapsed;
+        this.convergence = convergence;
+        this.bytesSent = bytesSent;
+        this.datagramsSent = datagramsSent;
+        this.datagramsDropped = datagramsDropped;
+        this.falseEvictions = falseEvictions;
+    }
+
+    /**
+     * returns the number of nodes running at the end of the run
+     */
+    public int getNodes() {
+        return nodes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsed;
+    }
+
+    /**
+     * returns how long the cluster took to agree on its membership after the last node was started, stopped, crashed or partitioned, or -1 if
+     * it hasn't agreed since
+     */
+    public long getConvergenceMillis() {
+        return convergence;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent;
+    }
+
+    /**
+     * returns the number of datagram deliveries lost to the configured loss rate or to partitions
+     */
+    public long getDatagramsDropped() {
+        return datagramsDropped;
+    }
+
+    /**
+     * returns the average number of bytes each node sent per second
+     */
+    public double getBytesPerNodePerSecond() {
+        if ((nodes == 0) || (elapsed == 0)) {
+            return 0.0;
+        }
+        return (bytesSent * 1000.0) / nodes / elapsed;
+    }
+
+    /**
+     * returns how many times a node expired an endpoint that was still running and reachable from it
+     */
+    public long getFalseEvictions() {
+        return falseEvictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[nodes: %d, elapsed: %dms, convergence: %dms, bytes/node/s: %.1f, datagrams: %d, dropped: %d, false evictions: %d]",
+                nodes, elapsed, convergence, getBytesPerNodePerSecond(), datagramsSent, datagramsDropped, falseEvictions);
+    }
+}
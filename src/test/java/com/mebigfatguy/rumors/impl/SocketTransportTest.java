@@ -0,0 +1,97 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+public class SocketTransportTest {
+
+    private ServerSocket server;
+    private Thread peer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        if (peer != null) {
+            peer.interrupt();
+            peer.join(5000);
+        }
+    }
+
+    @Test
+    public void testOversizedRepliesAreCutOff() throws Exception {
+        // a peer that never stops replying
+        startPeer(100 * 1024, 0);
+        RumorsMetrics metrics = new RumorsMetrics(() -> 0);
+        AdmissionControl admission = new AdmissionControl(metrics);
+        admission.setMaxStaticMessageSize(64 * 1024);
+        SocketTransport transport = new SocketTransport(new Endpoint("239.255.0.1", 12345), 0, 5000);
+        transport.setAdmissionControl(admission);
+
+        try {
+            transport.exchange(serverEndpoint(), new byte[] { 0 }, 1000, 5000);
+            Assert.fail("Reply should have been cut off");
+        } catch (SocketTimeoutException e) {
+            Assert.fail("Reply should have been cut off at the size limit, not timed out");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, metrics.getOversizedMessages());
+    }
+
+    @Test
+    public void testTricklingRepliesTimeOut() throws Exception {
+        // a peer that sends a byte every 100ms, so no single read times out
+        startPeer(1, 100);
+        SocketTransport transport = new SocketTransport(new Endpoint("239.255.0.1", 12345), 0, 500);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.exchange(serverEndpoint(), new byte[] { 0 }, 500, 500);
+            Assert.fail("Exchange should have timed out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    private Endpoint serverEndpoint() {
+        return new Endpoint(server.getInetAddress().getHostAddress(), server.getLocalPort());
+    }
+
+    private void startPeer(int chunkSize, long pause) {
+        peer = new Thread(() -> {
+            try (Socket s = server.accept()) {
+                s.getInputStream().read();
+                OutputStream os = s.getOutputStream();
+                byte[] chunk = new byte[chunkSize];
+                while (!Thread.currentThread().isInterrupted()) {
+                    os.write(chunk);
+                    os.flush();
+                    Thread.sleep(pause);
+                }
+            } catch (IOException e) {
+                // the exchange gave up
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        peer.setDaemon(true);
+        peer.start();
+    }
+}
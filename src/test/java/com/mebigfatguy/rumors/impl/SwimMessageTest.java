@@ -0,0 +1,53 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+public class SwimMessageTest {
+
+    @Test
+    public void testRoundTrip() throws RumorsException {
+        Endpoint sender = new Endpoint("10.0.0.1", 1000);
+        Endpoint target = new Endpoint("10.0.0.2", 2000);
+        SwimMessage message = new SwimMessage(MessageType.PING_REQ, 42L, sender, target);
+        message.getAlive().add(new Endpoint("10.0.0.3", 3000));
+        message.getDead().add(new Endpoint("myhost", 4000));
+
+        ByteBuffer buffer = ByteBuffer.allocate(AbstractRumors.MAX_DATAGRAM_SIZE);
+        Assert.assertEquals(1, message.encode(buffer));
+        buffer.flip();
+        Assert.assertTrue(SwimMessage.isSwim(buffer));
+
+        SwimMessage decoded = new SwimMessage();
+        decoded.decode(buffer, new EndpointCodec());
+        Assert.assertEquals(MessageType.PING_REQ, decoded.getType());
+        Assert.assertEquals(42L, decoded.getSequence());
+        Assert.assertEquals(sender, decoded.getSender());
+        Assert.assertEquals(target, decoded.getTarget());
+        Assert.assertEquals(message.getAlive(), decoded.getAlive());
+        Assert.assertEquals(message.getDead(), decoded.getDead());
+    }
+
+    @Test
+    public void testUpdatesStopAfterRetransmitLimit() {
+        SwimUpdates updates = new SwimUpdates();
+        Endpoint ep = new Endpoint("10.0.0.1", 1);
+        updates.add(ep, true);
+
+        for (int i = 0; i < 3; i++) {
+            SwimMessage message = new SwimMessage(MessageType.PING, i, ep, ep);
+            updates.fill(message, 8, 3);
+            Assert.assertEquals(1, message.getAlive().size());
+        }
+
+        SwimMessage message = new SwimMessage(MessageType.PING, 3, ep, ep);
+        updates.fill(message, 8, 3);
+        Assert.assertTrue(message.getAlive().isEmpty());
+        Assert.assertEquals(0, updates.size());
+    }
+}
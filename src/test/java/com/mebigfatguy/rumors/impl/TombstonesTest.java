@@ -0,0 +1,48 @@
+package com.mebigfatguy.rumors.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+
+public class TombstonesTest {
+
+    private static final Endpoint EP = new Endpoint("10.0.0.1", 1);
+
+    @Test
+    public void testOnlyLaterIncarnationRevives() {
+        Tombstones tombstones = new Tombstones();
+        tombstones.bury(EP, 100L, 1000L);
+
+        Assert.assertTrue(tombstones.isBuried(EP, 500L));
+        Assert.assertFalse(tombstones.revive(EP, 100L, 500L));
+        Assert.assertTrue(tombstones.isBuried(EP, 500L));
+
+        Assert.assertTrue(tombstones.revive(EP, 101L, 500L));
+        Assert.assertFalse(tombstones.isBuried(EP, 500L));
+    }
+
+    @Test
+    public void testUnknownIncarnationRevives() {
+        Tombstones tombstones = new Tombstones();
+        tombstones.bury(EP, 0L, 1000L);
+        Assert.assertTrue(tombstones.revive(EP, 100L, 500L));
+
+        tombstones.bury(EP, 100L, 1000L);
+        Assert.assertTrue(tombstones.revive(EP, 0L, 500L));
+    }
+
+    @Test
+    public void testTombstonesRunOut() {
+        Tombstones tombstones = new Tombstones();
+        tombstones.bury(EP, 100L, 1000L);
+        Assert.assertFalse(tombstones.isBuried(EP, 1000L));
+        Assert.assertTrue(tombstones.revive(EP, 50L, 1000L));
+
+        tombstones.bury(EP, 100L, 1000L);
+        tombstones.purge(999L);
+        Assert.assertEquals(1, tombstones.size());
+        tombstones.purge(1000L);
+        Assert.assertEquals(0, tombstones.size());
+    }
+}
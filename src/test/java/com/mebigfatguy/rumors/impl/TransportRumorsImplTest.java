@@ -0,0 +1,106 @@
+package com.mebigfatguy.rumors.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mebigfatguy.rumors.Endpoint;
+import com.mebigfatguy.rumors.RumorsException;
+
+public class TransportRumorsImplTest {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final List<TransportRumorsImpl> nodes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (TransportRumorsImpl node : nodes) {
+            node.end();
+        }
+    }
+
+    @Test
+    public void testLoopbackClusterConverges() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(startNode());
+        }
+        for (TransportRumorsImpl node : nodes) {
+            awaitSize(node, 3);
+            Assert.assertTrue(node.getMetrics().getDynamicPacketsSent() > 0);
+            Assert.assertTrue(node.getMetrics().getJoins() >= 3);
+        }
+
+        TransportRumorsImpl leaver = nodes.remove(2);
+        Endpoint gone = leaver.myEndpoint;
+        leaver.end();
+        for (TransportRumorsImpl node : nodes) {
+            awaitSize(node, 2);
+            Assert.assertFalse(node.getEndpoints().contains(gone));
+        }
+    }
+
+    @Test
+    public void testPoint2PointExchange() throws Exception {
+        // a network that drops every datagram, so the only way to learn about each other is to exchange
+        LoopbackNetwork silent = new LoopbackNetwork() {
+            @Override
+            void broadcast(byte[] datagram) {
+            }
+        };
+
+        TransportRumorsImpl server = new TransportRumorsImpl(new LoopbackTransport(silent));
+        server.begin();
+        nodes.add(server);
+
+        TransportRumorsImpl client = new TransportRumorsImpl(new LoopbackTransport(silent));
+        client.setBroadcastAnnounceDelay("50,100,200");
+        client.setPoint2PointEndpoints(Collections.singletonList(server.myEndpoint));
+        client.begin();
+        nodes.add(client);
+
+        awaitSize(client, 2);
+        awaitSize(server, 2);
+
+        Assert.assertTrue(client.getMetrics().getStaticExchanges() > 0);
+        Assert.assertTrue(client.getMetrics().getStaticBytesReceived() > 0);
+        Assert.assertTrue(server.getMetrics().getStaticPacketsSent() > 0);
+        Assert.assertEquals(0, client.getMetrics().getDecodeFailures());
+    }
+
+    @Test
+    public void testBootstrapPullsFullView() throws Exception {
+        // announces are far enough off that only bootstrapping can spread the membership in time
+        for (int i = 0; i < 3; i++) {
+            TransportRumorsImpl node = new TransportRumorsImpl(new LoopbackTransport(network));
+            node.setBroadcastAnnounceDelay("10000,60000");
+            node.begin();
+            nodes.add(node);
+        }
+
+        for (TransportRumorsImpl node : nodes) {
+            awaitSize(node, 3);
+        }
+        Assert.assertEquals(-1, nodes.get(0).getMetrics().getBootstrapMillis());
+        Assert.assertTrue(nodes.get(2).getMetrics().getBootstrapMillis() >= 0);
+        Assert.assertTrue(nodes.get(2).getMetrics().getStaticExchanges() > 0);
+    }
+
+    private TransportRumorsImpl startNode() throws RumorsException {
+        TransportRumorsImpl node = new TransportRumorsImpl(new LoopbackTransport(network));
+        node.setBroadcastAnnounceDelay("50,100,200");
+        node.begin();
+        return node;
+    }
+
+    private static void awaitSize(TransportRumorsImpl node, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((node.getEndpoints().size() != size) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(size, node.getEndpoints().size());
+    }
+}